@@ -0,0 +1,35 @@
+package src.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import src.shared.WordDictionary;
+
+public class BenchSupport {
+    public static final String GUESS_PATH = "./resources/guess.txt";
+    public static final String TARGET_PATH = "./resources/target.txt";
+
+    /**************************************************************************
+     * Loads the shipped word lists onto the heap. Benchmarks must be run from
+     * the top of the repository so the relative paths resolve.
+     * @return - The dictionary
+     *************************************************************************/
+    public static WordDictionary loadDictionary () {
+        try {
+            return WordDictionary.load(GUESS_PATH, TARGET_PATH);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "Run the benchmarks from the top of the repository", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Throws away everything written to standard out, so the server's per
+     * game logging doesn't flood the benchmark output.
+     *************************************************************************/
+    public static void silenceStdout () {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
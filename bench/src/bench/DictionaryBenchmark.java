@@ -0,0 +1,72 @@
+package src.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.shared.DictionarySnapshot;
+import src.shared.WordDictionary;
+
+/******************************************************************************
+ * Measures isValidGuess against the heap and memory mapped dictionaries,
+ * cycling through a mix of valid and invalid words.
+ *****************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+    private static final String[] WORDS = {
+        "CRANE", "slate", "XXXXX", "ZYMIC", "ABACK", "QWERT", "pound", "AAHED"
+    };
+
+    private WordDictionary heap;
+    private WordDictionary mapped;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup () throws IOException {
+        heap = BenchSupport.loadDictionary();
+
+        File snapshot = File.createTempFile("networdle", ".bin");
+        snapshot.deleteOnExit();
+        DictionarySnapshot.compile(snapshot.getPath(), BenchSupport.GUESS_PATH,
+                                   BenchSupport.TARGET_PATH);
+        mapped = DictionarySnapshot.map(snapshot.getPath());
+    }
+
+
+    @Benchmark
+    public boolean heapString () {
+        next = (next + 1) & 7;
+        return heap.isValidGuess(WORDS[next]);
+    }
+
+
+    @Benchmark
+    public boolean mappedString () {
+        next = (next + 1) & 7;
+        return mapped.isValidGuess(WORDS[next]);
+    }
+
+
+    @Benchmark
+    public int packOnly () {
+        next = (next + 1) & 7;
+        return WordDictionary.pack(WORDS[next]);
+    }
+}
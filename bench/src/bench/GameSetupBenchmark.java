@@ -0,0 +1,71 @@
+package src.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.server.GameContext;
+import src.server.GameSession;
+import src.shared.MessageCodec;
+
+/******************************************************************************
+ * Measures what it costs the server to set up a new game, not counting the
+ * socket itself: creating the session, then handling START GAME, which
+ * picks the target word, readies the hint and sends the empty hint back.
+ *****************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameSetupBenchmark {
+
+    /**************************************************************************
+     * A connection that throws away everything the game sends.
+     *************************************************************************/
+    private static class NullConnection implements GameSession.Connection {
+        public void writeMessage (String message) { }
+        public void writeMessage (byte[] b, int off, int len) { }
+        public void closeClient () { }
+        public void setFrameLength (int length) { }
+        public void timedOut (byte[] message) { }
+        public boolean offer (ByteBuffer event, Executor writer) {
+            return true;
+        }
+        public void pauseUntil (CompletableFuture<?> work) { }
+    }
+
+    private GameContext context;
+    private NullConnection connection;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        BenchSupport.silenceStdout();
+        context = new GameContext(BenchSupport.loadDictionary());
+        connection = new NullConnection();
+    }
+
+
+    @Benchmark
+    public GameSession newGame () {
+        GameSession session = new GameSession(connection, "/127.0.0.1:0",
+                                              context);
+        session.handleMessage(MessageCodec.START_GAME, 0,
+                              MessageCodec.START_GAME.length);
+        return session;
+    }
+}
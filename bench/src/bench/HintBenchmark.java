@@ -0,0 +1,85 @@
+package src.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.shared.FeedbackMatrix;
+import src.shared.HintEngine;
+import src.shared.WordDictionary;
+
+/******************************************************************************
+ * Measures hint generation, the hottest part of every guess. Each call picks
+ * the next target and guess pair so branch prediction can't learn a single
+ * pair.
+ *****************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HintBenchmark {
+    private WordDictionary dictionary;
+    private FeedbackMatrix matrix;
+    private byte[] hint;
+    private int targetIndex;
+    private int guessIndex;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        dictionary = BenchSupport.loadDictionary();
+        matrix = FeedbackMatrix.build(dictionary);
+        hint = new byte[WordDictionary.WORD_LENGTH];
+    }
+
+
+    /**************************************************************************
+     * Moves on to the next target and guess pair.
+     *************************************************************************/
+    private void next () {
+        guessIndex += 7919;
+        if (guessIndex >= dictionary.guessCount()) {
+            guessIndex -= dictionary.guessCount();
+            targetIndex = (targetIndex + 1) % dictionary.targetCount();
+        }
+    }
+
+
+    @Benchmark
+    public int score () {
+        next();
+        return HintEngine.score(dictionary.guessPacked(guessIndex),
+                                dictionary.targetPacked(targetIndex));
+    }
+
+
+    @Benchmark
+    public byte[] scoreAndRender () {
+        next();
+        int guess = dictionary.guessPacked(guessIndex);
+        int code = HintEngine.score(guess,
+                                    dictionary.targetPacked(targetIndex));
+        HintEngine.render(guess, code, hint, 0);
+        return hint;
+    }
+
+
+    @Benchmark
+    public byte[] matrixAndRender () {
+        next();
+        int code = matrix.hint(targetIndex, guessIndex);
+        HintEngine.render(dictionary.guessPacked(guessIndex), code, hint, 0);
+        return hint;
+    }
+}
@@ -0,0 +1,146 @@
+package src.bench;
+
+import java.util.ArrayList;
+
+import src.shared.HintEngine;
+import src.shared.ProtocolHandler;
+import src.shared.WordDictionary;
+
+/******************************************************************************
+ * Checks that HintEngine gives exactly the same hint as the string based
+ * generateHint it replaced, for every target and every guess in the shipped
+ * lists. The old method is kept here unchanged as the reference. Run it
+ * from the top of the repository after building:
+ *
+ *     java -cp bench/target/benchmarks.jar src.bench.HintEquivalence
+ *
+ * Exits with 1 if any pair differs, printing the first few.
+ *****************************************************************************/
+public class HintEquivalence {
+    private static final int MAX_REPORTED = 10;
+
+    /**************************************************************************
+     * Main driver function for the check.
+     * @param args - Unused
+     *************************************************************************/
+    public static void main (String[] args) {
+        WordDictionary dictionary = BenchSupport.loadDictionary();
+        byte[] hint = new byte[WordDictionary.WORD_LENGTH];
+        long pairs = 0;
+        long mismatches = 0;
+
+        String[] guesses = new String[dictionary.guessCount()];
+        for (int g = 0; g < guesses.length; g++) {
+            guesses[g] = WordDictionary.unpack(dictionary.guessPacked(g));
+        }
+
+        for (int t = 0; t < dictionary.targetCount(); t++) {
+            String targetWord = dictionary.targetWord(t);
+            int target = dictionary.targetPacked(t);
+
+            for (int g = 0; g < guesses.length; g++) {
+                int guess = dictionary.guessPacked(g);
+                HintEngine.render(guess, HintEngine.score(guess, target),
+                                  hint, 0);
+                String expected = generateHint(targetWord, guesses[g]);
+                pairs++;
+
+                if (!expected.equals(new String(hint, 0, hint.length))) {
+                    if (++mismatches <= MAX_REPORTED) {
+                        System.out.println("Mismatch: target " + targetWord
+                                    + ", guess " + guesses[g] + ", expected "
+                                    + expected + ", got "
+                                    + new String(hint, 0, hint.length));
+                    }
+                }
+            }
+        }
+
+        System.out.println("Checked " + pairs + " target and guess pairs, "
+                           + mismatches + " mismatches");
+        if (mismatches > 0) System.exit(1);
+    }
+
+
+    /**************************************************************************
+     * The hint generator HintEngine replaced, exactly as it was in
+     * GameSession apart from taking the target as a parameter.
+     * @param targetWord - The word the client is trying to guess
+     * @param guess - The guess to compare against the target word
+     * @return - The hint
+     *************************************************************************/
+    private static String generateHint (String targetWord, String guess) {
+        StringBuilder hintBuilder = new StringBuilder(targetWord.length());
+        boolean[] matched = new boolean[targetWord.length()];
+
+        // Set the hint to all underscores to begin with
+        hintBuilder.append(ProtocolHandler.START_RESPONSE);
+
+        // Loop through, set all correct letters in the hint.
+        for (int i = 0; i < targetWord.length(); i++) {
+            char gLtr = guess.charAt(i);
+            char tLtr = targetWord.charAt(i);
+
+            if (gLtr == tLtr) {
+                hintBuilder.setCharAt(i, gLtr);
+                matched[i] = true;
+            }
+        }
+
+        // Loop through, set all characters that are in the word, but are in
+        // the wrong place
+        for (int i = 0; i < targetWord.length(); i++) {
+            // The characters we want to work with
+            char gLtr = guess.charAt(i);
+            char tLtr = targetWord.charAt(i);
+
+            // Get the posiion in the target wod of this character
+            int occurance = targetWord.indexOf(gLtr);
+            occurance = (occurance >= 0) ? occurance : i;
+
+            // Get all the positions of this character in the target word and
+            // check to see if they've all been matched
+            Integer[] indexes = getIndexesOfChar(targetWord, gLtr);
+            boolean allMatched = false;
+            int matches = 0;
+
+            for (int index: indexes) {
+                if (matched[index]) matches++;
+            }
+
+            if (matches == indexes.length && indexes.length > 0) {
+                allMatched = true;
+            }
+
+            // If this character isn't in the right position, but does appear
+            // in the target word at another position, and all of those other
+            // positions haven't been matched, show this character in the hint
+            // in lower case.
+            if (gLtr != tLtr && targetWord.contains("" + gLtr) && !allMatched){
+                hintBuilder.setCharAt(i, Character.toLowerCase(gLtr));
+                matched[occurance] = true;
+            }
+        }
+
+        return hintBuilder.toString();
+    }
+
+
+    /**************************************************************************
+     * Finds every position of a character in a word, as the old generator
+     * did.
+     * @param word - The word to search
+     * @param ch - The character to find
+     * @return - The positions
+     *************************************************************************/
+    private static Integer[] getIndexesOfChar (String word, char ch) {
+        ArrayList<Integer> indexes = new ArrayList<Integer>();
+
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) == ch) indexes.add(i);
+        }
+
+        Integer[] data = new Integer[indexes.size()];
+        return indexes.toArray(data);
+    }
+}
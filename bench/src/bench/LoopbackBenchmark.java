@@ -0,0 +1,115 @@
+package src.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.server.GameContext;
+import src.server.NioServer;
+import src.server.Server;
+import src.shared.MessageCodec;
+import src.shared.ProtocolHandler;
+
+/******************************************************************************
+ * Measures full round trips over loopback against a server running in the
+ * same process, for each server engine.
+ *****************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+    // A valid guess that isn't in the target list, so it never ends a game
+    private static final byte[] GUESS = ProtocolHandler.encodeMessage("AAHED");
+    private static final byte[] START = MessageCodec.START_GAME;
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    private int port;
+    private Socket game;
+    private MessageCodec codec;
+
+    @Setup(Level.Trial)
+    public void setup () throws IOException, InterruptedException {
+        BenchSupport.silenceStdout();
+        GameContext context = new GameContext(BenchSupport.loadDictionary());
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        Thread server = new Thread(() -> {
+            if (engine.equals("nio")) {
+                new NioServer(port, 1, context).start();
+            } else {
+                new Server(port, context, "platform").start();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(500);
+
+        game = new Socket("127.0.0.1", port);
+        game.setTcpNoDelay(true);
+        codec = new MessageCodec();
+        roundTrip(game, START);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown () throws IOException {
+        game.close();
+    }
+
+
+    /**************************************************************************
+     * Sends a message and waits for the server's reply.
+     * @param socket - The connection to the server
+     * @param message - The encoded message to send
+     * @return - The length of the reply
+     * @throws IOException - If the connection fails
+     *************************************************************************/
+    private int roundTrip (Socket socket, byte[] message) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        InputStream in = socket.getInputStream();
+        out.write(message);
+
+        if (!codec.readFrame(in)) throw new IOException("Server hung up");
+        return codec.frameLength();
+    }
+
+
+    @Benchmark
+    public int guessRoundTrip () throws IOException {
+        return roundTrip(game, GUESS);
+    }
+
+
+    @Benchmark
+    public int connectAndStart () throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setTcpNoDelay(true);
+            return roundTrip(socket, START);
+        }
+    }
+}
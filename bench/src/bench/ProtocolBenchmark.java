@@ -0,0 +1,79 @@
+package src.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.shared.MessageCodec;
+import src.shared.ProtocolHandler;
+import src.shared.ProtocolHandler.ControlMessage;
+
+/******************************************************************************
+ * Measures the ProtocolHandler helpers and framing several coalesced
+ * messages out of a reused MessageCodec.
+ *****************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    private byte[] guess;
+    private byte[] startGame;
+    private byte[] pipelined;
+    private MessageCodec codec;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        guess = ProtocolHandler.encodeMessage("CRANE");
+        startGame = ProtocolHandler.encodeMessage(ProtocolHandler.START_GAME);
+        pipelined = ProtocolHandler.encodeMessage("CRANE\nSLATE\nPOUND");
+        codec = new MessageCodec();
+    }
+
+
+    @Benchmark
+    public byte[] encodeMessage () {
+        return ProtocolHandler.encodeMessage("CRANE");
+    }
+
+
+    @Benchmark
+    public String decodeMessage () {
+        return ProtocolHandler.decodeMessage(guess);
+    }
+
+
+    @Benchmark
+    public boolean isValidProtocolMessage () {
+        return ProtocolHandler.isValidProtocolMessage(guess);
+    }
+
+
+    @Benchmark
+    public boolean isValidControlMessage () {
+        return ProtocolHandler.isValidControlMessage(startGame,
+                                        ControlMessage.CLIENT_START_GAME);
+    }
+
+
+    @Benchmark
+    public int frameThreeMessages () {
+        codec.buffer().put(pipelined);
+
+        int total = 0;
+        while (codec.nextFrame()) total += codec.frameLength();
+        return total;
+    }
+}
@@ -1,3 +1,6 @@
 rm src/client/*.class
 rm src/server/*.class
-rm src/shared/*.class
\ No newline at end of file
+rm src/router/*.class
+rm src/shared/*.class
+rm -f resources/dictionary.bin
+rm -f resources/feedback.bin
@@ -4,15 +4,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.Scanner;
 
+import src.shared.MessageBatch;
+import src.shared.MessageCodec;
 import src.shared.ProtocolHandler;
 import src.shared.Utils;
 import src.shared.ProtocolHandler.ControlMessage;
 
 public class Client {
 
-    private static final int MAX_BYTES = 256;
+    private static MessageCodec codec = new MessageCodec();
+    private static boolean gameWon;     // If the last game ended in a win
+    private static String token;        // The stateless game's token, or null
+    private static int wordLength = 5;  // Letters in the chosen word list
+    private static boolean raceOver;    // If the room's winner was announced
 
     /**************************************************************************
      * Main driver function of the program.
@@ -21,18 +28,118 @@ public class Client {
     public static void main(String[] args) {
         checkArgs(args); // Check that we've been given the right args
 
-        boolean gameActive = true;               // Controls main game loop
         String address = args[0];                // The host address
         int port = processPort(args[1]);         // The host port
+        int pipeline = processPipeline(args);    // Guesses kept in flight
+        String start = processStart(args);       // How to start the game
+        int games = processGames(args);          // Games on one connection
         Scanner input = new Scanner(System.in);  // Used for user input
 
-        // Connect to the server and send START GAME message
+        // Each stateless guess needs the token from the last reply
+        if (pipeline > 1 && start.equals(ProtocolHandler.START_STATELESS)) {
+            Utils.errorAndDie("--stateless can't be used with --pipeline.");
+        }
+
+        // Connect to the server and play every game over that connection
         Socket connection = connectToServer(address, port);
-        writeMessage(ProtocolHandler.START_GAME, connection);
+
+        // Name the player first, so the server counts their games
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--player=")) {
+                writeMessage(ProtocolHandler.PLAYER + args[i].substring(9),
+                             connection);
+            }
+        }
+
+        // Questions about players are answered instead of playing
+        String query = processQuery(args);
+        if (query != null) {
+            showQuery(query, connection);
+            input.close();
+            disconnectFromServer(connection);
+            return;
+        }
+
+        for (int g = 1; g <= games; g++) {
+            if (games > 1) System.out.println("Game " + g + " of " + games);
+
+            playGame(connection, start, input, pipeline);
+            if (!gameWon) break;
+
+            // A resumed game is finished now, so carry on with new ones
+            if (start.startsWith(ProtocolHandler.RESUME)) {
+                start = ProtocolHandler.START_GAME;
+            }
+        }
+
+        // Disconnect when we're done, close the scanner
+        input.close();
+        disconnectFromServer(connection);
+    }
+
+
+    /**************************************************************************
+     * Plays a single game over a connection to the server. The server only
+     * keeps the connection open for another game once this one is won if
+     * it's running with --keep-alive.
+     * @param connection - The connection to the server
+     * @param start - The message to start the game with
+     * @param input - Where to read guesses from
+     * @param pipeline - The most guesses to have in flight at once
+     *************************************************************************/
+    private static void playGame (Socket connection, String start,
+                                  Scanner input, int pipeline)
+    {
+        boolean gameActive = true;               // Controls main game loop
+        gameWon = false;
+
+        // Send the START GAME message
+        writeMessage(start, connection);
+
+        // A spectator has no game, only the room's events until it's won
+        if (start.startsWith(ProtocolHandler.WATCH_ROOM)) {
+            watchRoom(connection);
+            return;
+        }
+
+        // A race room's player is told its number before the first hint
+        if (start.startsWith(ProtocolHandler.JOIN_ROOM)) {
+            String joined = ProtocolHandler.decodeMessage(
+                                                readMessage(connection));
+            if (joined.startsWith(ProtocolHandler.JOINED)) {
+                System.out.println("Joined the race as player "
+                        + joined.substring(ProtocolHandler.JOINED.length()));
+            }
+        }
+
+        // A resumable game is given a session id before the first hint
+        if (start.equals(ProtocolHandler.START_SESSION)) {
+            String session = ProtocolHandler.decodeMessage(
+                                                readMessage(connection));
+            if (session.startsWith(ProtocolHandler.SESSION)) {
+                String id = session.substring(
+                                        ProtocolHandler.SESSION.length());
+                System.out.println("Session: " + id + " (carry on later "
+                                   + "with --resume=" + id + ")");
+            }
+        }
 
         // Check that the server responds correctly to a new game being started
         byte[] initMessage = readMessage(connection);
 
+        // A stateless game's first hint comes with the game's token
+        token = null;
+        if (start.equals(ProtocolHandler.START_STATELESS)) {
+            initMessage = takeToken(initMessage);
+        }
+
+        if (ProtocolHandler.UNKNOWN_DICTIONARY.equals(
+                                ProtocolHandler.decodeMessage(initMessage)))
+        {
+            Utils.error("The server doesn't have that word list.");
+            return;
+        }
+
         if (isValidServerInit(initMessage)) {
             gameActive = true;
             System.out.println("Hint: " + 
@@ -42,59 +149,246 @@ public class Client {
         }
 
         try {
+            if (pipeline > 1) {
+                playPipelined(connection, input, pipeline);
+            }
+
             // Main game loop
-            while (gameActive) {
+            while (gameActive && pipeline <= 1) {
                 // Read the clients guess and send it to the server
                 System.out.print("Enter a guess: ");
                 String message = input.nextLine();
+                if (token != null) message += " " + token;
                 writeMessage(message, connection);
 
                 // Read response from server
                 byte[] resp = readMessage(connection);
-                String data = ProtocolHandler.decodeMessage(resp);
+                gameActive = handleGuessResponse(resp, "Hint: ", connection);
+            }
+        } catch (Exception e) {
+            Utils.error("An error occured during execution. Game dropped.");
+        }
+    }
 
-                // Check we got a valid response from the server to our guess
-                if (!isValidGuessResponse(resp)) {
-                    Utils.error("Invalid response received from server");
-                    gameActive = false;
-                }
 
-                // Check if the server sent us a number. If so, we know the
-                // games's over and we need to do do a few special things.
-                if (isNumber(data)) {
-                    // Read again to check for a valid GAME OVER message
-                    byte[] endResp = readMessage(connection);
-                    String endRespStr = ProtocolHandler.decodeMessage(endResp);
-
-                    // If the server sent a valid GAME OVER message, show the
-                    // user the number of guesses it took them to get the
-                    // target word
-                    if (ProtocolHandler.isValidControlMessage(endResp, 
-                                            ControlMessage.SERVER_END_GAME)) {
-                        System.out.printf("%s %s %s\n",
-                            "Well done! You successfully guessed the word in",
-                            data,
-                            "guesses."
-                        );
-                    } else {
-                        Utils.error("Server sent invalid GAME OVER message.");
-                    }
-
-                    // We're done with the game - break out of the main loop.
-                    gameActive = false;
-                } else {
-                    // If we received a valid guess response but didn't guess
-                    // the target word, display the hint the server sent back.
-                    System.out.println("Hint: " + data);   
+    /**************************************************************************
+     * Asks the server about players and shows the answer.
+     * @param query - The STATS or LEADERBOARD message
+     * @param connection - The connection to the server
+     *************************************************************************/
+    private static void showQuery (String query, Socket connection) {
+        writeMessage(query, connection);
+
+        byte[] resp;
+        while ((resp = readMessage(connection)) != null) {
+            String data = ProtocolHandler.decodeMessage(resp);
+
+            if (data.equals(ProtocolHandler.UNKNOWN_PLAYER)) {
+                System.out.println("The server has no games for that "
+                                   + "player.");
+                return;
+            } else if (data.startsWith(ProtocolHandler.STATS)) {
+                String[] f = data.substring(
+                            ProtocolHandler.STATS.length()).split(" ");
+                System.out.println(f[0] + ": " + f[1] + " played, " + f[2]
+                        + " won, streak " + f[3] + " (best " + f[4] + "), "
+                        + f[5] + " guesses per win");
+                for (int i = 6; i < f.length; i++) {
+                    String guesses = (i == f.length - 1) ? (i - 5) + "+"
+                                                         : "" + (i - 5);
+                    System.out.println("  " + guesses + ": " + f[i]);
                 }
+                return;
+            } else if (data.startsWith(ProtocolHandler.LEADER)) {
+                String[] f = data.substring(
+                            ProtocolHandler.LEADER.length()).split(" ");
+                System.out.println(f[0] + ". " + f[1] + " - " + f[2]
+                                   + " wins, " + f[3] + " guesses per win");
+            } else if (data.equals(ProtocolHandler.END_LEADERBOARD)) {
+                return;
+            } else {
+                Utils.error("Invalid response received from server");
+                return;
             }
-        } catch (Exception e) {
-            Utils.error("An error occured during execution. Game dropped.");
         }
+    }
 
-        // Disconnect when we're done, close the scanner
-        input.close();
-        disconnectFromServer(connection);
+
+    /**************************************************************************
+     * Shows a race room's events as they arrive, until the winner is
+     * announced or the server hangs up.
+     * @param connection - The connection to the server
+     *************************************************************************/
+    private static void watchRoom (Socket connection) {
+        byte[] resp = readFrame(connection);
+        if (resp == null || !ProtocolHandler.WATCHING.equals(
+                                        ProtocolHandler.decodeMessage(resp)))
+        {
+            Utils.error("Invalid response received from server");
+            return;
+        }
+
+        System.out.println("Watching the race");
+        raceOver = false;
+
+        while (!raceOver && (resp = readFrame(connection)) != null) {
+            String event = ProtocolHandler.decodeMessage(resp);
+            if (!event.startsWith(ProtocolHandler.ROOM_EVENT)) {
+                Utils.error("Invalid response received from server");
+                return;
+            }
+            showRoomEvent(event);
+        }
+    }
+
+
+    /**************************************************************************
+     * Shows one of a race room's events to the user.
+     * @param event - The event, see ProtocolHandler.ROOM_EVENT
+     *************************************************************************/
+    private static void showRoomEvent (String event) {
+        if (event.startsWith(ProtocolHandler.ROOM_PLAYER)) {
+            String[] parts = event.substring(
+                        ProtocolHandler.ROOM_PLAYER.length()).split(" ");
+            if (parts.length == 3) {
+                System.out.println("Player " + parts[0] + ", guess "
+                                   + parts[1] + ": " + parts[2]);
+                return;
+            }
+        } else if (event.startsWith(ProtocolHandler.ROOM_WINNER)) {
+            String[] parts = event.substring(
+                        ProtocolHandler.ROOM_WINNER.length()).split(" ");
+            if (parts.length == 2) {
+                System.out.println("Player " + parts[0] + " won the race in "
+                                   + parts[1] + " guesses");
+                raceOver = true;
+                return;
+            }
+        }
+
+        System.out.println(event);
+    }
+
+
+    /**************************************************************************
+     * Handles the server's response to a guess. Shows the user the hint, or
+     * if they guessed the target word, checks for GAME OVER and shows them
+     * how many guesses it took.
+     * @param resp - The response from the server
+     * @param label - Shown in front of a hint
+     * @param connection - The connection to the server
+     * @return - True if the game is still going, otherwise false
+     *************************************************************************/
+    private static boolean handleGuessResponse (byte[] resp, String label,
+                                                Socket connection)
+    {
+        if (token != null) resp = takeToken(resp);
+        String data = ProtocolHandler.decodeMessage(resp);
+
+        // The server closes games that go too long without a guess
+        if (ProtocolHandler.TIMED_OUT.equals(data)) {
+            System.out.println("The game timed out.");
+            return false;
+        }
+
+        // In hard mode, a guess that ignores a hint isn't counted
+        if (ProtocolHandler.HINT_NOT_USED.equals(data)) {
+            System.out.println("That guess doesn't use every hint so far.");
+            return true;
+        }
+
+        // Check we got a valid response from the server to our guess
+        if (!isValidGuessResponse(resp)) {
+            Utils.error("Invalid response received from server");
+            return false;
+        }
+
+        // Check if the server sent us a number. If so, we know the
+        // games's over and we need to do do a few special things.
+        if (isNumber(data)) {
+            // Read again to check for a valid GAME OVER message
+            byte[] endResp = readMessage(connection);
+
+            // If the server sent a valid GAME OVER message, show the
+            // user the number of guesses it took them to get the
+            // target word
+            if (ProtocolHandler.isValidControlMessage(endResp, 
+                                    ControlMessage.SERVER_END_GAME)) {
+                System.out.printf("%s %s %s\n",
+                    "Well done! You successfully guessed the word in",
+                    data,
+                    "guesses."
+                );
+                gameWon = true;
+            } else {
+                Utils.error("Server sent invalid GAME OVER message.");
+            }
+
+            // We're done with the game - break out of the main loop.
+            return false;
+        }
+
+        // If we received a valid guess response but didn't guess
+        // the target word, display the hint the server sent back.
+        System.out.println(label + data);
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Splits the token off the end of a reply in a stateless game, keeping
+     * it to send with the next guess. Replies without a token, such as
+     * INVALID GUESS, are left alone and the last token is kept.
+     * @param resp - The reply from the server
+     * @return - The reply without its token
+     *************************************************************************/
+    private static byte[] takeToken (byte[] resp) {
+        if (resp == null) return null;
+
+        String data = ProtocolHandler.decodeMessage(resp);
+        int space = data.length() - ProtocolHandler.TOKEN_CHARS - 1;
+
+        if (space < 0 || data.charAt(space) != ' ') return resp;
+
+        token = data.substring(space + 1);
+        return ProtocolHandler.encodeMessage(data.substring(0, space));
+    }
+
+
+    /**************************************************************************
+     * Plays a game with several guesses in flight at once. Guesses are read
+     * from the input until it runs out, and up to the given number of them
+     * are sent without waiting for the server's responses, which arrive in
+     * the same order. Guesses are sent together in one write.
+     * @param connection - The connection to the server
+     * @param input - Where to read guesses from, one per line
+     * @param depth - The most guesses to have in flight at once
+     * @throws IOException - If the guesses can't be sent
+     *************************************************************************/
+    private static void playPipelined (Socket connection, Scanner input,
+                                       int depth)
+        throws IOException
+    {
+        ArrayDeque<String> inFlight = new ArrayDeque<String>();
+        MessageBatch batch = new MessageBatch();
+        boolean gameActive = true;
+
+        while (gameActive) {
+            // Top the pipeline back up and send the new guesses together
+            while (inFlight.size() < depth && input.hasNextLine()) {
+                String guess = input.nextLine();
+                batch.add(guess);
+                inFlight.add(guess);
+            }
+            batch.writeTo(connection.getOutputStream());
+
+            // Stop once every guess has been answered
+            if (inFlight.isEmpty()) return;
+
+            byte[] resp = readMessage(connection);
+            String guess = inFlight.poll();
+            gameActive = handleGuessResponse(resp, guess + ": ", connection);
+        }
     }
 
 
@@ -134,6 +428,156 @@ public class Client {
     }
 
 
+    /**************************************************************************
+     * Gets the number of guesses to keep in flight from the optional
+     * --pipeline=N argument. Terminates the program if it isn't valid.
+     * @param args - The command line arguments given to the program
+     * @return - The pipeline depth, or 1 to play interactively
+     *************************************************************************/
+    private static int processPipeline (String[] args) {
+        int depth = 1;
+
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--session")
+                || args[i].equals("--stateless")
+                || args[i].equals("--hard")
+                || args[i].startsWith("--length=")
+                || args[i].startsWith("--language=")
+                || args[i].startsWith("--player=")
+                || args[i].startsWith("--stats=")
+                || args[i].equals("--leaderboard")
+                || args[i].startsWith("--room=")
+                || args[i].startsWith("--watch=")
+                || args[i].startsWith("--resume=")
+                || args[i].startsWith("--games="))
+            {
+                continue;
+            }
+
+            if (!args[i].startsWith("--pipeline=")) {
+                Utils.errorAndDie("Invalid option " + args[i] + ".\nUsage:" +
+                        "./startClient {address} {port number} " +
+                        "[--pipeline=N] [--session | --resume=ID | " +
+                        "--stateless | --hard] [--games=N] " +
+                        "[--length=N] [--language=XX] " +
+                        "[--room=NAME | --watch=NAME] " +
+                        "[--player=NAME] [--stats=NAME | --leaderboard]");
+            }
+
+            try {
+                depth = Integer.parseInt(args[i].substring(11));
+            } catch (NumberFormatException e) {
+                Utils.errorAndDie("Invalid pipeline depth.\nUsage:" +
+                        "./startClient {address} {port number} " +
+                        "[--pipeline=N]");
+            }
+        }
+
+        return Math.max(1, depth);
+    }
+
+
+    /**************************************************************************
+     * Gets the number of games to play over one connection from the
+     * optional --games=N argument. Terminates the program if it isn't valid.
+     * @param args - The command line arguments given to the program
+     * @return - The number of games, at least 1
+     *************************************************************************/
+    private static int processGames (String[] args) {
+        int games = 1;
+
+        for (int i = 2; i < args.length; i++) {
+            if (!args[i].startsWith("--games=")) continue;
+
+            try {
+                games = Integer.parseInt(args[i].substring(8));
+            } catch (NumberFormatException e) {
+                Utils.errorAndDie("Invalid number of games.\nUsage:" +
+                        "./startClient {address} {port number} " +
+                        "[--games=N]");
+            }
+        }
+
+        return Math.max(1, games);
+    }
+
+
+    /**************************************************************************
+     * Gets a question about players from the optional arguments. --stats=NAME
+     * asks for a player's statistics, and --leaderboard for the players
+     * with the most wins.
+     * @param args - The command line arguments given to the program
+     * @return - The message to ask with, or null to play instead
+     *************************************************************************/
+    private static String processQuery (String[] args) {
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--stats=")) {
+                return ProtocolHandler.STATS + args[i].substring(8);
+            } else if (args[i].equals("--leaderboard")) {
+                return ProtocolHandler.LEADERBOARD;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**************************************************************************
+     * Works out how to start the game from the optional arguments. --session
+     * starts a game that can be resumed after a disconnect, and --resume=ID
+     * carries on with one. --stateless starts a game whose state the client
+     * carries in a token, and --hard starts a game in hard mode.
+     * --length=N and --language=XX start a game from another of the
+     * server's word lists. --room=NAME races everyone else in a room to the
+     * same word, and --watch=NAME watches them.
+     * @param args - The command line arguments given to the program
+     * @return - The message to start the game with
+     *************************************************************************/
+    private static String processStart (String[] args) {
+        String start = ProtocolHandler.START_GAME;
+        String list = "";
+
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--length=")) {
+                try {
+                    wordLength = Integer.parseInt(args[i].substring(9));
+                } catch (NumberFormatException e) {
+                    Utils.errorAndDie("Invalid word length.");
+                }
+                list = " " + wordLength + list;
+            } else if (args[i].startsWith("--language=")) {
+                list = list + " " + args[i].substring(11);
+            }
+
+            if (args[i].equals("--session")) {
+                start = ProtocolHandler.START_SESSION;
+            } else if (args[i].equals("--stateless")) {
+                start = ProtocolHandler.START_STATELESS;
+            } else if (args[i].equals("--hard")) {
+                start = ProtocolHandler.START_HARD;
+            } else if (args[i].startsWith("--resume=")) {
+                start = ProtocolHandler.RESUME + args[i].substring(9);
+            } else if (args[i].startsWith("--room=")) {
+                start = ProtocolHandler.JOIN_ROOM + args[i].substring(7);
+            } else if (args[i].startsWith("--watch=")) {
+                start = ProtocolHandler.WATCH_ROOM + args[i].substring(8);
+            }
+        }
+
+        // The word list replaces the usual START GAME
+        if (!list.isEmpty()) {
+            if (!start.equals(ProtocolHandler.START_GAME)) {
+                Utils.errorAndDie("--length and --language can't be used "
+                            + "with --session, --resume, --stateless, "
+                            + "--hard, --room or --watch.");
+            }
+            start = ProtocolHandler.START_GAME + list;
+        }
+
+        return start;
+    }
+
+
     /**************************************************************************
      * Connects to to a server at a given address and port.
      * @param address - The address of the host to connect to
@@ -192,25 +636,38 @@ public class Client {
 
 
     /**************************************************************************
-     * Reads messages from the server and returns them as a byte array.
-     * Because data is sent over the network as an array of bytes, this
-     * function trims the data down into just what was intended to be sent by
-     * the server.
-     * @return - The message from the client as an array of bytes
+     * Reads the next reply from the server and returns it as a byte array.
+     * Race room events can arrive between replies at any time, so they're
+     * shown as they're read rather than returned.
+     * @return - The reply from the server as an array of bytes
      *************************************************************************/
     private static byte[] readMessage (Socket conn) {
-        try {
-            InputStream stream = conn.getInputStream();
-            byte[] rawData = new byte[MAX_BYTES];
-            int count = stream.read(rawData);
+        while (true) {
+            byte[] msg = readFrame(conn);
+            if (msg == null) return null;
 
-            byte[] trimmedData = new byte[count];
+            String data = ProtocolHandler.decodeMessage(msg);
+            if (!data.startsWith(ProtocolHandler.ROOM_EVENT)) return msg;
 
-            for (int i = 0; i < count; i++) {
-                trimmedData[i] = rawData[i];
-            }
+            showRoomEvent(data);
+        }
+    }
 
-            return trimmedData;
+
+    /**************************************************************************
+     * Reads the next message from the server and returns it as a byte array.
+     * Messages are split on line feeds, so messages the server sends
+     * together, such as a guess count and GAME OVER, are returned one at a
+     * time.
+     * @return - The message from the server as an array of bytes
+     *************************************************************************/
+    private static byte[] readFrame (Socket conn) {
+        try {
+            InputStream stream = conn.getInputStream();
+            if (codec.readFrame(stream)) return codec.copyFrame();
+
+            Utils.error("The server closed the connection");
+            disconnectFromServer(conn);
         } catch (IOException e) {
             // Display the error and then close the associated client
             Utils.error("Error reading message from server", e);
@@ -228,6 +685,12 @@ public class Client {
      * @return
      *************************************************************************/
     private static boolean isValidServerInit (byte[] msg) {
+        if (wordLength != ProtocolHandler.START_RESPONSE.length()) {
+            return "_".repeat(wordLength).equals(
+                                        ProtocolHandler.decodeMessage(msg));
+        }
+
+
         return ProtocolHandler.isValidControlMessage(msg, 
                                     ControlMessage.SERVER_START_GAME_RESPONSE);
     }
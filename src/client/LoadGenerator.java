@@ -0,0 +1,426 @@
+package src.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import src.shared.BinaryProtocol;
+import src.shared.LatencyHistogram;
+import src.shared.MessageCodec;
+import src.shared.ProtocolHandler;
+import src.shared.ProtocolHandler.ControlMessage;
+import src.shared.Utils;
+import src.shared.WordDictionary;
+
+public class LoadGenerator {
+    private static final String USAGE = "\nUsage: ./startLoadGenerator "
+        + "{address} {port number} [--connections=N] [--rate=N] "
+        + "[--ramp=SECONDS] [--duration=SECONDS] [--max-guesses=N] "
+        + "[--think=MILLIS] [--script=FILE] [--protocol=text|binary]";
+    private static final String GUESS_PATH = "./resources/guess.txt";
+    private static final String TARGET_PATH = "./resources/target.txt";
+    private static final int TIMEOUT_MS = 10000;
+
+    private String address;             // The host address
+    private int port;                   // The host port
+    private int connections;            // Concurrent connections to hold
+    private int rate;                   // New games per second, 0 for max
+    private long rampNanos;             // Time to bring every connection up
+    private long durationNanos;         // How long to run for
+    private int maxGuesses;             // Guesses before giving up a game
+    private long thinkNanos;            // Pause before each guess
+    private boolean binary;             // Play with the binary protocol
+    private byte[][] script;            // Guesses to play in order, or null
+    private WordDictionary dictionary;  // Random guesses come from here
+
+    private volatile boolean running;   // Cleared when the duration is up
+    private AtomicLong nextStart;       // When the next game may start
+
+    // Results
+    private LatencyHistogram connectLatency = new LatencyHistogram();
+    private LatencyHistogram startLatency = new LatencyHistogram();
+    private LatencyHistogram guessLatency = new LatencyHistogram();
+    private LongAdder games = new LongAdder();
+    private LongAdder wins = new LongAdder();
+    private LongAdder guesses = new LongAdder();
+    private LongAdder invalidGuesses = new LongAdder();
+    private LongAdder errors = new LongAdder();
+    private LongAdder drops = new LongAdder();
+    private LongAdder busy = new LongAdder();
+
+    /**************************************************************************
+     * Main driver function of the load generator.
+     * @param args - Command line arguments
+     *************************************************************************/
+    public static void main (String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        generator.configure(args);
+        generator.run();
+    }
+
+
+    /**************************************************************************
+     * Reads the generator's settings from the command line. Terminates the
+     * program if they aren't valid.
+     * @param args - The command line arguments given to the program
+     *************************************************************************/
+    private void configure (String[] args) {
+        if (args.length < 2) {
+            Utils.errorAndDie("Invalid parameters." + USAGE);
+        }
+
+        HashMap<String, String> options = new HashMap<String, String>();
+        for (int i = 2; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (!args[i].startsWith("--") || split < 3) {
+                Utils.errorAndDie("Invalid option " + args[i] + "." + USAGE);
+            }
+            options.put(args[i].substring(2, split),
+                        args[i].substring(split + 1));
+        }
+
+        this.address = args[0];
+        this.port = parseInt(args[1], "port number");
+        this.connections = Math.max(1, parseInt(
+                    options.getOrDefault("connections", "10"), "connections"));
+        this.rate = parseInt(options.getOrDefault("rate", "0"), "rate");
+        this.rampNanos = TimeUnit.SECONDS.toNanos(parseInt(
+                    options.getOrDefault("ramp", "0"), "ramp"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(parseInt(
+                    options.getOrDefault("duration", "30"), "duration"));
+        this.maxGuesses = Math.max(1, parseInt(
+                    options.getOrDefault("max-guesses", "6"), "max-guesses"));
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(parseInt(
+                    options.getOrDefault("think", "0"), "think"));
+
+        String protocol = options.getOrDefault("protocol", "text");
+        if (!protocol.equals("text") && !protocol.equals("binary")) {
+            Utils.errorAndDie("Invalid protocol specified." + USAGE);
+        }
+        this.binary = protocol.equals("binary");
+
+        try {
+            if (options.containsKey("script")) {
+                script = loadScript(options.get("script"), binary);
+            } else {
+                dictionary = WordDictionary.load(GUESS_PATH, TARGET_PATH);
+            }
+        } catch (IOException e) {
+            Utils.errorAndDie("Unable to read the guesses to play:\n"
+                        + e.getMessage());
+        }
+    }
+
+
+    /**************************************************************************
+     * Parses an integer argument, terminating the program if it's invalid.
+     * @param value - The value to parse
+     * @param name - The name of the argument, for the error message
+     * @return - The parsed integer
+     *************************************************************************/
+    private static int parseInt (String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Utils.errorAndDie("Invalid " + name + " specified." + USAGE);
+        }
+
+        return 0;
+    }
+
+
+    /**************************************************************************
+     * Loads a script of guesses, one per line, and encodes each of them.
+     * @param path - The path to the script
+     * @param binary - True to encode the guesses for the binary protocol
+     * @return - The encoded guesses, in order
+     * @throws IOException - If the script can't be read
+     *************************************************************************/
+    private static byte[][] loadScript (String path, boolean binary)
+        throws IOException
+    {
+        List<String> lines = Files.readAllLines(Paths.get(path));
+        ArrayList<byte[]> encoded = new ArrayList<byte[]>();
+
+        for (String line : lines) {
+            if (line.isBlank()) continue;
+
+            if (binary) {
+                // Anything that can't be packed is sent as an unknown word
+                byte[] frame = new byte[BinaryProtocol.GUESS_BYTES];
+                int packed = WordDictionary.pack(line.trim());
+                BinaryProtocol.writeGuess(Math.max(0, packed), frame, 0);
+                encoded.add(frame);
+            } else {
+                encoded.add(ProtocolHandler.encodeMessage(line.trim()));
+            }
+        }
+
+        if (encoded.isEmpty()) throw new IOException("The script is empty");
+        return encoded.toArray(new byte[0][]);
+    }
+
+
+    /**************************************************************************
+     * Runs the load test. Every connection gets its own thread, which plays
+     * games back to back until the duration is up. Connections are brought
+     * up evenly over the ramp up time, and new games are paced to the target
+     * rate across all of them.
+     *************************************************************************/
+    private void run () {
+        long start = System.nanoTime();
+        long end = start + rampNanos + durationNanos;
+        Thread[] workers = new Thread[connections];
+
+        running = true;
+        nextStart = new AtomicLong(start);
+
+        System.out.printf("Load testing %s:%d with %d connections%n",
+                          address, port, connections);
+
+        for (int i = 0; i < connections; i++) {
+            long delay = rampNanos * i / connections;
+            workers[i] = new Thread(() -> work(start + delay), "load-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        // Report progress every few seconds until the duration is up
+        long lastReport = start;
+        long lastGames = 0;
+        while (System.nanoTime() < end) {
+            sleepUntil(Math.min(end, lastReport + TimeUnit.SECONDS.toNanos(5)));
+
+            long now = System.nanoTime();
+            long done = games.sum();
+            System.out.printf("[%4ds] %.0f games/s, %d games, %d errors, "
+                              + "%d drops, %d busy%n",
+                              TimeUnit.NANOSECONDS.toSeconds(now - start),
+                              (done - lastGames) * 1e9 / (now - lastReport),
+                              done, errors.sum(), drops.sum(), busy.sum());
+            lastReport = now;
+            lastGames = done;
+        }
+
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        report(System.nanoTime() - start);
+    }
+
+
+    /**************************************************************************
+     * The main loop of a single connection's thread.
+     * @param startAt - When this connection should start, from nanoTime
+     *************************************************************************/
+    private void work (long startAt) {
+        sleepUntil(startAt);
+
+        while (running) {
+            if (rate > 0) {
+                sleepUntil(nextStart.getAndAdd(1_000_000_000L / rate));
+                if (!running) return;
+            }
+
+            playGame();
+        }
+    }
+
+
+    /**************************************************************************
+     * Plays a single game on a new connection, recording how long each step
+     * takes. The game ends when the word is guessed, or when the client
+     * runs out of guesses and hangs up.
+     *************************************************************************/
+    private void playGame () {
+        long t0 = System.nanoTime();
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(address, port), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            long t1 = System.nanoTime();
+            connectLatency.record(t1 - t0);
+
+            MessageCodec codec = new MessageCodec();
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // START GAME should be answered with an empty hint, or a START
+            // frame with the binary protocol
+            if (binary) codec.setFixedLength(BinaryProtocol.REPLY_BYTES);
+            out.write(binary ? BinaryProtocol.START_GAME_BYTES
+                             : MessageCodec.START_GAME);
+            if (!readReply(codec, in)) return;
+            startLatency.record(System.nanoTime() - t1);
+
+            // A busy server sends a text reply, whichever protocol was asked
+            // for, so with binary frames only its start can be checked
+            if (MessageCodec.matches(codec.array(), codec.frameOffset(),
+                    codec.frameLength(), MessageCodec.SERVER_BUSY)
+                || (binary && MessageCodec.startsWith(MessageCodec.SERVER_BUSY,
+                    0, BinaryProtocol.REPLY_BYTES, codec.copyFrame())))
+            {
+                busy.increment();
+                return;
+            }
+
+            if (!isReply(codec, BinaryProtocol.START,
+                         ControlMessage.SERVER_START_GAME_RESPONSE))
+            {
+                errors.increment();
+                return;
+            }
+
+            for (int i = 0; i < maxGuesses && running; i++) {
+                if (thinkNanos > 0) sleepUntil(System.nanoTime() + thinkNanos);
+                long sent = System.nanoTime();
+                out.write(nextGuess(i));
+                if (!readReply(codec, in)) return;
+                guessLatency.record(System.nanoTime() - sent);
+                guesses.increment();
+
+                if (isReply(codec, BinaryProtocol.INVALID_GUESS,
+                            ControlMessage.SERVER_INVALID_GUESS))
+                {
+                    invalidGuesses.increment();
+                } else if (binary
+                        ? codec.array()[codec.frameOffset()]
+                                == BinaryProtocol.WIN
+                        : Character.isDigit(codec.array()[
+                                                    codec.frameOffset()])) {
+                    // The word was guessed, so GAME OVER should follow
+                    if (!readReply(codec, in)) return;
+                    wins.increment();
+                    break;
+                }
+            }
+
+            games.increment();
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+
+    /**************************************************************************
+     * Reads the server's next message, counting a drop if it hung up.
+     * @param codec - The codec to read the message with
+     * @param in - The stream from the server
+     * @return - True if a message was read
+     * @throws IOException - If the read fails or times out
+     *************************************************************************/
+    private boolean readReply (MessageCodec codec, InputStream in)
+        throws IOException
+    {
+        if (codec.readFrame(in)) return true;
+
+        drops.increment();
+        return false;
+    }
+
+
+    /**************************************************************************
+     * Checks the server's last message is a given reply, in whichever
+     * protocol is being played.
+     * @param codec - The codec holding the message
+     * @param status - The binary protocol status to look for
+     * @param message - The text protocol control message to look for
+     * @return - True if the message is the given reply
+     *************************************************************************/
+    private boolean isReply (MessageCodec codec, byte status,
+                             ControlMessage message)
+    {
+        if (binary) return codec.array()[codec.frameOffset()] == status;
+
+        return ProtocolHandler.isValidControlMessage(codec.array(),
+                    codec.frameOffset(), codec.frameLength(), message);
+    }
+
+
+    /**************************************************************************
+     * Gets the next guess to make, either from the script or at random from
+     * the guess list.
+     * @param turn - The number of guesses made so far this game
+     * @return - The encoded guess
+     *************************************************************************/
+    private byte[] nextGuess (int turn) {
+        if (script != null) return script[turn % script.length];
+
+        int index = ThreadLocalRandom.current().nextInt(
+                                                dictionary.guessCount());
+        int packed = dictionary.guessPacked(index);
+
+        if (binary) {
+            byte[] frame = new byte[BinaryProtocol.GUESS_BYTES];
+            BinaryProtocol.writeGuess(packed, frame, 0);
+            return frame;
+        }
+
+        byte[] guess = new byte[WordDictionary.WORD_LENGTH + 1];
+
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            guess[i] = (byte) WordDictionary.letterAt(packed, i);
+        }
+        guess[WordDictionary.WORD_LENGTH] = MessageCodec.LINE_FEED;
+
+        return guess;
+    }
+
+
+    /**************************************************************************
+     * Sleeps until a given time, returning early if interrupted.
+     * @param deadline - The time to wake at, from nanoTime
+     *************************************************************************/
+    private static void sleepUntil (long deadline) {
+        long wait;
+
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Prints the results of the load test.
+     * @param elapsed - How long the test ran for, in nanoseconds
+     *************************************************************************/
+    private void report (long elapsed) {
+        double seconds = elapsed / 1e9;
+
+        System.out.println();
+        System.out.printf("Ran for %.1f s%n", seconds);
+        System.out.printf("Games:     %d (%.1f/s), %d won%n",
+                          games.sum(), games.sum() / seconds, wins.sum());
+        System.out.printf("Guesses:   %d (%.1f/s), %d invalid%n",
+                          guesses.sum(), guesses.sum() / seconds,
+                          invalidGuesses.sum());
+        System.out.printf("Errors:    %d%n", errors.sum());
+        System.out.printf("Drops:     %d%n", drops.sum());
+        System.out.printf("Busy:      %d%n", busy.sum());
+        System.out.println("Connect:   " + connectLatency.summaryMicros());
+        System.out.println("Start:     " + startLatency.summaryMicros());
+        System.out.println("Guess RTT: " + guessLatency.summaryMicros());
+    }
+}
@@ -0,0 +1,582 @@
+package src.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import src.shared.BinaryProtocol;
+import src.shared.HintEngine;
+import src.shared.LatencyHistogram;
+import src.shared.MessageCodec;
+import src.shared.ProtocolHandler;
+import src.shared.ProtocolHandler.ControlMessage;
+import src.shared.Utils;
+import src.shared.WordDictionary;
+
+public class SolverBot {
+    private static final String USAGE = "\nUsage: ./startSolverBot "
+        + "{address} {port number} [--games=N] [--connections=N] "
+        + "[--protocol=text|binary] [--keep-alive]"
+        + "\n   or: ./startSolverBot --simulate";
+    private static final String GUESS_PATH = "./resources/guess.txt";
+    private static final String TARGET_PATH = "./resources/target.txt";
+
+    private static double[] plogp;      // n * log2(n), shared by every bot
+    private static int firstGuess = -1; // Best opening, the same every game
+
+    private WordDictionary dictionary;  // The guess and target lists
+    private int[] candidates;           // Targets that fit every hint so far
+    private int candidateCount;         // Number of candidates left
+    private boolean[] isCandidate;      // Candidates, by guess list index
+    private int turn;                   // Guesses made this game
+
+    // Buffers reused every turn, one set per chunk of the guess list
+    private int chunks;
+    private int[][] counts;
+    private int[] bestGuess;
+    private double[] bestScore;
+
+    /**************************************************************************
+     * Constructor for the SolverBot class.
+     * @param dictionary - The guess and target lists
+     *************************************************************************/
+    public SolverBot (WordDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.candidates = new int[dictionary.targetCount()];
+        this.isCandidate = new boolean[dictionary.guessCount()];
+        this.chunks = ForkJoinPool.getCommonPoolParallelism() * 4;
+        this.counts = new int[chunks][HintEngine.HINT_COUNT];
+        this.bestGuess = new int[chunks];
+        this.bestScore = new double[chunks];
+
+        initTables(dictionary.targetCount());
+        newGame();
+    }
+
+
+    /**************************************************************************
+     * Fills in the n * log2(n) table used to score guesses.
+     * @param max - The largest n needed
+     *************************************************************************/
+    private static synchronized void initTables (int max) {
+        if (plogp != null && plogp.length > max) return;
+
+        plogp = new double[max + 1];
+        for (int n = 1; n <= max; n++) {
+            plogp[n] = n * Math.log(n) / Math.log(2);
+        }
+    }
+
+
+    /**************************************************************************
+     * Resets the bot for a new game, with every target as a candidate.
+     *************************************************************************/
+    public void newGame () {
+        candidateCount = dictionary.targetCount();
+        Arrays.fill(isCandidate, false);
+
+        for (int i = 0; i < candidateCount; i++) {
+            candidates[i] = dictionary.targetPacked(i);
+            markCandidate(candidates[i]);
+        }
+
+        turn = 0;
+    }
+
+
+    /**************************************************************************
+     * Marks a target word as a candidate in the guess list.
+     * @param packed - The packed target word
+     *************************************************************************/
+    private void markCandidate (int packed) {
+        int index = dictionary.guessIndex(packed);
+        if (index >= 0) isCandidate[index] = true;
+    }
+
+
+    /**************************************************************************
+     * @return - The number of target words that still fit every hint
+     *************************************************************************/
+    public int getCandidateCount () {
+        return candidateCount;
+    }
+
+
+    /**************************************************************************
+     * Chooses the next guess. The guess that gives the most information
+     * about the remaining candidates is chosen, that is the one whose hints
+     * split them up most evenly. Every guess is scored in parallel, in
+     * chunks that each reuse their own buffers.
+     * @return - The packed guess to make
+     *************************************************************************/
+    public int nextGuess () {
+        turn++;
+
+        // With one or two candidates left, guessing one of them is best
+        if (candidateCount <= 2) return candidates[0];
+        if (turn == 1 && firstGuess >= 0) return firstGuess;
+
+        int guessCount = dictionary.guessCount();
+        int chunkSize = (guessCount + chunks - 1) / chunks;
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * chunkSize;
+            int to = Math.min(guessCount, from + chunkSize);
+            scoreChunk(c, from, to);
+        });
+
+        int best = 0;
+        for (int c = 1; c < chunks; c++) {
+            if (bestScore[c] > bestScore[best]) best = c;
+        }
+
+        int guess = dictionary.guessPacked(bestGuess[best]);
+        if (turn == 1) firstGuess = guess;
+        return guess;
+    }
+
+
+    /**************************************************************************
+     * Finds the best guess in one chunk of the guess list.
+     * @param c - The chunk, which picks the buffers to use
+     * @param from - The index of the first guess in the chunk
+     * @param to - The index after the last guess in the chunk
+     *************************************************************************/
+    private void scoreChunk (int c, int from, int to) {
+        int[] count = counts[c];
+        bestGuess[c] = from;
+        bestScore[c] = Double.NEGATIVE_INFINITY;
+
+        for (int g = from; g < to; g++) {
+            int guess = dictionary.guessPacked(g);
+            Arrays.fill(count, 0);
+
+            for (int i = 0; i < candidateCount; i++) {
+                count[HintEngine.score(guess, candidates[i])]++;
+            }
+
+            // Expected information is log2(n) - sum(c log2 c) / n, so the
+            // best guess has the smallest sum. Candidates win ties, as they
+            // might be the answer.
+            double sum = 0;
+            for (int h = 0; h < HintEngine.HINT_COUNT; h++) {
+                sum += plogp[count[h]];
+            }
+
+            double score = -sum + (isCandidate[g] ? 1e-6 : 0);
+            if (score > bestScore[c]) {
+                bestScore[c] = score;
+                bestGuess[c] = g;
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Removes every candidate that doesn't fit the hint given for a guess.
+     * @param guess - The packed guess that was made
+     * @param hint - The encoded hint the server gave for it
+     *************************************************************************/
+    public void applyHint (int guess, int hint) {
+        int kept = 0;
+        Arrays.fill(isCandidate, false);
+
+        for (int i = 0; i < candidateCount; i++) {
+            if (HintEngine.score(guess, candidates[i]) == hint) {
+                candidates[kept++] = candidates[i];
+                markCandidate(candidates[i]);
+            }
+        }
+
+        candidateCount = kept;
+    }
+
+
+    /**************************************************************************
+     * Converts a hint as sent by the server back into its encoded form.
+     * @param b - The array containing the hint
+     * @param off - The index of the first letter of the hint
+     * @return - The encoded hint, as from HintEngine.score
+     *************************************************************************/
+    public static int parseHint (byte[] b, int off) {
+        int code = 0;
+
+        for (int i = WordDictionary.WORD_LENGTH - 1; i >= 0; i--) {
+            byte c = b[off + i];
+            int state = (c >= 'A' && c <= 'Z') ? HintEngine.EXACT
+                      : (c >= 'a' && c <= 'z') ? HintEngine.PRESENT
+                      : HintEngine.ABSENT;
+            code = code * 3 + state;
+        }
+
+        return code;
+    }
+
+
+    /**************************************************************************
+     * Main driver function of the solver bot.
+     * @param args - Command line arguments
+     *************************************************************************/
+    public static void main (String[] args) {
+        WordDictionary dictionary = null;
+
+        try {
+            dictionary = WordDictionary.load(GUESS_PATH, TARGET_PATH);
+        } catch (IOException e) {
+            Utils.errorAndDie("Unable to read the word lists:\n"
+                        + e.getMessage());
+        }
+
+        if (args.length == 1 && args[0].equals("--simulate")) {
+            simulate(dictionary);
+            return;
+        }
+
+        if (args.length < 2) Utils.errorAndDie("Invalid parameters." + USAGE);
+
+        int games = 1;
+        int connections = 1;
+        boolean binary = false;
+        boolean keepAlive = false;
+        int port = parseInt(args[1]);
+
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--games=")) {
+                games = parseInt(args[i].substring(8));
+            } else if (args[i].startsWith("--connections=")) {
+                connections = parseInt(args[i].substring(14));
+            } else if (args[i].equals("--protocol=text")
+                       || args[i].equals("--protocol=binary")) {
+                binary = args[i].endsWith("binary");
+            } else if (args[i].equals("--keep-alive")) {
+                keepAlive = true;
+            } else {
+                Utils.errorAndDie("Invalid option " + args[i] + "." + USAGE);
+            }
+        }
+
+        playAgainst(dictionary, args[0], port, games, connections, binary,
+                    keepAlive);
+    }
+
+
+    /**************************************************************************
+     * Parses an integer argument, terminating the program if it's invalid.
+     * @param value - The value to parse
+     * @return - The parsed integer
+     *************************************************************************/
+    private static int parseInt (String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Utils.errorAndDie("Invalid number " + value + "." + USAGE);
+        }
+
+        return 0;
+    }
+
+
+    /**************************************************************************
+     * Plays every target word offline and reports how many guesses it took
+     * on average, without needing a server.
+     * @param dictionary - The guess and target lists
+     *************************************************************************/
+    private static void simulate (WordDictionary dictionary) {
+        SolverBot bot = new SolverBot(dictionary);
+        int[] distribution = new int[16];
+        long total = 0;
+        long start = System.nanoTime();
+
+        for (int t = 0; t < dictionary.targetCount(); t++) {
+            int target = dictionary.targetPacked(t);
+            bot.newGame();
+
+            int guesses = 0;
+            while (true) {
+                int guess = bot.nextGuess();
+                guesses++;
+                if (guess == target) break;
+                bot.applyHint(guess, HintEngine.score(guess, target));
+            }
+
+            total += guesses;
+            distribution[Math.min(guesses, distribution.length - 1)]++;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Solved %d targets in %.1f s%n",
+                          dictionary.targetCount(), seconds);
+        System.out.printf("Average guesses: %.4f%n",
+                          (double) total / dictionary.targetCount());
+        System.out.println("Opening guess:   "
+                           + WordDictionary.unpack(firstGuess));
+
+        for (int i = 1; i < distribution.length; i++) {
+            if (distribution[i] > 0) {
+                System.out.printf("%2d guesses: %d%n", i, distribution[i]);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Plays games against a server, a given number on each of several
+     * connections at once, and reports the guess round trip latency.
+     * @param dictionary - The guess and target lists
+     * @param address - The host address
+     * @param port - The host port
+     * @param games - The number of games to play on each connection
+     * @param connections - The number of connections playing at once
+     * @param binary - True to play with the binary protocol
+     * @param keepAlive - True to play each connection's games over a single
+     *                    socket, which needs a server run with --keep-alive
+     *************************************************************************/
+    private static void playAgainst (WordDictionary dictionary,
+                                     String address, int port, int games,
+                                     int connections, boolean binary,
+                                     boolean keepAlive)
+    {
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder won = new LongAdder();
+        LongAdder guesses = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long start = System.nanoTime();
+
+        IntConsumer result = count -> {
+            if (count > 0) {
+                won.increment();
+                guesses.add(count);
+            } else {
+                failed.increment();
+            }
+        };
+
+        IntStream.range(0, connections).parallel().forEach(c -> {
+            SolverBot bot = new SolverBot(dictionary);
+
+            if (keepAlive) {
+                bot.playGames(address, port, games, binary, latency, result);
+                return;
+            }
+
+            for (int g = 0; g < games; g++) {
+                result.accept(binary
+                              ? bot.playBinaryGame(address, port, latency)
+                              : bot.playGame(address, port, latency));
+            }
+        });
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Won %d games in %.1f s, %d failed%n",
+                          won.sum(), seconds, failed.sum());
+        if (won.sum() > 0) {
+            System.out.printf("Average guesses: %.4f%n",
+                              (double) guesses.sum() / won.sum());
+        }
+        System.out.println("Guess RTT: " + latency.summaryMicros());
+    }
+
+
+    /**************************************************************************
+     * Plays a single game against a server on a new connection.
+     * @param address - The host address
+     * @param port - The host port
+     * @param latency - Where to record each guess's round trip time
+     * @return - The number of guesses the server says it took, or 0 if the
+     *           game failed
+     *************************************************************************/
+    public int playGame (String address, int port, LatencyHistogram latency) {
+        try (Socket socket = new Socket(address, port)) {
+            socket.setTcpNoDelay(true);
+            return playGame(socket.getInputStream(), socket.getOutputStream(),
+                            new MessageCodec(), latency);
+        } catch (IOException | NumberFormatException e) {
+            Utils.error("Solver game failed", e);
+        }
+
+        return 0;
+    }
+
+
+    /**************************************************************************
+     * Plays a single game over a connection that's already open.
+     * @param in - The stream from the server
+     * @param out - The stream to the server
+     * @param codec - The codec for the connection, kept between games
+     * @param latency - Where to record each guess's round trip time
+     * @return - The number of guesses the server says it took, or 0 if the
+     *           game failed
+     * @throws IOException - If the connection fails
+     *************************************************************************/
+    public int playGame (InputStream in, OutputStream out, MessageCodec codec,
+                         LatencyHistogram latency)
+        throws IOException
+    {
+        byte[] message = new byte[WordDictionary.WORD_LENGTH + 1];
+        message[WordDictionary.WORD_LENGTH] = MessageCodec.LINE_FEED;
+        newGame();
+
+        out.write(MessageCodec.START_GAME);
+        if (!codec.readFrame(in)) return 0;
+
+        while (candidateCount > 0) {
+            int guess = nextGuess();
+            for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+                message[i] = (byte) WordDictionary.letterAt(guess, i);
+            }
+
+            long sent = System.nanoTime();
+            out.write(message);
+            if (!codec.readFrame(in)) return 0;
+            latency.record(System.nanoTime() - sent);
+
+            byte[] b = codec.array();
+            int off = codec.frameOffset();
+
+            if (ProtocolHandler.isValidControlMessage(b, off,
+                    codec.frameLength(),
+                    ControlMessage.SERVER_INVALID_GUESS))
+            {
+                return 0;
+            }
+
+            // The server sends the guess count, then GAME OVER, on a win
+            if (Character.isDigit(b[off])) {
+                String count = ProtocolHandler.decodeMessage(
+                                                    codec.copyFrame());
+                codec.readFrame(in);
+                return Integer.parseInt(count);
+            }
+
+            applyHint(guess, parseHint(b, off));
+        }
+
+        return 0;
+    }
+
+
+    /**************************************************************************
+     * Plays a single game against a server with the binary protocol. Guesses
+     * go out packed and hints come back already encoded, so nothing needs
+     * to be rendered or parsed on either side.
+     * @param address - The host address
+     * @param port - The host port
+     * @param latency - Where to record each guess's round trip time
+     * @return - The number of guesses the server says it took, or 0 if the
+     *           game failed
+     *************************************************************************/
+    public int playBinaryGame (String address, int port,
+                               LatencyHistogram latency)
+    {
+        try (Socket socket = new Socket(address, port)) {
+            socket.setTcpNoDelay(true);
+            return playBinaryGame(socket.getInputStream(),
+                                  socket.getOutputStream(),
+                                  new MessageCodec(), latency);
+        } catch (IOException e) {
+            Utils.error("Solver game failed", e);
+        }
+
+        return 0;
+    }
+
+
+    /**************************************************************************
+     * Plays a single game with the binary protocol over a connection that's
+     * already open. The handshake is sent as text every game, as the server
+     * goes back to text once a game is over.
+     * @param in - The stream from the server
+     * @param out - The stream to the server
+     * @param codec - The codec for the connection, kept between games
+     * @param latency - Where to record each guess's round trip time
+     * @return - The number of guesses the server says it took, or 0 if the
+     *           game failed
+     * @throws IOException - If the connection fails
+     *************************************************************************/
+    public int playBinaryGame (InputStream in, OutputStream out,
+                               MessageCodec codec, LatencyHistogram latency)
+        throws IOException
+    {
+        byte[] message = new byte[BinaryProtocol.GUESS_BYTES];
+        newGame();
+
+        // Every reply, including the one to the handshake, is binary
+        codec.setFixedLength(BinaryProtocol.REPLY_BYTES);
+        out.write(BinaryProtocol.START_GAME_BYTES);
+        if (!codec.readFrame(in)
+            || codec.array()[codec.frameOffset()] != BinaryProtocol.START)
+        {
+            return 0;
+        }
+
+        while (candidateCount > 0) {
+            int guess = nextGuess();
+            BinaryProtocol.writeGuess(guess, message, 0);
+
+            long sent = System.nanoTime();
+            out.write(message);
+            if (!codec.readFrame(in)) return 0;
+            latency.record(System.nanoTime() - sent);
+
+            byte status = codec.array()[codec.frameOffset()];
+            int value = codec.array()[codec.frameOffset() + 1] & 0xFF;
+
+            if (status == BinaryProtocol.WIN) {
+                codec.readFrame(in);
+                return value;
+            } else if (status != BinaryProtocol.HINT) {
+                return 0;
+            }
+
+            applyHint(guess, value);
+        }
+
+        return 0;
+    }
+
+
+    /**************************************************************************
+     * Plays several games one after another over a single connection,
+     * starting each new game once the last one is won. Needs a server run
+     * with --keep-alive. Stops at the first game that fails, and counts every
+     * game left unplayed as failed.
+     * @param address - The host address
+     * @param port - The host port
+     * @param games - The number of games to play
+     * @param binary - True to play with the binary protocol
+     * @param latency - Where to record each guess's round trip time
+     * @param result - Given the guess count of each game, or 0 if it failed
+     *************************************************************************/
+    public void playGames (String address, int port, int games,
+                           boolean binary, LatencyHistogram latency,
+                           IntConsumer result)
+    {
+        MessageCodec codec = new MessageCodec();
+        int played = 0;
+
+        try (Socket socket = new Socket(address, port)) {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+
+            while (played < games) {
+                int count = binary
+                          ? playBinaryGame(in, out, codec, latency)
+                          : playGame(in, out, codec, latency);
+                played++;
+                result.accept(count);
+                if (count == 0) break;
+            }
+        } catch (IOException | NumberFormatException e) {
+            Utils.error("Solver game failed", e);
+        }
+
+        for (; played < games; played++) result.accept(0);
+    }
+}
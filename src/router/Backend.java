@@ -0,0 +1,127 @@
+package src.router;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Backend {
+    private final String name;              // host:port, as configured
+    private final InetSocketAddress address;
+    private final AtomicInteger active;     // Connections routed to it now
+    private final LongAdder routed;         // Connections routed in total
+    private volatile boolean healthy;       // If the last health check passed
+    private volatile boolean draining;      // Being removed, so no new games
+
+    /**************************************************************************
+     * Constructor for the Backend class. A new backend is taken to be healthy
+     * until its first health check says otherwise.
+     * @param name - The backend's address, as host:port
+     *************************************************************************/
+    public Backend (String name) {
+        int split = name.lastIndexOf(':');
+        if (split < 1) {
+            throw new IllegalArgumentException("Expected host:port, not "
+                                               + name);
+        }
+
+        this.name = name;
+        this.address = new InetSocketAddress(name.substring(0, split),
+                                Integer.parseInt(name.substring(split + 1)));
+        this.active = new AtomicInteger();
+        this.routed = new LongAdder();
+        this.healthy = true;
+    }
+
+
+    /**************************************************************************
+     * @return - The backend's address, as host:port
+     *************************************************************************/
+    public String getName () {
+        return name;
+    }
+
+
+    /**************************************************************************
+     * @return - The address to connect to
+     *************************************************************************/
+    public InetSocketAddress getAddress () {
+        return address;
+    }
+
+
+    /**************************************************************************
+     * @return - True if new games can be sent to the backend
+     *************************************************************************/
+    public boolean isAvailable () {
+        return healthy && !draining;
+    }
+
+
+    /**************************************************************************
+     * @return - The number of connections routed to the backend right now
+     *************************************************************************/
+    public int getActive () {
+        return active.get();
+    }
+
+
+    /**************************************************************************
+     * Records a connection being routed to the backend.
+     *************************************************************************/
+    public void opened () {
+        active.incrementAndGet();
+        routed.increment();
+    }
+
+
+    /**************************************************************************
+     * Records a connection to the backend closing.
+     * @return - The number of connections left
+     *************************************************************************/
+    public int closed () {
+        return active.decrementAndGet();
+    }
+
+
+    /**************************************************************************
+     * @param healthy - If the backend passed its last health check
+     *************************************************************************/
+    public void setHealthy (boolean healthy) {
+        this.healthy = healthy;
+    }
+
+
+    /**************************************************************************
+     * @return - If the backend passed its last health check
+     *************************************************************************/
+    public boolean isHealthy () {
+        return healthy;
+    }
+
+
+    /**************************************************************************
+     * Stops new games going to the backend, while the ones on it finish.
+     *************************************************************************/
+    public void drain () {
+        this.draining = true;
+    }
+
+
+    /**************************************************************************
+     * @return - True if the backend is being removed
+     *************************************************************************/
+    public boolean isDraining () {
+        return draining;
+    }
+
+
+    /**************************************************************************
+     * @return - The backend's state, for showing over JMX
+     *************************************************************************/
+    @Override
+    public String toString () {
+        return name + (draining ? " draining" : healthy ? " up" : " down")
+                + ", " + active.get() + " active, " + routed.sum()
+                + " routed";
+    }
+}
@@ -0,0 +1,369 @@
+package src.router;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import src.shared.MessageCodec;
+import src.shared.Utils;
+
+public class BackendPool implements BackendPoolMBean, Runnable {
+    public static final String OBJECT_NAME = "networdle:type=Router";
+
+    /**************************************************************************
+     * How a new connection's backend is picked.
+     *************************************************************************/
+    public enum Balance {
+        LEAST,          // The backend with the fewest connections
+        HASH            // A consistent hash of the client's address
+    }
+
+    private static final int VIRTUAL_NODES = 128;  // Ring points per backend
+
+    private final Balance balance;
+    private final long intervalNanos;       // Time between health checks
+    private final int timeoutMillis;        // Time a health check can take
+    private final LongAdder failedConnects; // Backends that couldn't be reached
+
+    // Replaced as a whole on every change, so picking never takes a lock
+    private volatile Backend[] backends = new Backend[0];
+    private volatile long[] ringPoints = new long[0];
+    private volatile Backend[] ringOwners = new Backend[0];
+    private int next;                       // Where LEAST starts looking
+
+    /**************************************************************************
+     * Constructor for the BackendPool class.
+     * @param balance - How to pick a backend for each connection
+     * @param intervalMillis - The time between health checks
+     * @param timeoutMillis - The time a health check can take before the
+     *                        backend is taken to be down
+     *************************************************************************/
+    public BackendPool (Balance balance, long intervalMillis,
+                        int timeoutMillis)
+    {
+        this.balance = balance;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                                            Math.max(1, intervalMillis));
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+        this.failedConnects = new LongAdder();
+    }
+
+
+    /**************************************************************************
+     * Registers the pool with the platform MBean server, so backends can be
+     * added and removed while the router is running. Failing to register is
+     * reported but isn't fatal.
+     *************************************************************************/
+    public void registerMBean () {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+        } catch (JMException e) {
+            Utils.error("Unable to register the router with JMX", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Starts the thread that checks every backend's health.
+     *************************************************************************/
+    public void startHealthChecks () {
+        Thread thread = new Thread(this, "health-check");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**************************************************************************
+     * Picks the backend for a new connection from those that are up and not
+     * draining.
+     * @param client - The client's address, which HASH keeps on the same
+     *                 backend across connections
+     * @param exclude - A backend that has just failed, or null
+     * @return - The backend, or null if none are available
+     *************************************************************************/
+    public Backend choose (String client, Backend exclude) {
+        return (balance == Balance.HASH) ? chooseByHash(client, exclude)
+                                         : chooseLeast(exclude);
+    }
+
+
+    /**************************************************************************
+     * Picks the available backend with the fewest connections. Ties go to
+     * the backends in turn.
+     * @param exclude - A backend to skip, or null
+     * @return - The backend, or null if none are available
+     *************************************************************************/
+    private Backend chooseLeast (Backend exclude) {
+        Backend[] all = backends;
+        Backend best = null;
+        int start = next++;
+
+        for (int i = 0; i < all.length; i++) {
+            Backend b = all[Math.floorMod(start + i, all.length)];
+
+            if (b == exclude || !b.isAvailable()) continue;
+            if (best == null || b.getActive() < best.getActive()) best = b;
+        }
+
+        return best;
+    }
+
+
+    /**************************************************************************
+     * Picks a backend by hashing the client's address onto a ring of points
+     * spread over the backends, and walking round to the first available
+     * one. Adding or losing a backend only moves the clients whose points it
+     * owns.
+     * @param client - The client's address
+     * @param exclude - A backend to skip, or null
+     * @return - The backend, or null if none are available
+     *************************************************************************/
+    private Backend chooseByHash (String client, Backend exclude) {
+        long[] points = ringPoints;
+        Backend[] owners = ringOwners;
+        if (points.length == 0) return null;
+
+        int start = Arrays.binarySearch(points, mix(client.hashCode()));
+        if (start < 0) start = -start - 1;
+
+        for (int i = 0; i < points.length; i++) {
+            Backend b = owners[(start + i) % points.length];
+            if (b != exclude && b.isAvailable()) return b;
+        }
+
+        return null;
+    }
+
+
+    /**************************************************************************
+     * Spreads the bits of a hash code, so similar addresses land far apart.
+     * @param h - The hash code
+     * @return - The mixed hash
+     *************************************************************************/
+    private static long mix (long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+
+    /**************************************************************************
+     * Rebuilds the hash ring from the current backends. Must be called with
+     * the pool's lock held.
+     *************************************************************************/
+    private void rebuildRing () {
+        Backend[] all = backends;
+        long[] points = new long[all.length * VIRTUAL_NODES];
+        Backend[] owners = new Backend[points.length];
+        long[][] pairs = new long[points.length][];
+
+        for (int b = 0; b < all.length; b++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                long point = mix((all[b].getName() + "#" + v).hashCode());
+                pairs[b * VIRTUAL_NODES + v] = new long[] { point, b };
+            }
+        }
+
+        Arrays.sort(pairs, (x, y) -> Long.compare(x[0], y[0]));
+        for (int i = 0; i < pairs.length; i++) {
+            points[i] = pairs[i][0];
+            owners[i] = all[(int) pairs[i][1]];
+        }
+
+        ringOwners = owners;
+        ringPoints = points;
+    }
+
+
+    /**************************************************************************
+     * Records that a backend couldn't be connected to, and takes it out of
+     * use until a health check finds it up again.
+     * @param backend - The backend
+     *************************************************************************/
+    public void connectFailed (Backend backend) {
+        failedConnects.increment();
+
+        if (backend.isHealthy()) {
+            backend.setHealthy(false);
+            Utils.error("Backend " + backend.getName() + " is down");
+        }
+    }
+
+
+    /**************************************************************************
+     * Records a connection to a backend closing. A draining backend is
+     * removed once its last connection has closed.
+     * @param backend - The backend
+     *************************************************************************/
+    public void released (Backend backend) {
+        if (backend.closed() == 0 && backend.isDraining()) {
+            removeDrained(backend);
+        }
+    }
+
+
+    /**************************************************************************
+     * Takes a drained backend out of the pool.
+     * @param backend - The backend
+     *************************************************************************/
+    private synchronized void removeDrained (Backend backend) {
+        ArrayList<Backend> kept = new ArrayList<Backend>();
+
+        for (Backend b : backends) {
+            if (b != backend) kept.add(b);
+        }
+
+        if (kept.size() == backends.length) return;
+
+        backends = kept.toArray(new Backend[0]);
+        rebuildRing();
+        Utils.info("Backend " + backend.getName() + " drained and removed");
+    }
+
+
+    /**************************************************************************
+     * Finds a backend by name.
+     * @param name - The backend's address, as host:port
+     * @return - The backend, or null if it isn't in the pool
+     *************************************************************************/
+    private Backend find (String name) {
+        for (Backend b : backends) {
+            if (b.getName().equals(name)) return b;
+        }
+
+        return null;
+    }
+
+
+    @Override
+    public synchronized void addBackend (String name) {
+        if (find(name) != null) return;
+
+        Backend[] all = Arrays.copyOf(backends, backends.length + 1);
+        all[all.length - 1] = new Backend(name);
+        backends = all;
+        rebuildRing();
+        Utils.info("Backend " + name + " added");
+    }
+
+
+    @Override
+    public synchronized boolean removeBackend (String name) {
+        Backend backend = find(name);
+        if (backend == null) return false;
+
+        // New games go elsewhere, and the backend leaves once it's idle
+        backend.drain();
+        Utils.info("Backend " + name + " draining");
+        if (backend.getActive() == 0) removeDrained(backend);
+        return true;
+    }
+
+
+    @Override
+    public String[] getBackends () {
+        Backend[] all = backends;
+        String[] states = new String[all.length];
+
+        for (int i = 0; i < all.length; i++) states[i] = all[i].toString();
+        return states;
+    }
+
+
+    @Override
+    public int getActiveConnections () {
+        int total = 0;
+        for (Backend b : backends) total += b.getActive();
+        return total;
+    }
+
+
+    @Override
+    public long getFailedConnects () {
+        return failedConnects.sum();
+    }
+
+
+    @Override
+    public String getBalance () {
+        return balance.name().toLowerCase();
+    }
+
+
+    /**************************************************************************
+     * The health checker's main loop. Checks every backend once per
+     * interval, and logs any that go down or come back up.
+     *************************************************************************/
+    @Override
+    public void run () {
+        while (true) {
+            long start = System.nanoTime();
+
+            for (Backend b : backends) {
+                boolean up = check(b);
+
+                if (up != b.isHealthy()) {
+                    b.setHealthy(up);
+                    if (up) {
+                        Utils.info("Backend " + b.getName() + " is up");
+                    } else {
+                        Utils.error("Backend " + b.getName() + " is down");
+                    }
+                }
+            }
+
+            long wait = intervalNanos - (System.nanoTime() - start);
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Checks a backend by sending it PING, which it answers with PONG
+     * without starting a game.
+     * @param backend - The backend to check
+     * @return - True if the backend answered in time
+     *************************************************************************/
+    private boolean check (Backend backend) {
+        try (Socket socket = new Socket()) {
+            socket.connect(backend.getAddress(), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.getOutputStream().write(MessageCodec.PING);
+
+            byte[] pong = MessageCodec.PONG;
+            byte[] reply = new byte[pong.length];
+            InputStream in = socket.getInputStream();
+            int read = 0;
+
+            while (read < reply.length) {
+                int count = in.read(reply, read, reply.length - read);
+                if (count < 0) return false;
+                read += count;
+            }
+
+            return Arrays.equals(reply, pong);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
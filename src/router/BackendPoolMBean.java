@@ -0,0 +1,15 @@
+package src.router;
+
+/******************************************************************************
+ * The router's backends, which can be read and changed over JMX while it's
+ * running. A removed backend gets no new games and leaves the pool once the
+ * games already on it have finished.
+ *****************************************************************************/
+public interface BackendPoolMBean {
+    void addBackend (String name);
+    boolean removeBackend (String name);
+    String[] getBackends ();
+    int getActiveConnections ();
+    long getFailedConnects ();
+    String getBalance ();
+}
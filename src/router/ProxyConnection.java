@@ -0,0 +1,243 @@
+package src.router;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import src.shared.MessageCodec;
+import src.shared.Utils;
+
+/******************************************************************************
+ * One client's connection through the router, joined to a connection to the
+ * backend playing its game. Bytes are copied each way through a direct
+ * buffer, so they go from one socket to the other without passing through
+ * the Java heap, and are never looked at. Everything here runs on the
+ * connection's loop thread.
+ *
+ * Nothing is sent to a backend until it has accepted the connection, so a
+ * backend that can't be reached is swapped for another without the client
+ * ever knowing.
+ *****************************************************************************/
+public class ProxyConnection {
+    private final RouterLoop loop;
+    private final BackendPool pool;
+    private final SocketChannel client;
+    private final String clientAddress;     // What HASH picks backends by
+    private Backend backend;                // Null once none could be found
+    private SocketChannel server;
+    private SelectionKey clientKey;
+    private SelectionKey serverKey;
+    private ByteBuffer up;                  // Client to backend, filling
+    private ByteBuffer down;                // Backend to client, filling
+    private boolean connected;              // If the backend has accepted
+    private boolean clientDone;             // If the client has hung up
+    private boolean serverDone;             // If the backend has hung up
+    private boolean serverShut;             // If the client's EOF was passed on
+    private boolean closed;
+
+    /**************************************************************************
+     * Constructor for the ProxyConnection class. The backend counts the
+     * connection straight away, so the next one picked by least connections
+     * sees it.
+     * @param loop - The loop that will own the connection
+     * @param pool - The backends
+     * @param client - The channel to the client, still in blocking mode
+     * @param clientAddress - The client's address
+     * @param backend - The backend picked for the client
+     *************************************************************************/
+    public ProxyConnection (RouterLoop loop, BackendPool pool,
+                            SocketChannel client, String clientAddress,
+                            Backend backend)
+    {
+        this.loop = loop;
+        this.pool = pool;
+        this.client = client;
+        this.clientAddress = clientAddress;
+        this.backend = backend;
+        backend.opened();
+    }
+
+
+    /**************************************************************************
+     * Registers the client with the loop and starts connecting to the
+     * backend. Called on the loop's thread.
+     *************************************************************************/
+    public void start () {
+        try {
+            up = loop.takeBuffer();
+            down = loop.takeBuffer();
+            client.configureBlocking(false);
+            clientKey = client.register(loop.getSelector(),
+                                        SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            Utils.error("Unable to register a new client", e);
+            close();
+            return;
+        }
+
+        connect();
+    }
+
+
+    /**************************************************************************
+     * Starts connecting to the current backend, moving on to the next one
+     * if it fails straight away.
+     *************************************************************************/
+    private void connect () {
+        try {
+            server = SocketChannel.open();
+            server.configureBlocking(false);
+            connected = server.connect(backend.getAddress());
+            serverKey = server.register(loop.getSelector(),
+                                        SelectionKey.OP_CONNECT, this);
+            if (connected) pump();
+        } catch (IOException e) {
+            failOver();
+        }
+    }
+
+
+    /**************************************************************************
+     * Gives up on the current backend and tries another. If there are none
+     * left, the client is sent a busy reply instead, just as the server
+     * itself would when it's full.
+     *************************************************************************/
+    private void failOver () {
+        Backend failed = backend;
+        closeQuietly(server);
+        server = null;
+        serverKey = null;
+        pool.connectFailed(failed);
+        pool.released(failed);
+
+        backend = pool.choose(clientAddress, failed);
+        if (backend != null) {
+            backend.opened();
+            connect();
+            return;
+        }
+
+        Utils.error("No backend available for " + clientAddress);
+        down.clear();
+        down.put(MessageCodec.SERVER_BUSY);
+        serverDone = true;
+        try {
+            pump();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+
+    /**************************************************************************
+     * Handles a key of this connection being ready.
+     * @param key - The client's or the backend's key
+     *************************************************************************/
+    public void handle (SelectionKey key) {
+        try {
+            if (key == serverKey) {
+                if (key.isConnectable()) {
+                    try {
+                        connected = server.finishConnect();
+                    } catch (IOException e) {
+                        failOver();
+                        return;
+                    }
+                }
+                if (key.isValid() && key.isReadable()) {
+                    if (server.read(down) < 0) serverDone = true;
+                }
+            } else if (key.isReadable()) {
+                if (client.read(up) < 0) clientDone = true;
+            }
+
+            pump();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+
+    /**************************************************************************
+     * Moves whatever can be moved each way, passes on either side hanging
+     * up, and works out what to wait for next.
+     * @throws IOException - If either side has failed
+     *************************************************************************/
+    private void pump () throws IOException {
+        if (connected && up.position() > 0) {
+            up.flip();
+            server.write(up);
+            up.compact();
+        }
+
+        // The client is done sending, so tell the backend once it has it all
+        if (connected && clientDone && !serverShut && up.position() == 0) {
+            server.shutdownOutput();
+            serverShut = true;
+        }
+
+        if (down.position() > 0) {
+            down.flip();
+            client.write(down);
+            down.compact();
+        }
+
+        // The backend only hangs up once the game is over, so that's the end
+        if (serverDone && down.position() == 0) {
+            close();
+            return;
+        }
+
+        int clientOps = 0;
+        if (!clientDone && up.hasRemaining()) clientOps |= SelectionKey.OP_READ;
+        if (down.position() > 0) clientOps |= SelectionKey.OP_WRITE;
+        clientKey.interestOps(clientOps);
+
+        if (serverKey == null) return;
+
+        int serverOps = 0;
+        if (!connected) {
+            serverOps = SelectionKey.OP_CONNECT;
+        } else {
+            if (!serverDone && down.hasRemaining()) {
+                serverOps |= SelectionKey.OP_READ;
+            }
+            if (up.position() > 0) serverOps |= SelectionKey.OP_WRITE;
+        }
+        serverKey.interestOps(serverOps);
+    }
+
+
+    /**************************************************************************
+     * Closes both sides and hands the buffers back to the loop.
+     *************************************************************************/
+    public void close () {
+        if (closed) return;
+        closed = true;
+
+        closeQuietly(client);
+        closeQuietly(server);
+        if (backend != null) pool.released(backend);
+
+        if (up != null) loop.giveBuffer(up);
+        if (down != null) loop.giveBuffer(down);
+        up = null;
+        down = null;
+    }
+
+
+    /**************************************************************************
+     * Closes a channel, ignoring any error.
+     * @param channel - The channel to close, or null
+     *************************************************************************/
+    private static void closeQuietly (SocketChannel channel) {
+        if (channel == null) return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing else can be done with it
+        }
+    }
+}
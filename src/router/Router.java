@@ -0,0 +1,235 @@
+package src.router;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import src.server.ServerConfig;
+import src.shared.MessageCodec;
+import src.shared.Utils;
+
+/******************************************************************************
+ * Spreads clients over several servers, so games can be played on more
+ * machines than one. Each client is joined to a backend server for its whole
+ * connection and its bytes are passed through untouched, so the router
+ * works with either protocol and every server option.
+ *****************************************************************************/
+public class Router {
+    private static final String USAGE =
+        "\nUsage: ./startRouter {port number} --backends=host:port,..."
+        + " [--option=value ...]";
+
+    private int port;
+    private int loopCount;
+    private int bufferSize;
+    private long drainMillis;           // How long to wait for games on exit
+    private BackendPool pool;
+    private RouterLoop[] loops;
+    private ServerSocketChannel ssc;
+    private volatile boolean stopping;
+
+    /**************************************************************************
+     * Constructor for the Router class.
+     * @param port - The port to listen for clients on
+     * @param loopCount - The number of loop threads to run
+     * @param bufferSize - The size of each connection's buffer each way
+     * @param drainMillis - How long to let games finish when stopping
+     * @param pool - The backends to route to
+     *************************************************************************/
+    public Router (int port, int loopCount, int bufferSize, long drainMillis,
+                   BackendPool pool)
+    {
+        this.port = port;
+        this.loopCount = loopCount;
+        this.bufferSize = bufferSize;
+        this.drainMillis = drainMillis;
+        this.pool = pool;
+    }
+
+
+    /**************************************************************************
+     * Main driver function for the router. Accepts connections on the
+     * calling thread, picks a backend for each, and spreads them over the
+     * loops in turn. Connections that no backend can take are sent a busy
+     * reply and closed.
+     *************************************************************************/
+    public void start () {
+        try {
+            loops = new RouterLoop[loopCount];
+            for (int i = 0; i < loopCount; i++) {
+                loops[i] = new RouterLoop("router-loop-" + i, bufferSize);
+                loops[i].start();
+            }
+
+            ssc = ServerSocketChannel.open();
+            ssc.bind(new InetSocketAddress(this.port));
+
+            System.out.println("Router listening on port " + this.port
+                               + " with " + loopCount + " loops, balancing by "
+                               + pool.getBalance());
+
+            int next = 0;
+            while (true) {
+                SocketChannel client = ssc.accept();
+
+                // A client that has already gone only loses its own
+                // connection, not the router
+                try {
+                    if (route(client, loops[next])) {
+                        next = (next + 1) % loopCount;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Utils.error("Unable to route a new client", e);
+                    closeQuietly(client);
+                }
+            }
+
+        } catch (IOException e) {
+            // Closing the socket to stop is expected
+            if (!stopping) {
+                Utils.errorAndDie("Unable to create router. Please try "
+                            + "again, perhaps with another port.");
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Picks a backend for a new connection and hands it to a loop, or turns
+     * it away if no backend can take it.
+     * @param client - The new connection
+     * @param loop - The loop to hand it to
+     * @return - True if the connection was handed to the loop
+     * @throws IOException - If the client's address can't be read
+     *************************************************************************/
+    private boolean route (SocketChannel client, RouterLoop loop)
+        throws IOException
+    {
+        String address = ((InetSocketAddress) client.getRemoteAddress())
+                            .getAddress().getHostAddress();
+
+        Backend backend = pool.choose(address, null);
+        if (backend == null) {
+            shed(client);
+            return false;
+        }
+
+        loop.register(new ProxyConnection(loop, pool, client, address,
+                                          backend));
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Closes a channel, ignoring any error.
+     * @param channel - The channel to close
+     *************************************************************************/
+    private static void closeQuietly (SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing else can be done with it
+        }
+    }
+
+
+    /**************************************************************************
+     * Turns a connection away with a busy reply, as a full server would.
+     * @param client - The connection to turn away
+     *************************************************************************/
+    private static void shed (SocketChannel client) {
+        try (SocketChannel c = client) {
+            c.write(ByteBuffer.wrap(MessageCodec.SERVER_BUSY));
+        } catch (IOException e) {
+            // The client has already gone, which is just as good
+        }
+    }
+
+
+    /**************************************************************************
+     * Stops taking new clients, then waits for the games already going to
+     * finish before closing what's left. Run when the router is told to
+     * exit.
+     *************************************************************************/
+    public void drain () {
+        stopping = true;
+
+        try {
+            if (ssc != null) ssc.close();
+        } catch (IOException e) {
+            Utils.error("Error closing the router's socket", e);
+        }
+
+        long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        int active;
+        while ((active = pool.getActiveConnections()) > 0
+               && System.nanoTime() < deadline)
+        {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        if (active > 0) {
+            Utils.info("Closing " + active + " games still being played");
+        }
+
+        if (loops == null) return;
+        for (RouterLoop loop : loops) {
+            if (loop != null) loop.shutdown();
+        }
+    }
+
+
+    /**************************************************************************
+     * Starts the router from the command line.
+     * @param args - The port, then the options
+     *************************************************************************/
+    public static void main (String[] args) {
+        ServerConfig config = ServerConfig.fromArgs(args, USAGE);
+
+        String backends = config.getString("backends", null);
+        if (backends == null || backends.isBlank()) {
+            Utils.errorAndDie("No backends specified." + USAGE);
+        }
+
+        String balance = config.getString("balance", "least");
+        BackendPool.Balance mode = null;
+        try {
+            mode = BackendPool.Balance.valueOf(balance.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Utils.errorAndDie("Unknown balance " + balance
+                        + ". Expected least or hash.");
+        }
+
+        BackendPool pool = new BackendPool(mode,
+                            config.getLong("health-interval", 2000),
+                            config.getInt("health-timeout", 1000));
+        for (String name : backends.split(",")) {
+            try {
+                pool.addBackend(name.trim());
+            } catch (IllegalArgumentException e) {
+                Utils.errorAndDie("Invalid backend " + name + ". Expected "
+                            + "host:port.");
+            }
+        }
+        pool.registerMBean();
+        pool.startHealthChecks();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        Router router = new Router(config.getPort(),
+                            Math.max(1, config.getInt("loops", cores)),
+                            Math.max(64, config.getInt("buffer", 4096)),
+                            config.getLong("drain-timeout", 30000), pool);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(router::drain,
+                                                        "router-drain"));
+        router.start();
+    }
+}
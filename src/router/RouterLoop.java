@@ -0,0 +1,140 @@
+package src.router;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import src.shared.Utils;
+
+public class RouterLoop extends Thread {
+    private static final int MAX_SPARE_BUFFERS = 256;
+
+    private Selector selector;                                  // Owned channels
+    private int bufferSize;                                     // Each way
+    private ConcurrentLinkedQueue<ProxyConnection> pending;     // To start
+    private ArrayDeque<ByteBuffer> spare;                       // To reuse
+
+    /**************************************************************************
+     * Constructor for the RouterLoop class.
+     * @param name - The name of the loop thread
+     * @param bufferSize - The size of the buffer for each direction of each
+     *                     connection
+     * @throws IOException - If the selector can't be opened
+     *************************************************************************/
+    public RouterLoop (String name, int bufferSize) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+        this.bufferSize = bufferSize;
+        this.pending = new ConcurrentLinkedQueue<ProxyConnection>();
+        this.spare = new ArrayDeque<ByteBuffer>();
+    }
+
+
+    /**************************************************************************
+     * Hands a newly accepted connection to this loop. Safe to call from any
+     * thread; the connection is started by the loop itself.
+     * @param conn - The connection
+     *************************************************************************/
+    public void register (ProxyConnection conn) {
+        pending.add(conn);
+        selector.wakeup();
+    }
+
+
+    /**************************************************************************
+     * @return - The selector for this loop's channels
+     *************************************************************************/
+    public Selector getSelector () {
+        return selector;
+    }
+
+
+    /**************************************************************************
+     * Gets an empty direct buffer, reusing one from a closed connection if
+     * there is one, since direct buffers are slow to create and free.
+     * @return - The buffer
+     *************************************************************************/
+    public ByteBuffer takeBuffer () {
+        ByteBuffer buf = spare.poll();
+        return (buf != null) ? buf : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+
+    /**************************************************************************
+     * Hands back a buffer from a closed connection.
+     * @param buf - The buffer
+     *************************************************************************/
+    public void giveBuffer (ByteBuffer buf) {
+        if (spare.size() < MAX_SPARE_BUFFERS) spare.add(buf.clear());
+    }
+
+
+    /**************************************************************************
+     * Main loop. Waits for channels to become ready and hands each one to
+     * the connection attached to its key. A connection that hits an
+     * unexpected error, such as a key cancelled under it, is closed on its
+     * own and the loop carries on.
+     *************************************************************************/
+    public void run () {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                startPending();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                                                      .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    ProxyConnection conn = (ProxyConnection) key.attachment();
+                    try {
+                        if (key.isValid()) conn.handle(key);
+                    } catch (RuntimeException e) {
+                        Utils.error("Unexpected error proxying a client on "
+                                    + "router loop " + getName(), e);
+                        conn.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            Utils.error("Router loop " + getName() + " stopped", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Starts every connection handed to this loop since the last select.
+     *************************************************************************/
+    private void startPending () {
+        ProxyConnection conn;
+
+        while ((conn = pending.poll()) != null) {
+            try {
+                conn.start();
+            } catch (RuntimeException e) {
+                Utils.error("Unable to start proxying a client on router "
+                            + "loop " + getName(), e);
+                conn.close();
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Stops the loop and closes every connection it owns.
+     *************************************************************************/
+    public void shutdown () {
+        try {
+            for (SelectionKey key : selector.keys()) key.channel().close();
+            selector.close();
+        } catch (IOException e) {
+            Utils.error("Error stopping router loop " + getName(), e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package src.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import src.shared.Utils;
+
+public class AdmissionControl implements AdmissionControlMBean {
+    public static final String OBJECT_NAME = "networdle:type=AdmissionControl";
+    public static final int DEFAULT_BACKLOG = 50;
+
+    private volatile int maxGames;          // Concurrent games, 0 for any
+    private volatile int maxAcceptRate;     // Accepts per second, 0 for any
+    private final int backlog;              // Queued connections at bind
+
+    private final AtomicInteger admitted;   // Games currently admitted
+    private final LongAdder shed;           // Connections turned away
+
+    // Token bucket for the accept rate, only used by the accepting thread
+    private double tokens;
+    private long lastRefill;
+
+    /**************************************************************************
+     * Constructor for the AdmissionControl class.
+     * @param maxGames - The most games to run at once, or 0 for no limit
+     * @param maxAcceptRate - The most connections to accept each second, or
+     *                        0 for no limit
+     * @param backlog - The most connections the OS queues before they're
+     *                  accepted
+     *************************************************************************/
+    public AdmissionControl (int maxGames, int maxAcceptRate, int backlog) {
+        this.maxGames = Math.max(0, maxGames);
+        this.maxAcceptRate = Math.max(0, maxAcceptRate);
+        this.backlog = Math.max(1, backlog);
+        this.admitted = new AtomicInteger();
+        this.shed = new LongAdder();
+        this.tokens = this.maxAcceptRate;
+        this.lastRefill = System.nanoTime();
+    }
+
+
+    /**************************************************************************
+     * Constructor for an AdmissionControl with no limits.
+     *************************************************************************/
+    public AdmissionControl () {
+        this(0, 0, DEFAULT_BACKLOG);
+    }
+
+
+    /**************************************************************************
+     * Registers the limits with the platform MBean server, so they can be
+     * changed over JMX. Failing to register is reported but isn't fatal.
+     *************************************************************************/
+    public void registerMBean () {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+        } catch (JMException e) {
+            Utils.error("Unable to register admission control with JMX", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Decides whether a newly accepted connection gets a game. Must only be
+     * called by the thread accepting connections. An admitted game must
+     * call release once it's closed.
+     * @return - True to admit the connection, or false to shed it
+     *************************************************************************/
+    public boolean admit () {
+        if (!takeToken()) {
+            shed.increment();
+            return false;
+        }
+
+        int limit = maxGames;
+        if (admitted.incrementAndGet() > limit && limit > 0) {
+            admitted.decrementAndGet();
+            shed.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Takes a token from the accept rate bucket, which refills at the rate
+     * limit and holds up to a second's worth of tokens.
+     * @return - True if a token was available, or there's no rate limit
+     *************************************************************************/
+    private boolean takeToken () {
+        int rate = maxAcceptRate;
+        if (rate <= 0) return true;
+
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate
+                                / (double) TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+
+        if (tokens < 1) return false;
+
+        tokens -= 1;
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Frees up an admitted game's place once it's closed.
+     *************************************************************************/
+    public void release () {
+        admitted.decrementAndGet();
+    }
+
+
+    @Override
+    public int getMaxGames () {
+        return maxGames;
+    }
+
+
+    @Override
+    public void setMaxGames (int maxGames) {
+        this.maxGames = Math.max(0, maxGames);
+    }
+
+
+    @Override
+    public int getMaxAcceptRate () {
+        return maxAcceptRate;
+    }
+
+
+    @Override
+    public void setMaxAcceptRate (int maxAcceptRate) {
+        this.maxAcceptRate = Math.max(0, maxAcceptRate);
+    }
+
+
+    @Override
+    public int getBacklog () {
+        return backlog;
+    }
+
+
+    @Override
+    public int getAdmittedGames () {
+        return admitted.get();
+    }
+
+
+    @Override
+    public long getShedCount () {
+        return shed.sum();
+    }
+}
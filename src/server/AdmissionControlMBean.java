@@ -0,0 +1,15 @@
+package src.server;
+
+/******************************************************************************
+ * The limits of AdmissionControl that can be read and changed over JMX while
+ * the server is running. A limit of 0 means unlimited.
+ *****************************************************************************/
+public interface AdmissionControlMBean {
+    int getMaxGames ();
+    void setMaxGames (int maxGames);
+    int getMaxAcceptRate ();
+    void setMaxAcceptRate (int maxAcceptRate);
+    int getBacklog ();
+    int getAdmittedGames ();
+    long getShedCount ();
+}
@@ -0,0 +1,236 @@
+package src.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import src.shared.Utils;
+import src.shared.WordDictionary;
+import src.shared.WordList;
+
+/******************************************************************************
+ * Every word list a client can choose at START GAME, by language and length.
+ * The server's usual five letter lists are its default language, and are
+ * loaded at startup and kept for good. Any other list is read from
+ * {root}/{language}/{length}/guess.txt and target.txt the first time a game
+ * asks for it, and is then shared by every game using it.
+ *
+ * Lists are read on a loader thread of the registry's own, never on the
+ * thread asking for them, so an event loop isn't held up by the disk. A
+ * game waits for its list and carries on once it's loaded. The thread is
+ * only started when a list needs loading and stops again once it's idle.
+ *
+ * A list only stays loaded while games are using it or memory is plentiful.
+ * The registry holds it by a soft reference, so the garbage collector can
+ * free an idle list when memory runs short, and the next game to ask for it
+ * loads it again.
+ *****************************************************************************/
+public class DictionaryRegistry {
+    private static final int MAX_LANGUAGE_CHARS = 8;
+    private static final long LOADER_IDLE_SECONDS = 30;
+
+    private final String root;                  // Where the lists live
+    private final String defaultLanguage;       // The usual lists' language
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final Executor loader;              // Reads lists off the disk
+
+    /**************************************************************************
+     * A single list, which is loaded for the first game to ask for it while
+     * any others asking at the same time wait for the same load.
+     *************************************************************************/
+    private static class Entry {
+        private final String name;
+        private final int length;
+        private final File guesses;
+        private final File targets;
+        private SoftReference<WordList> list = new SoftReference<>(null);
+        private CompletableFuture<WordList> loading; // While loading, or null
+        private boolean loadedBefore;           // To log reloads
+
+        private Entry (String name, int length, File guesses, File targets) {
+            this.name = name;
+            this.length = length;
+            this.guesses = guesses;
+            this.targets = targets;
+        }
+
+
+        /**********************************************************************
+         * @param loader - Where to load the list if it isn't loaded
+         * @return - The list, which is already complete if it's loaded, and
+         *           completes with null if it can't be read
+         *********************************************************************/
+        private synchronized CompletableFuture<WordList> get (Executor loader)
+        {
+            WordList words = list.get();
+            if (words != null) return CompletableFuture.completedFuture(words);
+
+            CompletableFuture<WordList> load = loading;
+            if (load == null) {
+                load = CompletableFuture.supplyAsync(this::load, loader);
+                loading = load;
+                load.thenRun(this::loaded);
+            }
+
+            return load;
+        }
+
+
+        /**********************************************************************
+         * Lets the next game to ask for the list load it again if it's
+         * freed, or if this load failed.
+         *********************************************************************/
+        private synchronized void loaded () {
+            loading = null;
+        }
+
+
+        /**********************************************************************
+         * Reads the list, on the loader thread.
+         * @return - The list, or null if it can't be read or has no targets
+         *********************************************************************/
+        private WordList load () {
+            WordList words;
+
+            try {
+                words = WordList.load(name, length, guesses.getPath(),
+                                      targets.getPath());
+            } catch (IOException | RuntimeException e) {
+                Utils.error("Unable to load the word lists for " + name, e);
+                return null;
+            }
+
+            if (words.targetCount() == 0) {
+                Utils.error("The target word list for " + name
+                            + " is empty.");
+                return null;
+            }
+
+            synchronized (this) {
+                Utils.info((loadedBefore ? "Reloaded" : "Loaded")
+                            + " the word lists for " + name + ", "
+                            + words.guessCount() + " guesses and "
+                            + words.targetCount() + " targets");
+                loadedBefore = true;
+                list = new SoftReference<WordList>(words);
+            }
+            return words;
+        }
+    }
+
+    /**************************************************************************
+     * Constructor for the DictionaryRegistry class.
+     * @param root - The directory holding a directory for each language
+     * @param defaultLanguage - The language of the server's usual lists
+     *************************************************************************/
+    public DictionaryRegistry (String root, String defaultLanguage) {
+        this.root = root;
+        this.defaultLanguage = defaultLanguage.toLowerCase();
+        this.entries = new ConcurrentHashMap<String, Entry>();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(0, 1,
+                    LOADER_IDLE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread thread = new Thread(r, "dictionary-loader");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        this.loader = pool;
+    }
+
+
+    /**************************************************************************
+     * @return - The language of the server's usual five letter lists
+     *************************************************************************/
+    public String getDefaultLanguage () {
+        return defaultLanguage;
+    }
+
+
+    /**************************************************************************
+     * Checks if a language and length are the server's usual lists, which
+     * games play from the dictionary in the game context instead.
+     * @param language - The language, in lower case, or null for the default
+     * @param length - The word length
+     * @return - True if they're the usual lists
+     *************************************************************************/
+    public boolean isDefault (String language, int length) {
+        return length == WordDictionary.WORD_LENGTH
+               && (language == null || language.equals(defaultLanguage));
+    }
+
+
+    /**************************************************************************
+     * Gets the word list for a language and length, loading it on the
+     * loader thread if no game has used it yet or it's been freed since.
+     * @param language - The language, in lower case, or null for the default
+     * @param length - The word length
+     * @return - The list, which is already complete if it's loaded, and
+     *           completes with null if there isn't one
+     *************************************************************************/
+    public CompletableFuture<WordList> get (String language, int length) {
+        if (language == null) language = defaultLanguage;
+        if (length < WordList.MIN_LENGTH || length > WordList.MAX_LENGTH
+            || !isLanguageName(language))
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String name = language + "/" + length;
+        Entry entry = entries.get(name);
+        if (entry != null) return entry.get(loader);
+
+        // Only lists that exist get an entry, so clients asking for made up
+        // ones can't fill the map. Finding out touches the disk too
+        String dirName = language;
+        return CompletableFuture.supplyAsync(
+                    () -> find(name, dirName, length), loader)
+                .thenCompose(e -> (e == null)
+                                  ? CompletableFuture.completedFuture(null)
+                                  : e.get(loader));
+    }
+
+
+    /**************************************************************************
+     * Looks for a list on disk, on the loader thread.
+     * @param name - The list's name, its language and length
+     * @param language - The language
+     * @param length - The word length
+     * @return - The list's entry, or null if its files don't exist
+     *************************************************************************/
+    private Entry find (String name, String language, int length) {
+        File dir = new File(new File(root, language),
+                            Integer.toString(length));
+        File guesses = new File(dir, "guess.txt");
+        File targets = new File(dir, "target.txt");
+        if (!guesses.isFile() || !targets.isFile()) return null;
+
+        return entries.computeIfAbsent(name,
+                    n -> new Entry(n, length, guesses, targets));
+    }
+
+
+    /**************************************************************************
+     * Checks that a language name is safe to use as a directory name.
+     * @param language - The language
+     * @return - True if it's a short run of lower case letters
+     *************************************************************************/
+    private static boolean isLanguageName (String language) {
+        if (language.isEmpty() || language.length() > MAX_LANGUAGE_CHARS) {
+            return false;
+        }
+
+        for (int i = 0; i < language.length(); i++) {
+            char c = language.charAt(i);
+            if (c < 'a' || c > 'z') return false;
+        }
+
+        return true;
+    }
+}
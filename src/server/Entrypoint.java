@@ -1,34 +1,201 @@
 package src.server;
 
+import java.io.IOException;
+
+import src.shared.AsyncLogger;
+import src.shared.DictionarySnapshot;
+import src.shared.FeedbackMatrix;
 import src.shared.Utils;
+import src.shared.WordDictionary;
 
 public class Entrypoint {
+    private static final String GUESS_PATH = "./resources/guess.txt";
+    private static final String TARGET_PATH = "./resources/target.txt";
+    private static final String SNAPSHOT_PATH = "./resources/dictionary.bin";
+    private static final String MATRIX_PATH = "./resources/feedback.bin";
+
+    /**************************************************************************
+     * Sets up logging from the server's options. Messages are queued for a
+     * background writer unless --log-async=false is given, so games never
+     * wait on standard out.
+     * @param config - The server's options
+     *************************************************************************/
+    private static void configureLogging (ServerConfig config) {
+        String level = config.getString("log-level", "info");
+        String full = config.getString("log-full", "drop");
+
+        try {
+            Utils.setLevel(Utils.Level.valueOf(level.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            Utils.errorAndDie("Unknown log level " + level
+                        + ". Expected info, error or off.");
+        }
+
+        if (!full.equals("drop") && !full.equals("block")) {
+            Utils.errorAndDie("Unknown log policy " + full
+                        + ". Expected drop or block.");
+        }
+
+        if (config.getBoolean("log-async", true)) {
+            Utils.startAsync(Math.max(2, config.getInt("log-buffer", 8192)),
+                    AsyncLogger.FullPolicy.valueOf(full.toUpperCase()));
+        }
+    }
+
+
     /**************************************************************************
-     * Processes the command line arguments given to the server. That is,
-     * ensures that a valid port has been given. If no valid port has been
-     * given, the program will exit.
-     * 
-     * @param args - The command line arguments given to the program
-     * @return A port number for the server o be opened on
+     * Loads the word lists shared by every game from the binary snapshot,
+     * compiling it from the text lists on the first run. The program will
+     * exit if neither can be read.
+     * @return - The dictionary for the server to use
      *************************************************************************/
-    private static int processPort (String[] args) {
-        int port = 0;
+    private static WordDictionary loadDictionary () {
+        WordDictionary dictionary = null;
 
-        // Check we've been given at least one argument from the command line
-        if (args.length < 1) {
-            Utils.errorAndDie("No port number specified.\nUsage:" + 
-                        "./startServer {port number}");
+        try {
+            dictionary = DictionarySnapshot.loadOrCompile(SNAPSHOT_PATH,
+                                                GUESS_PATH, TARGET_PATH);
+        } catch (IOException e) {
+            Utils.errorAndDie("Error trying to read the word lists.\n"
+                        + e.getMessage());
         }
 
-        // Check that we were given a valid integer as the port number
-        try{
-            port = Integer.parseInt(args[0]);
-        } catch (NumberFormatException e) {
-            Utils.errorAndDie("Invalid port number specified.\nUsage:" +
-                        "./startServer {port number}");
+        if (dictionary.targetCount() == 0) {
+            Utils.errorAndDie("The target word list is empty.");
         }
 
-        return port;
+        return dictionary;
+    }
+
+
+    /**************************************************************************
+     * Sets up the state shared by every game from the server's options.
+     * @param config - The server's options
+     * @param dictionary - The word lists shared by every game
+     * @return - The context for the server to give its games
+     *************************************************************************/
+    private static GameContext createContext (ServerConfig config,
+                                              WordDictionary dictionary)
+    {
+        GameContext context = new GameContext(dictionary);
+        String hints = config.getString("hints", "engine");
+
+        // Precomputing every hint trades memory for a lookup per guess
+        if (hints.equals("matrix")) {
+            String path = config.getString("matrix-cache", MATRIX_PATH);
+            context.setFeedbackMatrix(
+                        FeedbackMatrix.loadOrBuild(path, dictionary));
+        } else if (!hints.equals("engine")) {
+            Utils.errorAndDie("Unknown hint mode " + hints
+                        + ". Expected engine or matrix.");
+        }
+
+        // Unfinished games can be resumed after a restart if they're
+        // journaled to disk, for as long as they haven't expired
+        String journal = config.getString("journal", null);
+        long journalTtl = config.getLong("journal-ttl",
+                                    GameJournal.DEFAULT_TTL_MILLIS);
+        int journalMax = config.getInt("journal-max",
+                                    GameJournal.DEFAULT_MAX_SUSPENDED);
+        if (journal != null) {
+            try {
+                context.setJournal(GameJournal.open(journal,
+                            config.getLong("journal-interval", 10),
+                            journalTtl, journalMax));
+            } catch (IOException e) {
+                Utils.errorAndDie("Unable to open the game journal "
+                            + journal + ".\n" + e.getMessage());
+            }
+        } else {
+            context.setJournal(new GameJournal(journalTtl, journalMax));
+        }
+
+        // Limits on taking new clients, which can be changed over JMX
+        AdmissionControl admission = new AdmissionControl(
+                    config.getInt("max-games", 0),
+                    config.getInt("max-accept-rate", 0),
+                    config.getInt("backlog", AdmissionControl.DEFAULT_BACKLOG));
+        admission.registerMBean();
+        context.setAdmissionControl(admission);
+
+        // Other word lengths and languages are loaded when first asked for
+        context.setDictionaries(new DictionaryRegistry(
+                    config.getString("dictionaries", "./resources"),
+                    config.getString("language", "en")));
+
+        // Clients can play several games over one connection
+        context.setKeepAlive(config.getBoolean("keep-alive", false));
+
+        // Stateless games keep nothing on the server between guesses, so
+        // every server given the same key can carry on every game
+        if (config.getBoolean("stateless", false)) {
+            context.setTokens(GameTokens.fromKey(
+                                    config.getString("token-key", null)));
+        }
+
+        // Slow clients are closed by one timer wheel shared by every game.
+        // A limit of 0 turns it off.
+        long handshake = config.getLong("handshake-timeout",
+                                GameTimeouts.DEFAULT_HANDSHAKE_MILLIS);
+        long idle = config.getLong("idle-timeout",
+                                GameTimeouts.DEFAULT_IDLE_MILLIS);
+        long game = config.getLong("game-timeout",
+                                GameTimeouts.DEFAULT_GAME_MILLIS);
+        if (handshake > 0 || idle > 0 || game > 0) {
+            TimerWheel wheel = new TimerWheel(
+                                config.getLong("timer-tick", 100), 512);
+            context.setTimeouts(new GameTimeouts(wheel, handshake, idle,
+                                                 game));
+        }
+
+        // Named players' statistics, kept in a snapshot file if given
+        PlayerStats stats = new PlayerStats(
+                            config.getInt("max-players",
+                                        PlayerStats.DEFAULT_MAX_PLAYERS),
+                            config.getInt("leaderboard-size",
+                                        PlayerStats.DEFAULT_LEADERBOARD_SIZE));
+        String statsPath = config.getString("stats", null);
+        if (statsPath != null) {
+            try {
+                stats.open(statsPath, config.getLong("stats-interval",
+                                                     60000));
+            } catch (IOException e) {
+                Utils.errorAndDie("Unable to open the player statistics "
+                            + statsPath + ".\n" + e.getMessage());
+            }
+        }
+        stats.start();
+        context.setStats(stats);
+
+        // Every game's events can be streamed to local subscribers
+        int eventsPort = config.getInt("events-port", 0);
+        if (eventsPort > 0) {
+            String full = config.getString("events-full", "drop");
+            GameEvents.FullPolicy policy = null;
+            try {
+                policy = GameEvents.FullPolicy.valueOf(full.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                Utils.errorAndDie("Unknown events-full policy " + full
+                            + ". Expected drop or close.");
+            }
+
+            GameEvents events = new GameEvents(eventsPort,
+                            config.getInt("events-ring", 65536),
+                            config.getInt("events-buffer", 64), policy,
+                            context.getMetrics());
+            events.start();
+            context.setEvents(events);
+        }
+
+        // Metrics are always readable over JMX, and over plain text on a
+        // local port if one is given
+        context.getMetrics().registerMBean();
+        int metricsPort = config.getInt("metrics-port", 0);
+        if (metricsPort > 0) {
+            new MetricsEndpoint(metricsPort, context.getMetrics()).start();
+        }
+
+        return context;
     }
 
 
@@ -37,8 +204,26 @@ public class Entrypoint {
      * @param args - The command line arguments given to the program.
      *************************************************************************/
     public static void main(String[] args) {
-        int port = processPort(args);
-        Server server = new Server(port);
-        server.start();
+        ServerConfig config = ServerConfig.fromArgs(args);
+        configureLogging(config);
+        WordDictionary dictionary = loadDictionary();
+        GameContext context = createContext(config, dictionary);
+        String engine = config.getString("engine", "blocking");
+
+        // Choose between a thread per game and a few selector event loops
+        if (engine.equals("nio")) {
+            int loops = Math.max(1, config.getInt("loops",
+                                Runtime.getRuntime().availableProcessors()));
+            NioServer server = new NioServer(config.getPort(), loops,
+                                             context);
+            server.start();
+        } else if (engine.equals("blocking")) {
+            Server server = new Server(config.getPort(), context,
+                                       config.getString("threads", "platform"));
+            server.start();
+        } else {
+            Utils.errorAndDie("Unknown engine " + engine
+                        + ". Expected blocking or nio.");
+        }
     }
 }
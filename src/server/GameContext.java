@@ -0,0 +1,233 @@
+package src.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import src.shared.FeedbackMatrix;
+import src.shared.WordDictionary;
+
+public class GameContext {
+    private WordDictionary dictionary;  // The shared guess and target lists
+    private FeedbackMatrix matrix;      // Precomputed hints, or null
+    private ServerMetrics metrics;      // Counters and latencies
+    private GameJournal journal;        // Unfinished games to resume
+    private AdmissionControl admission; // Limits on accepting clients
+    private GameTimeouts timeouts;      // Limits on slow clients, or null
+    private boolean keepAlive;          // Play more games per connection
+    private GameTokens tokens;          // Stateless games, or null if off
+    private DictionaryRegistry dictionaries; // Lists chosen at START GAME
+    private ConcurrentHashMap<String, RaceRoom> rooms; // Open race rooms
+    private GameEvents events;          // Live events, or null if off
+    private PlayerStats stats;          // Named players and the leaderboard
+
+    /**************************************************************************
+     * Constructor for the GameContext class. A single context is shared by
+     * every game on the server, and holds everything a game needs that isn't
+     * specific to one client. It must be fully set up before the server
+     * starts accepting clients. The journal, word list registry and player
+     * statistics are normally set by the server; one that isn't is created
+     * with its defaults the first time a game asks for it.
+     * @param dictionary - The word lists shared by every game
+     *************************************************************************/
+    public GameContext (WordDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.metrics = new ServerMetrics();
+        this.rooms = new ConcurrentHashMap<String, RaceRoom>();
+        setAdmissionControl(new AdmissionControl());
+    }
+
+
+    /**************************************************************************
+     * @return - The word lists shared by every game
+     *************************************************************************/
+    public WordDictionary getDictionary () {
+        return dictionary;
+    }
+
+
+    /**************************************************************************
+     * @return - Every named player's statistics, and the leaderboard
+     *************************************************************************/
+    public synchronized PlayerStats getStats () {
+        if (stats == null) {
+            stats = new PlayerStats(PlayerStats.DEFAULT_MAX_PLAYERS,
+                                    PlayerStats.DEFAULT_LEADERBOARD_SIZE);
+        }
+        return stats;
+    }
+
+
+    /**************************************************************************
+     * @param stats - Where finished games are counted
+     *************************************************************************/
+    public synchronized void setStats (PlayerStats stats) {
+        this.stats = stats;
+    }
+
+
+    /**************************************************************************
+     * @return - Where games publish their events, or null if nobody can
+     *           subscribe to them
+     *************************************************************************/
+    public GameEvents getEvents () {
+        return events;
+    }
+
+
+    /**************************************************************************
+     * @param events - Where games publish their events, or null for nowhere
+     *************************************************************************/
+    public void setEvents (GameEvents events) {
+        this.events = events;
+    }
+
+
+    /**************************************************************************
+     * @return - Every open race room, by name
+     *************************************************************************/
+    public ConcurrentHashMap<String, RaceRoom> getRooms () {
+        return rooms;
+    }
+
+
+    /**************************************************************************
+     * @return - Every word list a client can choose when starting a game
+     *************************************************************************/
+    public synchronized DictionaryRegistry getDictionaries () {
+        if (dictionaries == null) {
+            dictionaries = new DictionaryRegistry("./resources", "en");
+        }
+        return dictionaries;
+    }
+
+
+    /**************************************************************************
+     * @param dictionaries - Every word list a client can choose when
+     *                       starting a game
+     *************************************************************************/
+    public synchronized void setDictionaries (
+        DictionaryRegistry dictionaries)
+    {
+        this.dictionaries = dictionaries;
+    }
+
+
+    /**************************************************************************
+     * @return - The metrics every game reports to
+     *************************************************************************/
+    public ServerMetrics getMetrics () {
+        return metrics;
+    }
+
+
+    /**************************************************************************
+     * @return - Where unfinished games are kept for clients to resume
+     *************************************************************************/
+    public synchronized GameJournal getJournal () {
+        if (journal == null) {
+            journal = new GameJournal(GameJournal.DEFAULT_TTL_MILLIS,
+                                      GameJournal.DEFAULT_MAX_SUSPENDED);
+        }
+        return journal;
+    }
+
+
+    /**************************************************************************
+     * Sets where unfinished games are kept, such as a journal on disk.
+     * @param journal - The journal to use
+     *************************************************************************/
+    public synchronized void setJournal (GameJournal journal) {
+        this.journal = journal;
+    }
+
+
+    /**************************************************************************
+     * @return - The limits on accepting new clients
+     *************************************************************************/
+    public AdmissionControl getAdmissionControl () {
+        return admission;
+    }
+
+
+    /**************************************************************************
+     * Sets the limits on accepting new clients.
+     * @param admission - The limits to use
+     *************************************************************************/
+    public void setAdmissionControl (AdmissionControl admission) {
+        this.admission = admission;
+        this.metrics.setAdmissionControl(admission);
+    }
+
+
+    /**************************************************************************
+     * @return - The limits on how long clients can take, or null if games
+     *           never time out
+     *************************************************************************/
+    public GameTimeouts getTimeouts () {
+        return timeouts;
+    }
+
+
+    /**************************************************************************
+     * Sets the limits on how long clients can take.
+     * @param timeouts - The limits to use, or null for none
+     *************************************************************************/
+    public void setTimeouts (GameTimeouts timeouts) {
+        this.timeouts = timeouts;
+    }
+
+
+    /**************************************************************************
+     * @return - True if clients can start another game on the same
+     *           connection after winning one
+     *************************************************************************/
+    public boolean isKeepAlive () {
+        return keepAlive;
+    }
+
+
+    /**************************************************************************
+     * Sets whether connections are kept open after a game is won, for the
+     * client to start another game.
+     * @param keepAlive - True to keep connections open
+     *************************************************************************/
+    public void setKeepAlive (boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+
+    /**************************************************************************
+     * @return - What seals stateless games' tokens, or null if stateless
+     *           games aren't allowed
+     *************************************************************************/
+    public GameTokens getTokens () {
+        return tokens;
+    }
+
+
+    /**************************************************************************
+     * Allows stateless games, whose state is sealed into tokens the client
+     * holds.
+     * @param tokens - What seals the tokens, or null to turn them off
+     *************************************************************************/
+    public void setTokens (GameTokens tokens) {
+        this.tokens = tokens;
+    }
+
+
+    /**************************************************************************
+     * @return - The precomputed hints, or null if hints are computed for
+     *           every guess
+     *************************************************************************/
+    public FeedbackMatrix getFeedbackMatrix () {
+        return matrix;
+    }
+
+
+    /**************************************************************************
+     * Sets the precomputed hints for games to look up instead of computing.
+     * @param matrix - The precomputed hints, or null to compute them
+     *************************************************************************/
+    public void setFeedbackMatrix (FeedbackMatrix matrix) {
+        this.matrix = matrix;
+    }
+}
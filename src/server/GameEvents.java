@@ -0,0 +1,530 @@
+package src.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import src.shared.Utils;
+
+/******************************************************************************
+ * A live stream of every game's events, served to subscribers on a local
+ * port. A subscriber connects and sends SUBSCRIBE for one line per event, or
+ * SUBSCRIBE BINARY for fixed size records, and is then sent every event
+ * from that point on.
+ *
+ * Games publish into a ring buffer like the async logger's, with each event
+ * packed into a single long, so publishing is one lock-free claim and never
+ * allocates or waits. If the ring is full the event is thrown away and
+ * counted. One dispatcher thread drains the ring in batches, numbers each
+ * event, encodes the batch once per format, and shares the encoded bytes
+ * with every subscriber using that format.
+ *
+ * Each subscriber has a bounded queue of batches waiting to be written.
+ * When it's full, the batch is dropped for that subscriber, or the
+ * subscriber is closed. Events are numbered in the order they're drained,
+ * and every event lost along the way still uses up its number, so a
+ * subscriber can tell from a gap in the numbers that it missed some.
+ *****************************************************************************/
+public class GameEvents implements Runnable {
+    // The kinds of event, and the value each one carries
+    public static final int STARTED = 1;    // The word length
+    public static final int GUESS = 2;      // The number of valid guesses
+    public static final int INVALID = 3;    // The number of valid guesses
+    public static final int HINT = 4;       // The hint, encoded in base 3
+    public static final int WON = 5;        // The number of guesses taken
+    public static final int DROPPED = 6;    // The number of valid guesses
+
+    public static final int BINARY_EVENT_BYTES = 20;
+
+    /**************************************************************************
+     * What to do with a batch when a subscriber's queue is full.
+     *************************************************************************/
+    public enum FullPolicy {
+        DROP,       // Skip the batch for that subscriber and count it
+        CLOSE       // Close the subscriber
+    }
+
+    private static final String[] NAMES = {
+        null, "STARTED", "GUESS", "INVALID", "HINT", "WON", "DROPPED"
+    };
+
+    private static final byte[] SUBSCRIBE =
+                    "SUBSCRIBE\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUBSCRIBE_BINARY =
+                    "SUBSCRIBE BINARY\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int BATCH_EVENTS = 1024;
+
+    // An event is packed as the game id, then the kind, then the value
+    private static final int KIND_SHIFT = 16;
+    private static final int GAME_SHIFT = 24;
+    private static final long GAME_MASK = (1L << (64 - GAME_SHIFT)) - 1;
+    private static final int VALUE_MASK = 0xFFFF;
+
+    // The ring buffer, claimed the same way as the async logger's
+    private final long[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;      // Next position for a publisher
+    private long head;                  // Next position for the dispatcher
+
+    private final AtomicLong nextGame;  // Ids handed out to games
+    private final LongAdder lost;       // Events thrown away when full
+    private long lostSeen;              // Lost events already numbered
+    private long nextSequence;          // The next event's number
+    private final AtomicBoolean idle;   // If the dispatcher may be blocked
+
+    private final int port;
+    private final int queueBatches;     // Batches each subscriber can hold
+    private final FullPolicy policy;    // What to do when one is full
+    private final ServerMetrics metrics;
+    private final ArrayList<Subscriber> subscribers;
+    private int binarySubscribers;      // Subscribers wanting records
+    private final ByteBuffer discard;   // For reads after subscribing
+    private Selector selector;
+    private ServerSocketChannel ssc;
+
+    /**************************************************************************
+     * A connection to a subscriber. Only touched by the dispatcher thread.
+     *************************************************************************/
+    private static class Subscriber {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer request;       // The SUBSCRIBE line so far
+        private final ArrayDeque<ByteBuffer> pending; // Batches to write
+        private boolean subscribed;
+        private boolean binary;
+
+        private Subscriber (SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.request = ByteBuffer.allocate(SUBSCRIBE_BINARY.length);
+            this.pending = new ArrayDeque<ByteBuffer>();
+        }
+    }
+
+    /**************************************************************************
+     * Constructor for the GameEvents class. Call start to begin serving
+     * subscribers.
+     * @param port - The port to serve subscribers on
+     * @param capacity - The number of events the ring can hold, rounded up
+     *                   to a power of two
+     * @param queueBatches - The number of batches each subscriber can have
+     *                       waiting to be written
+     * @param policy - What to do when a subscriber's queue is full
+     * @param metrics - Where lost and dropped events are counted
+     *************************************************************************/
+    public GameEvents (int port, int capacity, int queueBatches,
+                       FullPolicy policy, ServerMetrics metrics)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        this.slots = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.nextGame = new AtomicLong();
+        this.lost = new LongAdder();
+        this.nextSequence = 1;
+        this.idle = new AtomicBoolean();
+        this.port = port;
+        this.queueBatches = Math.max(1, queueBatches);
+        this.policy = policy;
+        this.metrics = metrics;
+        this.subscribers = new ArrayList<Subscriber>();
+        this.discard = ByteBuffer.allocate(256);
+
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+
+    /**************************************************************************
+     * Starts serving subscribers on a background thread. Like the metrics,
+     * the events are only served on the loopback address.
+     *************************************************************************/
+    public void start () {
+        try {
+            selector = Selector.open();
+            ssc = ServerSocketChannel.open();
+            ssc.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                           port));
+            ssc.configureBlocking(false);
+            ssc.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            Utils.errorAndDie("Unable to serve events on port " + port + ".");
+        }
+
+        Thread thread = new Thread(this, "event-dispatcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        System.out.println("Game events available on port " + port);
+    }
+
+
+    /**************************************************************************
+     * @return - A new id for a game's events
+     *************************************************************************/
+    public long nextGameId () {
+        return nextGame.incrementAndGet() & GAME_MASK;
+    }
+
+
+    /**************************************************************************
+     * Publishes an event from any thread. Never blocks; if the ring is full
+     * the event is thrown away and counted. Only the first event after the
+     * dispatcher has run out wakes it, so a busy stream costs publishers
+     * nothing more than the ring itself.
+     * @param game - The game's id
+     * @param kind - The kind of event, e.g. GUESS
+     * @param value - The event's value, see the kinds
+     *************************************************************************/
+    public void publish (long game, int kind, int value) {
+        long event = (game << GAME_SHIFT) | ((long) kind << KIND_SHIFT)
+                     | (value & VALUE_MASK);
+
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = event;
+                    sequences.set(index, pos + 1);
+                    if (idle.get() && idle.compareAndSet(true, false)) {
+                        selector.wakeup();
+                    }
+                    return;
+                }
+            } else if (diff < 0) {
+                lost.increment();
+                return;
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Drains the next batch of events from the ring. Only called by the
+     * dispatcher.
+     * @param batch - Where to put the events
+     * @return - The number of events drained
+     *************************************************************************/
+    private int drain (long[] batch) {
+        int count = 0;
+
+        while (count < batch.length) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) break;
+
+            batch[count++] = slots[index];
+            sequences.set(index, head + mask + 1);
+            head++;
+        }
+
+        return count;
+    }
+
+
+    /**************************************************************************
+     * @return - True if an event is waiting to be drained. Only called by
+     *           the dispatcher.
+     *************************************************************************/
+    private boolean hasEvents () {
+        return sequences.get((int) head & mask) == head + 1;
+    }
+
+
+    /**************************************************************************
+     * The dispatcher's main loop. Sends each batch of events to every
+     * subscriber, then handles the subscribers' sockets. With no events it
+     * blocks until a subscriber's socket is ready or an event is published.
+     *
+     * The dispatcher marks itself idle before checking the ring one last
+     * time, and a publisher checks the mark after adding its event, so
+     * whichever goes second sees the other: either the event is found, or
+     * the publisher wakes the selector.
+     *************************************************************************/
+    @Override
+    public void run () {
+        long[] batch = new long[BATCH_EVENTS];
+
+        while (ssc.isOpen()) {
+            // Events lost to a full ring still use up their numbers
+            long lostNow = lost.sum();
+            if (lostNow != lostSeen) {
+                metrics.eventsDropped(lostNow - lostSeen);
+                nextSequence += lostNow - lostSeen;
+                lostSeen = lostNow;
+            }
+
+            int count = drain(batch);
+            if (count > 0) {
+                dispatch(batch, count, nextSequence);
+                nextSequence += count;
+            }
+
+            try {
+                if (count > 0) {
+                    selector.selectNow();
+                } else {
+                    idle.set(true);
+                    if (hasEvents()) {
+                        idle.set(false);
+                        selector.selectNow();
+                    } else {
+                        selector.select();
+                        idle.set(false);
+                    }
+                }
+            } catch (IOException e) {
+                Utils.error("Error waiting on event subscribers", e);
+                continue;
+            }
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (!key.isValid()) continue;
+
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+
+                Subscriber s = (Subscriber) key.attachment();
+                if (key.isReadable()) read(s);
+                if (key.isValid() && key.isWritable()) write(s);
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+
+    /**************************************************************************
+     * Encodes a batch of events once for each format in use, and queues it
+     * for every subscriber.
+     * @param batch - The packed events
+     * @param count - The number of events in the batch
+     * @param first - The number of the first event
+     *************************************************************************/
+    private void dispatch (long[] batch, int count, long first) {
+        if (subscribers.isEmpty()) return;
+
+        ByteBuffer text = null;
+        if (binarySubscribers < subscribers.size()) {
+            text = encodeText(batch, count, first);
+        }
+
+        ByteBuffer binary = null;
+        if (binarySubscribers > 0) {
+            binary = encodeBinary(batch, count, first);
+        }
+
+        for (int i = subscribers.size() - 1; i >= 0; i--) {
+            Subscriber s = subscribers.get(i);
+            if (!s.subscribed) continue;
+
+            if (s.pending.size() >= queueBatches) {
+                if (policy == FullPolicy.CLOSE) {
+                    Utils.info("Closing an event subscriber that fell "
+                                + "behind");
+                    close(s);
+                } else {
+                    metrics.eventsDropped(count);
+                }
+                continue;
+            }
+
+            s.pending.add((s.binary ? binary : text).duplicate());
+            if (s.pending.size() == 1) write(s);
+        }
+    }
+
+
+    /**************************************************************************
+     * Encodes events as lines of their number, kind, game id and value,
+     * e.g. 42 HINT 17 201.
+     * @return - The encoded events, which must not be modified
+     *************************************************************************/
+    private static ByteBuffer encodeText (long[] batch, int count,
+                                          long first)
+    {
+        StringBuilder sb = new StringBuilder(count * 24);
+
+        for (int i = 0; i < count; i++) {
+            long event = batch[i];
+            sb.append(first + i).append(' ')
+              .append(NAMES[(int) (event >>> KIND_SHIFT) & 0xFF]).append(' ')
+              .append(event >>> GAME_SHIFT).append(' ')
+              .append(event & VALUE_MASK).append('\n');
+        }
+
+        return ByteBuffer.wrap(sb.toString()
+                                 .getBytes(StandardCharsets.US_ASCII))
+                         .asReadOnlyBuffer();
+    }
+
+
+    /**************************************************************************
+     * Encodes events as BINARY_EVENT_BYTES records, each a big endian 8 byte
+     * number, 8 byte game id, 2 byte kind and 2 byte value.
+     * @return - The encoded events, which must not be modified
+     *************************************************************************/
+    private static ByteBuffer encodeBinary (long[] batch, int count,
+                                            long first)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(count * BINARY_EVENT_BYTES);
+
+        for (int i = 0; i < count; i++) {
+            long event = batch[i];
+            buf.putLong(first + i)
+               .putLong(event >>> GAME_SHIFT)
+               .putShort((short) ((event >>> KIND_SHIFT) & 0xFF))
+               .putShort((short) (event & VALUE_MASK));
+        }
+
+        buf.flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+
+    /**************************************************************************
+     * Takes a new subscriber, which gets nothing until it subscribes.
+     *************************************************************************/
+    private void accept () {
+        try {
+            SocketChannel channel = ssc.accept();
+            if (channel == null) return;
+
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector,
+                                                SelectionKey.OP_READ);
+            Subscriber s = new Subscriber(channel, key);
+            key.attach(s);
+            subscribers.add(s);
+        } catch (IOException e) {
+            Utils.error("Error accepting an event subscriber", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Reads from a subscriber. Before it's subscribed this is the SUBSCRIBE
+     * line, and after that anything but hanging up is ignored.
+     * @param s - The subscriber
+     *************************************************************************/
+    private void read (Subscriber s) {
+        try {
+            if (s.subscribed) {
+                discard.clear();
+                if (s.channel.read(discard) < 0) close(s);
+                return;
+            }
+
+            if (s.channel.read(s.request) < 0) {
+                close(s);
+                return;
+            }
+        } catch (IOException e) {
+            close(s);
+            return;
+        }
+
+        int len = s.request.position();
+        byte[] line = s.request.array();
+        if (len > 0 && line[len - 1] == '\n') {
+            if (matches(line, len, SUBSCRIBE)) {
+                s.subscribed = true;
+            } else if (matches(line, len, SUBSCRIBE_BINARY)) {
+                s.subscribed = true;
+                s.binary = true;
+                binarySubscribers++;
+            }
+        }
+
+        // A full request that isn't a subscription never will be
+        if (!s.subscribed && !s.request.hasRemaining()) close(s);
+    }
+
+
+    /**************************************************************************
+     * @return - True if the first len bytes of a line are the expected ones
+     *************************************************************************/
+    private static boolean matches (byte[] line, int len, byte[] expected) {
+        if (len != expected.length) return false;
+
+        for (int i = 0; i < len; i++) {
+            if (line[i] != expected[i]) return false;
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Writes as many of a subscriber's batches as its socket will take, and
+     * waits for it to become writable if any are left. It's still read
+     * meanwhile, so a subscriber that hangs up while behind is noticed.
+     * @param s - The subscriber
+     *************************************************************************/
+    private void write (Subscriber s) {
+        try {
+            ByteBuffer next;
+            while ((next = s.pending.peek()) != null) {
+                s.channel.write(next);
+                if (next.hasRemaining()) break;
+                s.pending.poll();
+            }
+        } catch (IOException e) {
+            close(s);
+            return;
+        }
+
+        s.key.interestOps(s.pending.isEmpty()
+                          ? SelectionKey.OP_READ
+                          : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+
+    /**************************************************************************
+     * Closes a subscriber, throwing away anything still waiting for it.
+     * @param s - The subscriber
+     *************************************************************************/
+    private void close (Subscriber s) {
+        if (!subscribers.remove(s)) return;
+        if (s.binary) binarySubscribers--;
+
+        s.key.cancel();
+        try {
+            s.channel.close();
+        } catch (IOException e) {
+            Utils.error("Error closing an event subscriber", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Stops serving events.
+     *************************************************************************/
+    public void close () {
+        try {
+            if (ssc != null) ssc.close();
+        } catch (IOException e) {
+            Utils.error("Error closing the event stream", e);
+        }
+
+        if (selector != null) selector.wakeup();
+    }
+}
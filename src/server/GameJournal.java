@@ -0,0 +1,438 @@
+package src.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.shared.Utils;
+
+public class GameJournal implements Runnable {
+    // Every record is a type, a session id and a value
+    public static final byte STARTED = 1;       // Value is the target index
+    public static final byte GUESSED = 2;       // Value is the guess count
+    public static final byte WON = 3;           // Value is the guess count
+    public static final byte EXPIRED = 4;       // Value is unused
+    public static final int RECORD_BYTES = 13;
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    public static final int DEFAULT_MAX_SUSPENDED = 100000;
+
+    private static final int INITIAL_BYTES = 64 * 1024;
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+    /**************************************************************************
+     * The state needed to carry on with a game that hasn't finished.
+     *************************************************************************/
+    public static class SavedGame {
+        public final long sessionId;
+        public final int targetIndex;
+        public final int guessCount;
+        private final long savedAt;     // When it was last saved, to expire
+
+        public SavedGame (long sessionId, int targetIndex, int guessCount) {
+            this.sessionId = sessionId;
+            this.targetIndex = targetIndex;
+            this.guessCount = guessCount;
+            this.savedAt = System.nanoTime();
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+
+    // Unfinished games with no client connected, by session id
+    private final ConcurrentHashMap<Long, SavedGame> suspended;
+
+    // Every unfinished game, played or suspended, by session id. Compacting
+    // the file while running rewrites these
+    private final ConcurrentHashMap<Long, SavedGame> games;
+
+    private final long ttlNanos;        // How long a suspended game is kept
+    private final int maxSuspended;     // The most suspended games kept
+    private final AtomicLong lastSweep; // When expired games were last swept
+
+    private Path file;                  // The journal file, or null
+    private long fileBytes;             // Bytes in the file, to compact it
+    private FileChannel channel;        // The journal file, or null
+    private long intervalNanos;         // Time between group commits
+    private ByteBuffer pending;         // Records waiting to be committed
+    private ByteBuffer writing;         // Records being committed
+    private Thread committer;           // Commits the pending records
+    private final Object commitLock;    // Lets one commit run at a time
+
+    /**************************************************************************
+     * Constructor for the GameJournal class. The journal starts off only
+     * keeping unfinished games in memory, so clients can resume them after
+     * reconnecting but not after a restart. Suspended games are forgotten
+     * once they've waited too long, or straight away if too many are
+     * waiting, so clients can't fill the server up with games they never
+     * come back to.
+     * @param ttlMillis - How long a suspended game can wait to be resumed
+     * @param maxSuspended - The most suspended games to keep
+     *************************************************************************/
+    public GameJournal (long ttlMillis, int maxSuspended) {
+        this.suspended = new ConcurrentHashMap<Long, SavedGame>();
+        this.games = new ConcurrentHashMap<Long, SavedGame>();
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, ttlMillis));
+        this.maxSuspended = Math.max(0, maxSuspended);
+        this.lastSweep = new AtomicLong(System.nanoTime());
+        this.commitLock = new Object();
+    }
+
+
+    /**************************************************************************
+     * Opens a journal file, creating it if needed. Every unfinished game in
+     * the file is recovered and can be resumed, and the file is then
+     * rewritten to hold only those games. Records are committed in groups on
+     * a background thread, with one write and one force per interval, so a
+     * crash loses at most one interval of guesses. The file is compacted
+     * again by the committer whenever it has grown to twice the size of the
+     * games it holds.
+     * @param path - The path to the journal file
+     * @param intervalMillis - The time between group commits
+     * @param ttlMillis - How long a suspended game can wait to be resumed
+     * @param maxSuspended - The most suspended games to keep
+     * @return - The opened journal
+     * @throws IOException - If the journal can't be read or written
+     *************************************************************************/
+    public static GameJournal open (String path, long intervalMillis,
+                                    long ttlMillis, int maxSuspended)
+        throws IOException
+    {
+        GameJournal journal = new GameJournal(ttlMillis, maxSuspended);
+        journal.file = Paths.get(path);
+
+        if (Files.isRegularFile(journal.file)) journal.recover(journal.file);
+        journal.compact();
+        journal.intervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                                            Math.max(1, intervalMillis));
+        journal.pending = ByteBuffer.allocate(INITIAL_BYTES);
+        journal.writing = ByteBuffer.allocate(INITIAL_BYTES);
+
+        journal.committer = new Thread(journal, "journal");
+        journal.committer.setDaemon(true);
+        journal.committer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::commit));
+
+        Utils.info("Recovered " + journal.suspended.size()
+                    + " unfinished games from " + path);
+        return journal;
+    }
+
+
+    /**************************************************************************
+     * Replays a journal file, keeping every game that hasn't been won. A
+     * partly written record at the end, left by a crash, is ignored.
+     * @param file - The journal file
+     * @throws IOException - If the file can't be read
+     *************************************************************************/
+    private void recover (Path file) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        HashMap<Long, SavedGame> games = new HashMap<Long, SavedGame>();
+
+        while (buf.remaining() >= RECORD_BYTES) {
+            byte type = buf.get();
+            long id = buf.getLong();
+            int value = buf.getInt();
+
+            SavedGame game = games.get(id);
+
+            if (type == STARTED) {
+                games.put(id, new SavedGame(id, value, 0));
+            } else if (type == GUESSED && game != null) {
+                games.put(id, new SavedGame(id, game.targetIndex, value));
+            } else if (type == WON || type == EXPIRED) {
+                games.remove(id);
+            }
+        }
+
+        suspended.putAll(games);
+        this.games.putAll(games);
+    }
+
+
+    /**************************************************************************
+     * Rewrites the journal to hold only the unfinished games, so the file
+     * doesn't grow forever. The new file is written to a temporary file and
+     * then moved into place, and records are appended to it from then on.
+     *
+     * Games carry on while it's written. Every game's state is updated
+     * before its record is queued, so a record already in the old file is
+     * in the new one's games. Records queued since the last commit go into
+     * the new file after them, which replays them a second time; each one
+     * holds the whole state it sets, so that changes nothing.
+     * @throws IOException - If the file can't be written
+     *************************************************************************/
+    private void compact () throws IOException {
+        ArrayList<SavedGame> live = new ArrayList<SavedGame>(games.values());
+
+        ByteBuffer buf = ByteBuffer.allocate(live.size() * 2 * RECORD_BYTES);
+        for (SavedGame game : live) {
+            put(buf, STARTED, game.sessionId, game.targetIndex);
+            put(buf, GUESSED, game.sessionId, game.guessCount);
+        }
+        buf.flip();
+        fileBytes = buf.limit();
+
+        Path temp = Paths.get(file + ".tmp");
+
+        try (FileChannel fc = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buf.hasRemaining()) fc.write(buf);
+            fc.force(true);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+
+        FileChannel old = channel;
+        channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+        if (old != null) old.close();
+    }
+
+
+    /**************************************************************************
+     * Writes a single record into a buffer.
+     * @param buf - The buffer to write into
+     * @param type - The type of the record
+     * @param id - The session id
+     * @param value - The record's value
+     *************************************************************************/
+    private static void put (ByteBuffer buf, byte type, long id, int value) {
+        buf.put(type);
+        buf.putLong(id);
+        buf.putInt(value);
+    }
+
+
+    /**************************************************************************
+     * @return - A new random session id, which is never 0
+     *************************************************************************/
+    public long newSessionId () {
+        long id;
+        do {
+            id = random.nextLong();
+        } while (id == 0);
+
+        return id;
+    }
+
+
+    /**************************************************************************
+     * Records a game starting.
+     * @param id - The session id
+     * @param targetIndex - The index of the target word
+     *************************************************************************/
+    public void started (long id, int targetIndex) {
+        games.put(id, new SavedGame(id, targetIndex, 0));
+        append(STARTED, id, targetIndex);
+    }
+
+
+    /**************************************************************************
+     * Records a valid guess.
+     * @param id - The session id
+     * @param guessCount - The number of guesses made so far
+     *************************************************************************/
+    public void guessed (long id, int guessCount) {
+        SavedGame game = games.get(id);
+        if (game != null) {
+            games.put(id, new SavedGame(id, game.targetIndex, guessCount));
+        }
+        append(GUESSED, id, guessCount);
+    }
+
+
+    /**************************************************************************
+     * Records a game being won, after which it can't be resumed.
+     * @param id - The session id
+     * @param guessCount - The number of guesses it took
+     *************************************************************************/
+    public void won (long id, int guessCount) {
+        games.remove(id);
+        append(WON, id, guessCount);
+    }
+
+
+    /**************************************************************************
+     * Queues a record for the next group commit. This never waits on the
+     * disk, only on other games queueing records at the same time.
+     * @param type - The type of the record
+     * @param id - The session id
+     * @param value - The record's value
+     *************************************************************************/
+    private void append (byte type, long id, int value) {
+        if (file == null) return;
+
+        synchronized (this) {
+            if (pending.remaining() < RECORD_BYTES) {
+                ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                bigger.put(pending);
+                pending = bigger;
+            }
+            put(pending, type, id, value);
+        }
+    }
+
+
+    /**************************************************************************
+     * Keeps an unfinished game whose client has gone so it can be resumed,
+     * unless too many are already waiting. Games that have waited too long
+     * are swept out at most once a second by whoever suspends a game next.
+     * @param game - The state of the game
+     *************************************************************************/
+    public void suspend (SavedGame game) {
+        sweep();
+
+        if (suspended.size() >= maxSuspended) {
+            expire(game.sessionId);
+            return;
+        }
+
+        games.put(game.sessionId, game);
+        suspended.put(game.sessionId, game);
+    }
+
+
+    /**************************************************************************
+     * Takes an unfinished game to carry on with it. Each game can only be
+     * resumed by one client at a time.
+     * @param id - The session id
+     * @return - The state of the game, or null if there's no such game or
+     *           it waited too long
+     *************************************************************************/
+    public SavedGame resume (long id) {
+        SavedGame game = suspended.remove(id);
+        if (game == null) return null;
+
+        if (System.nanoTime() - game.savedAt > ttlNanos) {
+            expire(id);
+            return null;
+        }
+
+        return game;
+    }
+
+
+    /**************************************************************************
+     * Forgets an unfinished game for good, so it isn't recovered after a
+     * restart either.
+     * @param id - The session id
+     *************************************************************************/
+    public void expire (long id) {
+        games.remove(id);
+        append(EXPIRED, id, 0);
+    }
+
+
+    /**************************************************************************
+     * Forgets every suspended game that has waited longer than the TTL, if
+     * nobody has in the last second. Each is recorded as expired, so it
+     * isn't recovered after a restart either.
+     *************************************************************************/
+    private void sweep () {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+
+        for (SavedGame game : suspended.values()) {
+            if (now - game.savedAt > ttlNanos
+                && suspended.remove(game.sessionId, game))
+            {
+                expire(game.sessionId);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * @return - The number of unfinished games waiting to be resumed
+     *************************************************************************/
+    public int getSuspendedCount () {
+        return suspended.size();
+    }
+
+
+    /**************************************************************************
+     * The committer's main loop. Commits whatever has been queued once per
+     * interval, and compacts the file once it's mostly records of games
+     * that have finished.
+     *************************************************************************/
+    @Override
+    public void run () {
+        while (true) {
+            long next = System.nanoTime() + intervalNanos;
+            commit();
+
+            long live = (long) games.size() * 2 * RECORD_BYTES;
+            if (fileBytes > Math.max(COMPACT_MIN_BYTES, live * 2)) {
+                synchronized (commitLock) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        Utils.error("Unable to compact the game journal", e);
+                    }
+                }
+            }
+
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Writes every queued record with a single write, then forces it to
+     * disk. The queue is swapped out first, so games can keep queueing
+     * records while the disk is busy. Only the committer and the shutdown
+     * hook commit, one at a time.
+     *************************************************************************/
+    private void commit () {
+        synchronized (commitLock) {
+            ByteBuffer batch;
+
+            synchronized (this) {
+                batch = pending;
+                pending = writing;
+                writing = batch;
+            }
+
+            batch.flip();
+
+            try {
+                if (batch.hasRemaining()) {
+                    fileBytes += batch.remaining();
+                    while (batch.hasRemaining()) channel.write(batch);
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                Utils.error("Unable to write the game journal", e);
+            }
+
+            batch.clear();
+        }
+    }
+}
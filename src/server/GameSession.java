@@ -0,0 +1,1125 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import src.shared.BinaryProtocol;
+import src.shared.FeedbackMatrix;
+import src.shared.HardMode;
+import src.shared.HintEngine;
+import src.shared.MessageCodec;
+import src.shared.ProtocolHandler;
+import src.shared.ProtocolHandler.ControlMessage;
+import src.shared.Utils;
+import src.shared.WordDictionary;
+import src.shared.WordList;
+
+public class GameSession {
+
+    /**************************************************************************
+     * The connection a game session talks to. Lets the same game logic be
+     * driven by both the blocking and the non-blocking server engines.
+     *
+     * A session that can't handle a message until some slow work is done
+     * elsewhere calls pauseUntil. The connection reads nothing more until the
+     * work completes, then hands the same message to the session again.
+     *
+     * Race room events are offered from any thread along with the room's
+     * writer, which a connection that can only write by blocking sends
+     * them from.
+     *************************************************************************/
+    public interface Connection {
+        void writeMessage (String message);
+        void writeMessage (byte[] b, int off, int len);
+        void closeClient ();
+        void setFrameLength (int length);
+        void timedOut (byte[] message);
+        boolean offer (ByteBuffer event, Executor writer);
+        void pauseUntil (CompletableFuture<?> work);
+    }
+
+    // A stateless guess is the word, a space, and the game's token
+    private static final int STATELESS_BYTES = WordDictionary.WORD_LENGTH
+                                    + 1 + ProtocolHandler.TOKEN_CHARS + 1;
+
+    // The binary reply sent to a client that has timed out
+    private static final byte[] BINARY_TIMED_OUT =
+                            new byte[BinaryProtocol.REPLY_BYTES];
+    static {
+        BinaryProtocol.writeReply(BinaryProtocol.TIMED_OUT, 0,
+                                  BINARY_TIMED_OUT, 0);
+    }
+
+    private Connection client;          // The connection to the client
+    private String cAddress;            // The clients IP address for logging
+    private int targetIndex;            // The target word's list index
+    private int targetPacked;           // The target word, packed
+    private volatile boolean started;   // If START GAME has been received
+    private volatile boolean gameActive; // The active state of the game
+    private boolean binary;             // If the binary protocol is in use
+    private boolean stateless;          // If the client holds the state
+    private boolean hard;               // If every guess must use the hints
+    private HardMode hardMode;          // The hints so far, in hard mode
+    private boolean won;                // If the target has been guessed
+    private long sessionId;             // Id to resume the game, or 0
+    private GameJournal journal;        // Where resumable games are kept
+    private int guessCount;             // The clients number fo guesses
+    private int gamesWon;               // Games won on this connection
+    private boolean keepAlive;          // Keep the connection after a win
+    private WordDictionary dictionary;  // The shared guess and target lists
+    private DictionaryRegistry dictionaries; // Lists chosen at START GAME
+    private WordList words;             // A chosen list, or null for the usual
+    private CompletableFuture<WordList> wordsLoading; // Waited on, or null
+    private long wordsTarget;           // The target, packed by the list
+    private byte[] wordsHint;           // Reused buffer for its hints
+    private FeedbackMatrix matrix;      // Precomputed hints, or null
+    private ServerMetrics metrics;      // Counters and latencies
+    private byte[] hint;                // Reused buffer for encoded hints
+    private byte[] reply;               // Reused buffer for binary replies
+    private GameTokens tokens;          // Stateless games, or null if off
+    private GameTokens.Sealer sealer;   // Seals this client's tokens
+    private byte[] tokenReply;          // Reused buffer for sealed hints
+    private ConcurrentHashMap<String, RaceRoom> rooms; // Open race rooms
+    private RaceRoom room;              // The race joined, or null
+    private int player;                 // Number in the race, 0 if watching
+    private boolean watching;           // If only watching the race
+    private GameEvents events;          // Live events, or null if off
+    private long gameId;                // The game's id in the events, or 0
+    private boolean playing;            // If a game is under way
+    private PlayerStats stats;          // Where finished games are counted
+    private String playerName;          // The named player, or null
+    private boolean opened;             // If set up as a game, not a PING
+
+    // Timeouts are checked on the timer wheel's thread
+    private GameTimeouts timeouts;      // The limits, or null for none
+    private volatile TimerWheel.Timeout timeout; // The pending timeout
+    private volatile long openedAt;     // When the game began waiting
+    private volatile long lastActivity; // When the client last sent anything
+
+    /**************************************************************************
+     * Constructor for the GameSession class.
+     * @param client - The connection the game has been created for
+     * @param cAddress - The clients address for logging
+     * @param context - The state shared by every game
+     *************************************************************************/
+    public GameSession (Connection client, String cAddress,
+                        GameContext context)
+    {
+        this.client = client;
+        this.cAddress = cAddress;
+        this.dictionary = context.getDictionary();
+        this.dictionaries = context.getDictionaries();
+        this.matrix = context.getFeedbackMatrix();
+        this.metrics = context.getMetrics();
+        this.journal = context.getJournal();
+        this.keepAlive = context.isKeepAlive();
+        this.tokens = context.getTokens();
+        this.rooms = context.getRooms();
+        this.events = context.getEvents();
+        this.stats = context.getStats();
+        this.hint = new byte[WordDictionary.WORD_LENGTH + 1];
+        this.hint[WordDictionary.WORD_LENGTH] = MessageCodec.LINE_FEED;
+        this.reply = new byte[BinaryProtocol.REPLY_BYTES];
+
+        // The client has until the handshake timeout to start the game
+        this.timeouts = context.getTimeouts();
+        this.openedAt = System.nanoTime();
+        this.lastActivity = openedAt;
+        if (timeouts != null) refreshTimeout();
+    }
+
+
+    /**************************************************************************
+     * Sets the connection up as a game once its first message shows it
+     * isn't a health check, so a PING costs no target, log line or count in
+     * the active games.
+     *************************************************************************/
+    private void open () {
+        this.opened = true;
+        metrics.gameOpened();
+        chooseTarget();
+
+        // Skip building the message, and unpacking the target word, when
+        // per-game logging is turned off
+        if (Utils.isEnabled(Utils.Level.INFO)) {
+            Utils.info("Client " + cAddress + " connected. Target word is "
+                        + WordDictionary.unpack(targetPacked));
+        }
+    }
+
+
+    /**************************************************************************
+     * Picks a new target word and resets the guess count, for a new game.
+     *************************************************************************/
+    private void chooseTarget () {
+        this.targetIndex = dictionary.randomTargetIndex();
+        this.targetPacked = dictionary.targetPacked(targetIndex);
+        this.guessCount = 0;
+    }
+
+
+    /**************************************************************************
+     * Handles a single message from the client. The first message must be
+     * START GAME, and every message after that is treated as a guess. If the
+     * client starts with START GAME BINARY instead, every guess after that is
+     * a binary frame, see BinaryProtocol. Either can have HARD on the end to
+     * play in hard mode. The message is read in place, so the array can be
+     * reused afterwards.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     *************************************************************************/
+    public void handleMessage (byte[] b, int off, int len) {
+        if (!opened) {
+            if (MessageCodec.matches(b, off, len, MessageCodec.PING)) {
+                // A health check, from a router or monitor, rather than a game
+                client.writeMessage(MessageCodec.PONG, 0,
+                                    MessageCodec.PONG.length);
+                endGame();
+                return;
+            }
+            open();
+        }
+
+        if (!started) {
+            startGame(b, off, len);
+            if (started && gameActive && !watching) announce();
+        } else if (watching) {
+            // Spectators only listen
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info("Dropping spectator " + cAddress
+                            + " for sending a message");
+            }
+            metrics.protocolDrop();
+            endGame();
+        } else if (words != null) {
+            checkWordListGuess(b, off, len);
+        } else if (stateless) {
+            checkStatelessGuess(b, off, len);
+        } else if (binary) {
+            checkBinaryGuess(b, off, len);
+        } else {
+            checkGuess(b, off, len);
+        }
+
+        if (timeouts != null && isActive() && !watching) refreshTimeout();
+    }
+
+
+    /**************************************************************************
+     * Handles the first message from the client, which starts a new game or
+     * resumes an unfinished one. Anything else drops the client.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     *************************************************************************/
+    private void startGame (byte[] b, int off, int len) {
+        // Check that we're sent a START GAME message from the client
+        if (ProtocolHandler.isValidControlMessage(b, off, len,
+            ControlMessage.CLIENT_START_GAME))
+        {
+            this.started = true;
+            this.gameActive = true;
+        } else if (MessageCodec.matches(b, off, len, MessageCodec.START_HARD)) {
+            this.started = true;
+            this.gameActive = true;
+            startHardMode();
+        } else if (MessageCodec.matches(b, off, len,
+                                        BinaryProtocol.START_GAME_BYTES))
+        {
+            startBinary();
+            return;
+        } else if (MessageCodec.matches(b, off, len,
+                                        BinaryProtocol.START_HARD_GAME_BYTES))
+        {
+            startHardMode();
+            startBinary();
+            return;
+        } else if (MessageCodec.matches(b, off, len,
+                                        MessageCodec.START_SESSION))
+        {
+            // Give the client an id it can resume the game with later
+            this.started = true;
+            this.gameActive = true;
+            this.sessionId = journal.newSessionId();
+            journal.started(sessionId, targetIndex);
+            client.writeMessage(ProtocolHandler.SESSION
+                                + Long.toHexString(sessionId));
+        } else if (tokens != null
+                   && MessageCodec.matches(b, off, len,
+                                           MessageCodec.START_STATELESS))
+        {
+            // From here on the game's state only lives in the client's token
+            startStateless();
+            System.arraycopy(MessageCodec.START_RESPONSE, 0, tokenReply, 0,
+                             WordDictionary.WORD_LENGTH);
+            sendToken();
+            return;
+        } else if (tokens != null && len == STATELESS_BYTES) {
+            // A stateless game carried on from another connection or server
+            startStateless();
+            announce();
+            checkStatelessGuess(b, off, len);
+            return;
+        } else if (MessageCodec.startsWith(b, off, len,
+                                           MessageCodec.START_GAME_WITH))
+        {
+            // A game from another word list, by length, language or both
+            if (!chooseWordList(b, off, len)) {
+                client.writeMessage(MessageCodec.UNKNOWN_DICTIONARY, 0,
+                                    MessageCodec.UNKNOWN_DICTIONARY.length);
+                endGame();
+                return;
+            }
+
+            // The list is being loaded, and this message comes back once
+            // it has been
+            if (wordsLoading != null) {
+                client.pauseUntil(wordsLoading);
+                return;
+            }
+
+            this.started = true;
+            this.gameActive = true;
+            if (words != null) {
+                for (int i = 0; i < words.length(); i++) wordsHint[i] = '_';
+                client.writeMessage(wordsHint, 0, wordsHint.length);
+                return;
+            }
+        } else if (MessageCodec.startsWith(b, off, len, MessageCodec.PLAYER)) {
+            // Every game after this is counted for the player
+            String name = afterPrefix(b, off, len, MessageCodec.PLAYER);
+            if (!PlayerStats.isValidName(name)) {
+                if (Utils.isEnabled(Utils.Level.INFO)) {
+                    Utils.info("Dropping client " + cAddress
+                                + " due to a bad player name");
+                }
+                metrics.protocolDrop();
+                endGame();
+            } else {
+                this.playerName = name;
+            }
+            return;
+        } else if (MessageCodec.startsWith(b, off, len, MessageCodec.STATS)) {
+            String reply = stats.describe(
+                            afterPrefix(b, off, len, MessageCodec.STATS));
+            if (reply != null) {
+                client.writeMessage(reply);
+            } else {
+                client.writeMessage(MessageCodec.UNKNOWN_PLAYER, 0,
+                                    MessageCodec.UNKNOWN_PLAYER.length);
+            }
+            return;
+        } else if (MessageCodec.matches(b, off, len,
+                                        MessageCodec.LEADERBOARD))
+        {
+            byte[] board = stats.leaderboard();
+            client.writeMessage(board, 0, board.length);
+            return;
+        } else if (MessageCodec.startsWith(b, off, len, MessageCodec.JOIN_ROOM)
+                   || MessageCodec.startsWith(b, off, len,
+                                              MessageCodec.WATCH_ROOM))
+        {
+            if (!joinRoom(b, off, len)) {
+                if (Utils.isEnabled(Utils.Level.INFO)) {
+                    Utils.info("Dropping client " + cAddress
+                                + " due to a bad room name");
+                }
+                metrics.protocolDrop();
+                endGame();
+                return;
+            }
+
+            if (watching) {
+                client.writeMessage(MessageCodec.WATCHING, 0,
+                                    MessageCodec.WATCHING.length);
+                return;
+            }
+
+            client.writeMessage(ProtocolHandler.JOINED + player);
+        } else if (MessageCodec.startsWith(b, off, len, MessageCodec.RESUME)) {
+            if (!resume(b, off, len)) {
+                client.writeMessage(ProtocolHandler.UNKNOWN_SESSION);
+                endGame();
+                return;
+            }
+        } else {
+            // If we don't get a valid START GAME message, close the client
+            // and exit this wordle game.
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info("Dropping client " + cAddress
+                            + "due to bad START GAME message");
+            }
+            metrics.protocolDrop();
+            endGame();
+            return;
+        }
+
+        // Send the first hint
+        client.writeMessage(ProtocolHandler.START_RESPONSE);
+    }
+
+
+    /**************************************************************************
+     * Switches to binary frames for the rest of the game, and starts it.
+     *************************************************************************/
+    private void startBinary () {
+        this.binary = true;
+        this.started = true;
+        this.gameActive = true;
+        client.setFrameLength(BinaryProtocol.GUESS_BYTES);
+        sendReply(BinaryProtocol.START, 0);
+    }
+
+
+    /**************************************************************************
+     * Turns on hard mode for this game, with no hints yet. The constraints
+     * are kept for the next game on the connection, since they're reset
+     * rather than rebuilt.
+     *************************************************************************/
+    private void startHardMode () {
+        if (hardMode == null) hardMode = new HardMode();
+
+        hardMode.reset(targetPacked);
+        this.hard = true;
+    }
+
+
+    /**************************************************************************
+     * Picks the word list a client asked for at START GAME, and a target
+     * from it. The usual five letter lists are left to the normal path, so
+     * asking for them by name costs nothing. A list that isn't loaded is
+     * loaded elsewhere, leaving wordsLoading set until the message is
+     * handled again once it's done.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     * @return - True if the server has the list, otherwise false
+     *************************************************************************/
+    private boolean chooseWordList (byte[] b, int off, int len) {
+        int prefix = MessageCodec.START_GAME_WITH.length;
+        String[] parts = new String(b, off + prefix, len - prefix - 1,
+                                    StandardCharsets.US_ASCII).split(" ");
+        int length = WordDictionary.WORD_LENGTH;
+        String language = null;
+
+        for (String part : parts) {
+            if (part.isEmpty()) return false;
+
+            if (Character.isDigit(part.charAt(0))) {
+                try {
+                    length = Integer.parseInt(part);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            } else {
+                language = part.toLowerCase();
+            }
+        }
+
+        if (dictionaries.isDefault(language, length)) return true;
+
+        if (wordsLoading == null) {
+            wordsLoading = dictionaries.get(language, length);
+            if (!wordsLoading.isDone()) return true;
+        }
+
+        WordList list = wordsLoading.getNow(null);
+        wordsLoading = null;
+        if (list == null) return false;
+
+        int index = list.randomTargetIndex();
+        this.words = list;
+        this.wordsTarget = list.targetPacked(index);
+        if (wordsHint == null || wordsHint.length != list.length() + 1) {
+            wordsHint = new byte[list.length() + 1];
+            wordsHint[list.length()] = MessageCodec.LINE_FEED;
+        }
+
+        if (Utils.isEnabled(Utils.Level.INFO)) {
+            Utils.info("Client " + cAddress + " chose " + list.getName()
+                        + ". Target word is " + list.unpack(wordsTarget));
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Joins the race room named in a JOIN ROOM or WATCH ROOM message. A
+     * player takes the room's target in place of its own, and a spectator
+     * has no game, so is never timed out for being idle.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     * @return - True if the room was joined, or false if its name is invalid
+     *************************************************************************/
+    private boolean joinRoom (byte[] b, int off, int len) {
+        boolean watch = MessageCodec.startsWith(b, off, len,
+                                                MessageCodec.WATCH_ROOM);
+        int prefix = watch ? MessageCodec.WATCH_ROOM.length
+                           : MessageCodec.JOIN_ROOM.length;
+        String name = new String(b, off + prefix, len - prefix - 1,
+                                 StandardCharsets.US_ASCII);
+        if (!RaceRoom.isValidName(name)) return false;
+
+        this.room = RaceRoom.join(rooms, name, client, !watch, dictionary,
+                                  metrics);
+        this.player = room.numberOf(client);
+        this.watching = watch;
+        this.started = true;
+        this.gameActive = true;
+
+        if (watch) {
+            cancelTimeout();
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info("Client " + cAddress + " is watching room " + name);
+            }
+            return true;
+        }
+
+        this.targetIndex = room.getTargetIndex();
+        this.targetPacked = room.getTargetPacked();
+
+        if (Utils.isEnabled(Utils.Level.INFO)) {
+            Utils.info("Client " + cAddress + " joined room " + name
+                        + " as player " + player + ". Target word is "
+                        + WordDictionary.unpack(targetPacked));
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Reads the text after a message's prefix, leaving off the line feed.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     * @param prefix - The prefix the message starts with
+     * @return - The rest of the message
+     *************************************************************************/
+    private static String afterPrefix (byte[] b, int off, int len,
+                                       byte[] prefix)
+    {
+        return new String(b, off + prefix.length, len - prefix.length - 1,
+                          StandardCharsets.US_ASCII);
+    }
+
+
+    /**************************************************************************
+     * Leaves the race room, if one was joined.
+     *************************************************************************/
+    private void leaveRoom () {
+        if (room == null) return;
+
+        room.leave(client);
+        this.room = null;
+        this.player = 0;
+        this.watching = false;
+    }
+
+
+    /**************************************************************************
+     * Carries on with an unfinished game, given a RESUME message with its
+     * session id. The game's target and guess count replace the ones this
+     * session started with.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     * @return - True if the game was resumed, or false if there's no
+     *           unfinished game with that id
+     *************************************************************************/
+    private boolean resume (byte[] b, int off, int len) {
+        int prefix = MessageCodec.RESUME.length;
+        GameJournal.SavedGame game;
+
+        try {
+            long id = Long.parseUnsignedLong(new String(b, off + prefix,
+                        len - prefix - 1, StandardCharsets.US_ASCII), 16);
+            game = journal.resume(id);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        if (game == null) return false;
+
+        // A game journaled against other word lists can't be carried on
+        if (game.targetIndex < 0
+            || game.targetIndex >= dictionary.targetCount())
+        {
+            journal.expire(game.sessionId);
+            return false;
+        }
+
+        this.started = true;
+        this.gameActive = true;
+        this.sessionId = game.sessionId;
+        this.targetIndex = game.targetIndex;
+        this.targetPacked = dictionary.targetPacked(targetIndex);
+        this.guessCount = game.guessCount;
+
+        if (Utils.isEnabled(Utils.Level.INFO)) {
+            Utils.info("Client " + cAddress + " resumed a game after "
+                        + guessCount + " guesses. Target word is "
+                        + WordDictionary.unpack(targetPacked));
+        }
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Called by the connection once the client has gone, for whatever
+     * reason. A resumable game that wasn't won is kept so the client can
+     * carry on with it later. Safe to call more than once.
+     *************************************************************************/
+    public void disconnected () {
+        cancelTimeout();
+        leaveRoom();
+
+        if (playing) {
+            // Only a game the player really gave up on counts against them,
+            // not one they never guessed in or can still carry on with
+            boolean resumable = stateless || (sessionId != 0 && !won);
+            if (playerName != null && guessCount > 0 && !resumable) {
+                stats.lost(playerName);
+            }
+            publish(GameEvents.DROPPED, guessCount);
+            playing = false;
+            gameId = 0;
+        }
+
+        if (sessionId != 0 && !won) {
+            journal.suspend(new GameJournal.SavedGame(sessionId, targetIndex,
+                                                      guessCount));
+        }
+
+        sessionId = 0;
+
+        if (opened) {
+            opened = false;
+            metrics.gameClosed();
+        }
+    }
+
+
+    /**************************************************************************
+     * @return - True until the game has finished or the client was dropped
+     *************************************************************************/
+    public boolean isActive () {
+        return !started || gameActive;
+    }
+
+
+    /**************************************************************************
+     * @return - True if the client has won a game on this connection and
+     *           hasn't started another, or is only watching a race, so it
+     *           can hang up without being counted as dropped
+     *************************************************************************/
+    public boolean isBetweenGames () {
+        return (!started && gamesWon > 0) || watching;
+    }
+
+
+    /**************************************************************************
+     * Finishes a game the client has won. With keep-alive the connection is
+     * kept, and the client can send START GAME again to play a new game with
+     * the same session. Otherwise the client is closed.
+     *************************************************************************/
+    private void gameOver () {
+        gamesWon++;
+        if (playerName != null) stats.won(playerName, guessCount);
+        publish(GameEvents.WON, guessCount);
+        playing = false;
+        gameId = 0;
+
+        if (!keepAlive) {
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info(
+                    this.cAddress + " correctly guessed the target word "
+                    + "after " + this.guessCount + " guesses. \n\t"
+                    + "Disconnecting client."
+                );
+            }
+            endGame();
+            return;
+        }
+
+        if (Utils.isEnabled(Utils.Level.INFO)) {
+            Utils.info(
+                this.cAddress + " correctly guessed the target word after "
+                + this.guessCount + " guesses. \n\tWaiting for another game."
+            );
+        }
+
+        // Go back to waiting for a START GAME message, as text
+        if (binary) client.setFrameLength(0);
+        this.binary = false;
+        this.stateless = false;
+        this.hard = false;
+        this.words = null;
+        leaveRoom();
+        this.won = false;
+        this.sessionId = 0;
+        this.gameActive = false;
+        this.started = false;
+        this.openedAt = System.nanoTime();
+        chooseTarget();
+    }
+
+
+    /**************************************************************************
+     * Marks a game as under way, so it's counted however it ends. If anyone
+     * can subscribe to the events, it's given an id and its start is
+     * published.
+     *************************************************************************/
+    private void announce () {
+        if (playing) return;
+
+        playing = true;
+        if (events == null) return;
+
+        gameId = events.nextGameId();
+        publish(GameEvents.STARTED, (words == null) ? WordDictionary.WORD_LENGTH
+                                                    : words.length());
+    }
+
+
+    /**************************************************************************
+     * Publishes one of this game's events, if anyone can subscribe to them.
+     * @param kind - The kind of event, see GameEvents
+     * @param value - The event's value
+     *************************************************************************/
+    private void publish (int kind, int value) {
+        if (events != null && gameId != 0) {
+            events.publish(gameId, kind, value);
+        }
+    }
+
+
+    /**************************************************************************
+     * Marks the game as finished and closes the client.
+     *************************************************************************/
+    public void endGame () {
+        this.started = true;
+        this.gameActive = false;
+        cancelTimeout();
+        client.closeClient();
+    }
+
+
+    /**************************************************************************
+     * Moves the game's timeout on after the client has sent something. The
+     * timeout is only rescheduled, not replaced, so a busy game costs the
+     * timer wheel nothing until its deadline comes round.
+     *************************************************************************/
+    private void refreshTimeout () {
+        long now = System.nanoTime();
+        lastActivity = now;
+
+        long deadline = timeouts.deadline(started, openedAt, now);
+        if (deadline == Long.MAX_VALUE) {
+            cancelTimeout();
+        } else if (timeout == null) {
+            timeout = timeouts.getWheel().schedule(this::onTimeout,
+                                                   deadline - now);
+        } else {
+            timeout.reschedule(deadline - now);
+        }
+    }
+
+
+    /**************************************************************************
+     * Stops the game's timeout from firing.
+     *************************************************************************/
+    private void cancelTimeout () {
+        TimerWheel.Timeout t = timeout;
+
+        if (t != null) {
+            t.cancel();
+            timeout = null;
+        }
+    }
+
+
+    /**************************************************************************
+     * Called on the timer wheel's thread when the game's timeout fires. If
+     * the client has been heard from since, the timeout is pushed back.
+     * Otherwise the timeout is counted and the client is told and closed by
+     * its connection, on the connection's own thread.
+     *************************************************************************/
+    private void onTimeout () {
+        TimerWheel.Timeout t = timeout;
+        if (t == null || !isActive()) return;
+
+        long now = System.nanoTime();
+        long deadline = timeouts.deadline(started, openedAt, lastActivity);
+        if (deadline == Long.MAX_VALUE) return;
+
+        if (deadline - now > 0) {
+            t.reschedule(deadline - now);
+            return;
+        }
+
+        GameTimeouts.Kind kind = timeouts.kind(started, openedAt, now);
+        metrics.timedOut(kind);
+        if (Utils.isEnabled(Utils.Level.INFO)) {
+            Utils.info("Client " + cAddress + " timed out ("
+                        + kind.name().toLowerCase() + ")");
+        }
+
+        client.timedOut(binary ? BINARY_TIMED_OUT : MessageCodec.TIMED_OUT);
+    }
+
+
+    /**************************************************************************
+     * @return - The clients address for logging
+     *************************************************************************/
+    public String getAddress () {
+        return cAddress;
+    }
+
+
+    /**************************************************************************
+     * Generates a new hint for a given guess, encoding it straight into the
+     * session's hint buffer along with its line feed. The hint is looked up
+     * in the feedback matrix when the server has one, and computed
+     * otherwise.
+     * @param guess - The packed guess to generate a hint for
+     * @param guessIndex - The index of the guess in the guess list
+     * @return - The encoded hint score, see HintEngine
+     *************************************************************************/
+    private int generateHint (int guess, int guessIndex) {
+        int code = scoreGuess(guess, guessIndex);
+        HintEngine.render(guess, code, hint, 0);
+        return code;
+    }
+
+
+    /**************************************************************************
+     * Works out the encoded hint for a guess, without rendering it. The time
+     * taken is recorded in the server's metrics.
+     * @param guess - The packed guess to score
+     * @param guessIndex - The index of the guess in the guess list
+     * @return - The encoded hint score, see HintEngine
+     *************************************************************************/
+    private int scoreGuess (int guess, int guessIndex) {
+        long start = System.nanoTime();
+        int code = (matrix != null)
+                 ? matrix.hint(targetIndex, guessIndex)
+                 : HintEngine.score(guess, targetPacked);
+
+        metrics.getHintLatency().record(System.nanoTime() - start);
+        return code;
+    }
+
+
+    /**************************************************************************
+     * The main function for managing the game and guesses made by the client.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     *************************************************************************/
+    private void checkGuess (byte[] b, int off, int len) {
+        // Check that the message the client sent adheres to the protocol. If
+        // not, drop the client.
+        if (!ProtocolHandler.isValidProtocolMessage(b, off, len)) {
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info(
+                    "Dropping Client "
+                    + cAddress +
+                    " due to sending a message that wasn't protocol compliant."
+                );
+            }
+            metrics.protocolDrop();
+            endGame();
+            return;
+        }
+
+        // Once we know we've got a valid protocol message, pack the guess
+        // straight from the bytes, leaving off the line feed. Packing
+        // ignores case, and anything that isn't five letters can't be packed.
+        int guess = WordDictionary.pack(b, off, len - 1);
+        int guessIndex = dictionary.guessIndex(guess);
+
+        // Check that the client made a valid guess
+        if (guessIndex < 0) {
+            metrics.invalidGuess();
+            publish(GameEvents.INVALID, guessCount);
+            client.writeMessage(MessageCodec.INVALID_GUESS, 0,
+                                MessageCodec.INVALID_GUESS.length);
+            return;
+        }
+
+        // In hard mode, check the guess uses every hint so far
+        if (hard && !hardMode.allows(guess)) {
+            metrics.hintNotUsed();
+            client.writeMessage(MessageCodec.HINT_NOT_USED, 0,
+                                MessageCodec.HINT_NOT_USED.length);
+            return;
+        }
+
+        // A valid guess has been made, increment the guess count.
+        this.guessCount++;
+        publish(GameEvents.GUESS, guessCount);
+        journalGuess(guess);
+
+        // Check if the user got the correct word
+        if (guess == this.targetPacked) {
+            client.writeMessage(Integer.toString(this.guessCount));
+            client.writeMessage(ProtocolHandler.END_GAME);
+            metrics.gameWon(this.guessCount);
+            if (room != null) room.won(player, guessCount);
+            gameOver();
+            return;
+        }
+
+        int code = generateHint(guess, guessIndex);
+        if (hard) hardMode.update(guess, code);
+        client.writeMessage(hint, 0, hint.length);
+        publish(GameEvents.HINT, code);
+        if (room != null) room.progress(client, player, guessCount, code);
+    }
+
+
+    /**************************************************************************
+     * The binary protocol's version of checkGuess. The guess arrives already
+     * packed, and the hint is sent back as its encoded score without being
+     * rendered.
+     * @param b - The array containing the frame sent by the client
+     * @param off - The index of the first byte of the frame
+     * @param len - The length of the frame
+     *************************************************************************/
+    private void checkBinaryGuess (byte[] b, int off, int len) {
+        int guess = BinaryProtocol.readGuess(b, off);
+
+        if (len != BinaryProtocol.GUESS_BYTES
+            || !BinaryProtocol.isWellFormed(guess))
+        {
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info(
+                    "Dropping Client "
+                    + cAddress +
+                    " due to sending a message that wasn't protocol compliant."
+                );
+            }
+            metrics.protocolDrop();
+            endGame();
+            return;
+        }
+
+        int guessIndex = dictionary.guessIndex(guess);
+
+        if (guessIndex < 0) {
+            metrics.invalidGuess();
+            publish(GameEvents.INVALID, guessCount);
+            sendReply(BinaryProtocol.INVALID_GUESS, 0);
+            return;
+        }
+
+        if (hard && !hardMode.allows(guess)) {
+            metrics.hintNotUsed();
+            sendReply(BinaryProtocol.HINT_NOT_USED, 0);
+            return;
+        }
+
+        this.guessCount++;
+        publish(GameEvents.GUESS, guessCount);
+        journalGuess(guess);
+
+        if (guess == this.targetPacked) {
+            sendReply(BinaryProtocol.WIN, this.guessCount);
+            sendReply(BinaryProtocol.GAME_OVER, 0);
+            metrics.gameWon(this.guessCount);
+            gameOver();
+            return;
+        }
+
+        int code = scoreGuess(guess, guessIndex);
+        if (hard) hardMode.update(guess, code);
+        sendReply(BinaryProtocol.HINT, code);
+        publish(GameEvents.HINT, code);
+    }
+
+
+    /**************************************************************************
+     * The version of checkGuess for games from a chosen word list. The same
+     * as the usual one, but with words packed into longs and hints scored
+     * for their length.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     *************************************************************************/
+    private void checkWordListGuess (byte[] b, int off, int len) {
+        if (!ProtocolHandler.isValidProtocolMessage(b, off, len)) {
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info(
+                    "Dropping Client "
+                    + cAddress +
+                    " due to sending a message that wasn't protocol compliant."
+                );
+            }
+            metrics.protocolDrop();
+            endGame();
+            return;
+        }
+
+        long guess = words.pack(b, off, len - 1);
+
+        if (!words.isValidGuess(guess)) {
+            metrics.invalidGuess();
+            publish(GameEvents.INVALID, guessCount);
+            client.writeMessage(MessageCodec.INVALID_GUESS, 0,
+                                MessageCodec.INVALID_GUESS.length);
+            return;
+        }
+
+        this.guessCount++;
+        publish(GameEvents.GUESS, guessCount);
+
+        if (guess == this.wordsTarget) {
+            client.writeMessage(Integer.toString(this.guessCount));
+            client.writeMessage(ProtocolHandler.END_GAME);
+            metrics.gameWon(this.guessCount);
+            gameOver();
+            return;
+        }
+
+        long start = System.nanoTime();
+        int code = HintEngine.score(guess, wordsTarget, words.length());
+        metrics.getHintLatency().record(System.nanoTime() - start);
+
+        HintEngine.render(guess, code, words.length(), wordsHint, 0);
+        client.writeMessage(wordsHint, 0, wordsHint.length);
+        publish(GameEvents.HINT, code);
+    }
+
+
+    /**************************************************************************
+     * Starts a game in stateless mode, setting up the sealer the first time
+     * this connection needs one.
+     *************************************************************************/
+    private void startStateless () {
+        this.stateless = true;
+        this.started = true;
+        this.gameActive = true;
+
+        if (sealer == null) {
+            sealer = tokens.newSealer();
+            tokenReply = new byte[STATELESS_BYTES];
+            tokenReply[WordDictionary.WORD_LENGTH] = ' ';
+            tokenReply[STATELESS_BYTES - 1] = MessageCodec.LINE_FEED;
+        }
+    }
+
+
+    /**************************************************************************
+     * The stateless version of checkGuess. The target and guess count are
+     * taken from the token sent with the guess, and the hint goes back with
+     * a new token for the next guess. Nothing about the game is needed from
+     * earlier messages, so any server with the same key can take any guess.
+     * An invalid guess gets no token, and the client keeps using its last
+     * one.
+     * @param b - The array containing the message sent by the client
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including the line feed
+     *************************************************************************/
+    private void checkStatelessGuess (byte[] b, int off, int len) {
+        int word = WordDictionary.WORD_LENGTH;
+        long state = -1;
+
+        if (len == STATELESS_BYTES && b[off + word] == ' '
+            && ProtocolHandler.isValidProtocolMessage(b, off, len))
+        {
+            state = sealer.open(b, off + word + 1);
+        }
+
+        int index = (int) (state >>> 32);
+        if (state < 0 || index < 0 || index >= dictionary.targetCount()) {
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info("Dropping Client " + cAddress
+                            + " due to sending an invalid game token.");
+            }
+            metrics.protocolDrop();
+            client.writeMessage(MessageCodec.INVALID_TOKEN, 0,
+                                MessageCodec.INVALID_TOKEN.length);
+            endGame();
+            return;
+        }
+
+        // The token is the only record of the game
+        this.targetIndex = index;
+        this.targetPacked = dictionary.targetPacked(index);
+        this.guessCount = (int) state;
+
+        int guess = WordDictionary.pack(b, off, word);
+        int guessIndex = dictionary.guessIndex(guess);
+
+        if (guessIndex < 0) {
+            metrics.invalidGuess();
+            publish(GameEvents.INVALID, guessCount);
+            client.writeMessage(MessageCodec.INVALID_GUESS, 0,
+                                MessageCodec.INVALID_GUESS.length);
+            return;
+        }
+
+        this.guessCount++;
+        publish(GameEvents.GUESS, guessCount);
+
+        if (guess == this.targetPacked) {
+            client.writeMessage(Integer.toString(this.guessCount));
+            client.writeMessage(ProtocolHandler.END_GAME);
+            metrics.gameWon(this.guessCount);
+            gameOver();
+            return;
+        }
+
+        int code = scoreGuess(guess, guessIndex);
+        HintEngine.render(guess, code, tokenReply, 0);
+        sendToken();
+        publish(GameEvents.HINT, code);
+    }
+
+
+    /**************************************************************************
+     * Seals the game's state into the reply buffer after the hint already
+     * there, and sends it.
+     *************************************************************************/
+    private void sendToken () {
+        sealer.seal(targetIndex, guessCount, tokenReply,
+                    WordDictionary.WORD_LENGTH + 1);
+        client.writeMessage(tokenReply, 0, tokenReply.length);
+    }
+
+
+    /**************************************************************************
+     * Records a valid guess in the journal if the game can be resumed. The
+     * record is committed in the background, so the reply isn't held up.
+     * @param guess - The packed guess that was made
+     *************************************************************************/
+    private void journalGuess (int guess) {
+        if (guess == this.targetPacked) this.won = true;
+        if (sessionId == 0) return;
+
+        if (won) {
+            journal.won(sessionId, guessCount);
+        } else {
+            journal.guessed(sessionId, guessCount);
+        }
+    }
+
+
+    /**************************************************************************
+     * Sends a binary protocol reply to the client.
+     * @param status - The status of the reply
+     * @param value - The hint or guess count, or 0 if the status has none
+     *************************************************************************/
+    private void sendReply (byte status, int value) {
+        BinaryProtocol.writeReply(status, value, reply, 0);
+        client.writeMessage(reply, 0, reply.length);
+    }
+
+}
@@ -0,0 +1,102 @@
+package src.server;
+
+import java.util.concurrent.TimeUnit;
+
+public class GameTimeouts {
+
+    /**************************************************************************
+     * The kinds of timeout a game can hit.
+     *************************************************************************/
+    public enum Kind {
+        HANDSHAKE,      // No START GAME after connecting
+        IDLE,           // No guess for too long
+        GAME            // The whole game took too long
+    }
+
+    public static final long DEFAULT_HANDSHAKE_MILLIS = 10_000;
+    public static final long DEFAULT_IDLE_MILLIS = 300_000;
+    public static final long DEFAULT_GAME_MILLIS = 1_800_000;
+
+    private TimerWheel wheel;           // Shared by every game
+    private long handshakeNanos;        // Each limit, or 0 for none
+    private long idleNanos;
+    private long gameNanos;
+
+    /**************************************************************************
+     * Constructor for the GameTimeouts class. A limit of 0 turns that
+     * timeout off.
+     * @param wheel - The timer wheel every game's timeout is kept on
+     * @param handshakeMillis - How long a client has to start the game
+     * @param idleMillis - How long a client can go between guesses
+     * @param gameMillis - How long a whole game can last, from connecting or
+     *                     finishing the last game
+     *************************************************************************/
+    public GameTimeouts (TimerWheel wheel, long handshakeMillis,
+                         long idleMillis, long gameMillis)
+    {
+        this.wheel = wheel;
+        this.handshakeNanos = toNanos(handshakeMillis);
+        this.idleNanos = toNanos(idleMillis);
+        this.gameNanos = toNanos(gameMillis);
+    }
+
+
+    /**************************************************************************
+     * @param millis - A limit in milliseconds
+     * @return - The limit in nanoseconds, or 0 if there isn't one
+     *************************************************************************/
+    private static long toNanos (long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+
+    /**************************************************************************
+     * @return - The timer wheel every game's timeout is kept on
+     *************************************************************************/
+    public TimerWheel getWheel () {
+        return wheel;
+    }
+
+
+    /**************************************************************************
+     * Works out when a game next times out.
+     * @param started - If the client has started the game
+     * @param openedAt - When the client connected, or finished its last
+     *                   game, from nanoTime
+     * @param lastActivity - When the client last sent a message
+     * @return - The deadline, or Long.MAX_VALUE if it never times out
+     *************************************************************************/
+    public long deadline (boolean started, long openedAt,
+                          long lastActivity)
+    {
+        long deadline = Long.MAX_VALUE;
+
+        if (!started) {
+            if (handshakeNanos > 0) deadline = openedAt + handshakeNanos;
+            return deadline;
+        }
+
+        if (idleNanos > 0) deadline = lastActivity + idleNanos;
+        if (gameNanos > 0) {
+            deadline = Math.min(deadline, openedAt + gameNanos);
+        }
+
+        return deadline;
+    }
+
+
+    /**************************************************************************
+     * Works out which limit a game has gone over.
+     * @param started - If the client has started the game
+     * @param openedAt - When the client connected, or finished its last
+     *                   game, from nanoTime
+     * @param now - The current time, from nanoTime
+     * @return - The kind of timeout
+     *************************************************************************/
+    public Kind kind (boolean started, long openedAt, long now) {
+        if (!started) return Kind.HANDSHAKE;
+        if (gameNanos > 0 && now - openedAt >= gameNanos) return Kind.GAME;
+
+        return Kind.IDLE;
+    }
+}
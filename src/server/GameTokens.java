@@ -0,0 +1,186 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import src.shared.ProtocolHandler;
+import src.shared.Utils;
+
+/******************************************************************************
+ * Seals the whole state of a game into a token the client carries, so a
+ * server in stateless mode keeps nothing between guesses. A token is a nonce
+ * followed by the target index and guess count, encrypted and authenticated
+ * with AES-GCM, and sent as base64url text. Every server sharing the key can
+ * open every token, so any of them can take any guess, and a restart loses
+ * nothing.
+ *
+ * A token can't be forged or altered, but nothing stops a client from
+ * sending an older token again, which takes its game back to that guess.
+ *****************************************************************************/
+public class GameTokens {
+    public static final int NONCE_BYTES = 12;
+    public static final int STATE_BYTES = 8;       // Target index, guesses
+    public static final int TAG_BYTES = 16;
+
+    // 36 bytes, which is exactly ProtocolHandler.TOKEN_CHARS in base64
+    public static final int RAW_BYTES = NONCE_BYTES + STATE_BYTES + TAG_BYTES;
+    private static final int TOKEN_CHARS = ProtocolHandler.TOKEN_CHARS;
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final byte[] ASSOCIATED_DATA =
+            "networdle-token-v1".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKeySpec key;    // Shared by every server
+    private final int noncePrefix;      // Random, different on each server
+    private final AtomicLong counter;   // Makes every nonce unique
+
+    /**************************************************************************
+     * The per connection half of sealing tokens. A cipher isn't thread safe,
+     * so each game that needs one gets its own, along with the buffers it
+     * reuses for every guess.
+     *************************************************************************/
+    public class Sealer {
+        private final Cipher cipher;
+        private final byte[] raw = new byte[RAW_BYTES];
+        private final byte[] text = new byte[TOKEN_CHARS];
+        private final byte[] state = new byte[STATE_BYTES];
+
+        private Sealer () throws GeneralSecurityException {
+            this.cipher = Cipher.getInstance(CIPHER);
+        }
+
+
+        /**********************************************************************
+         * Seals a game's state into a token.
+         * @param targetIndex - The index of the target word
+         * @param guessCount - The number of guesses made so far
+         * @param out - The array to write the token's text into
+         * @param off - The index to write the token at
+         *********************************************************************/
+        public void seal (int targetIndex, int guessCount, byte[] out,
+                          int off)
+        {
+            ByteBuffer.wrap(raw, 0, NONCE_BYTES)
+                      .putInt(noncePrefix)
+                      .putLong(counter.getAndIncrement());
+            ByteBuffer.wrap(state).putInt(targetIndex).putInt(guessCount);
+
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key,
+                            new GCMParameterSpec(TAG_BYTES * 8, raw, 0,
+                                                 NONCE_BYTES));
+                cipher.updateAAD(ASSOCIATED_DATA);
+                cipher.doFinal(state, 0, STATE_BYTES, raw, NONCE_BYTES);
+            } catch (GeneralSecurityException e) {
+                // Only possible if the JDK can't do AES-GCM at all
+                throw new IllegalStateException("Unable to seal a token", e);
+            }
+
+            Base64.getUrlEncoder().encode(raw, text);
+            System.arraycopy(text, 0, out, off, TOKEN_CHARS);
+        }
+
+
+        /**********************************************************************
+         * Opens a token, checking that it was sealed with the same key and
+         * hasn't been changed.
+         * @param b - The array containing the token's text
+         * @param off - The index of the first character of the token
+         * @return - The target index in the upper 32 bits and the guess count
+         *           in the lower 32, or -1 if the token isn't valid
+         *********************************************************************/
+        public long open (byte[] b, int off) {
+            System.arraycopy(b, off, text, 0, TOKEN_CHARS);
+
+            try {
+                if (Base64.getUrlDecoder().decode(text, raw) != RAW_BYTES) {
+                    return -1;
+                }
+
+                cipher.init(Cipher.DECRYPT_MODE, key,
+                            new GCMParameterSpec(TAG_BYTES * 8, raw, 0,
+                                                 NONCE_BYTES));
+                cipher.updateAAD(ASSOCIATED_DATA);
+                cipher.doFinal(raw, NONCE_BYTES, STATE_BYTES + TAG_BYTES,
+                               state, 0);
+            } catch (IllegalArgumentException | AEADBadTagException e) {
+                return -1;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to open a token", e);
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(state);
+            int targetIndex = buf.getInt();
+            int guessCount = buf.getInt();
+            return ((long) targetIndex << 32) | (guessCount & 0xFFFFFFFFL);
+        }
+    }
+
+    /**************************************************************************
+     * Constructor for the GameTokens class.
+     * @param key - The AES key, of 16, 24 or 32 bytes, shared by every server
+     *              that should accept the same tokens
+     *************************************************************************/
+    public GameTokens (byte[] key) {
+        this.key = new SecretKeySpec(key, "AES");
+
+        SecureRandom random = new SecureRandom();
+        this.noncePrefix = random.nextInt();
+        this.counter = new AtomicLong(random.nextLong());
+    }
+
+
+    /**************************************************************************
+     * Creates the tokens for a server from its key option. With no key, a
+     * random one is made up, so tokens only work on this server until it
+     * restarts.
+     * @param hexKey - The key as hex, or null to make one up
+     * @return - The tokens
+     *************************************************************************/
+    public static GameTokens fromKey (String hexKey) {
+        byte[] key;
+
+        if (hexKey == null) {
+            key = new byte[16];
+            new SecureRandom().nextBytes(key);
+            Utils.info("No --token-key given. Stateless games will only "
+                        + "work on this server until it restarts.");
+        } else {
+            try {
+                key = HexFormat.of().parseHex(hexKey);
+            } catch (IllegalArgumentException e) {
+                key = new byte[0];
+            }
+
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                Utils.errorAndDie("--token-key must be 32, 48 or 64 hex "
+                            + "digits.");
+            }
+        }
+
+        return new GameTokens(key);
+    }
+
+
+    /**************************************************************************
+     * Creates a sealer for a single connection.
+     * @return - A new sealer
+     *************************************************************************/
+    public Sealer newSealer () {
+        try {
+            return new Sealer();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM isn't available", e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package src.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import src.shared.Utils;
+
+public class MetricsEndpoint implements Runnable {
+    private static final int TIMEOUT_MS = 5000;
+
+    private int port;                   // The port to serve metrics on
+    private ServerMetrics metrics;      // The metrics to serve
+    private ServerSocket ss;
+
+    /**************************************************************************
+     * Constructor for the MetricsEndpoint class.
+     * @param port - The port to serve metrics on
+     * @param metrics - The metrics to serve
+     *************************************************************************/
+    public MetricsEndpoint (int port, ServerMetrics metrics) {
+        this.port = port;
+        this.metrics = metrics;
+    }
+
+
+    /**************************************************************************
+     * Starts serving metrics on a background thread. The endpoint only
+     * listens on the loopback address.
+     *************************************************************************/
+    public void start () {
+        try {
+            ss = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            Utils.errorAndDie("Unable to serve metrics on port " + port + ".");
+        }
+
+        Thread thread = new Thread(this, "metrics");
+        thread.setDaemon(true);
+        thread.start();
+
+        System.out.println("Metrics available on port " + port);
+    }
+
+
+    /**************************************************************************
+     * Answers every connection with a plain text scrape of the metrics. Just
+     * enough HTTP is spoken for curl and Prometheus to read it.
+     *************************************************************************/
+    @Override
+    public void run () {
+        while (!ss.isClosed()) {
+            try (Socket client = ss.accept()) {
+                client.setSoTimeout(TIMEOUT_MS);
+                skipRequest(client);
+
+                byte[] body = metrics.scrape()
+                                     .getBytes(StandardCharsets.US_ASCII);
+                String header = "HTTP/1.0 200 OK\r\n"
+                    + "Content-Type: text/plain; version=0.0.4\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n";
+
+                OutputStream out = client.getOutputStream();
+                out.write(header.getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                if (!ss.isClosed()) Utils.error("Error serving metrics", e);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Reads the request up to the blank line that ends its headers. The
+     * request itself is ignored, as every path gets the same metrics.
+     * @param client - The client making the request
+     * @throws IOException - If the request can't be read
+     *************************************************************************/
+    private static void skipRequest (Socket client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                    client.getInputStream(), StandardCharsets.US_ASCII));
+        String line;
+
+        while ((line = in.readLine()) != null && !line.isEmpty()) { }
+    }
+
+
+    /**************************************************************************
+     * Stops serving metrics.
+     *************************************************************************/
+    public void close () {
+        try {
+            if (ss != null) ss.close();
+        } catch (IOException e) {
+            Utils.error("Error closing the metrics endpoint", e);
+        }
+    }
+}
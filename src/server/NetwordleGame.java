@@ -1,146 +1,131 @@
 package src.server;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Random;
-
-import src.shared.ProtocolHandler;
-import src.shared.ProtocolHandler.ControlMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import src.shared.MessageBatch;
+import src.shared.MessageCodec;
 import src.shared.Utils;
 
-public class NetwordleGame extends Thread{
-    private final int MAX_BYTES = 256;
+public class NetwordleGame implements Runnable, GameSession.Connection {
+    private static final int EVENT_CHUNK_BYTES = 4096;
 
     private Socket client;              // The socket connection to the client
     private String cAddress;            // The clients IP address for logging
-    private String targetWord;          // The word for the client to guess
     private boolean gameActive;         // The active state of the game
-    private Integer guessCount;         // The clients number fo guesses
-    private HashSet<String> guessList;  // The list of valid guesses to be made
+    private GameSession session;        // The game logic for this client
+    private MessageCodec codec;         // Splits the input into messages
+    private MessageBatch output;        // Replies waiting to be sent
+    private ServerMetrics metrics;      // Counters and latencies
+    private AdmissionControl admission; // Freed up when the game ends
+    private ReentrantLock writeLock;    // Held while writing to the socket
+    private volatile boolean timedOut;  // If the timer ended the game
+    private volatile byte[] timedOutMessage; // Why, for the game thread
+    private LinkedBlockingQueue<ByteBuffer> events; // Race room events
+    private AtomicBoolean writeQueued;  // If the room's writer will run
+    private byte[] eventChunk;          // Events copied out for one write
+    private CompletableFuture<?> pausedOn; // Work the message waits on
 
     /************************************************************************
      * Constructor for the NetWordleGame class.
      * @param client - The client the game has been created for
+     * @param context - The state shared by every game
      ***********************************************************************/
-    public NetwordleGame (Socket client) {
+    public NetwordleGame (Socket client, GameContext context) {
         this.client = client;
         this.cAddress = client.getLocalSocketAddress().toString();
-        this.targetWord = selectTargetWord();
-        this.guessList = loadGuessList();
-        this.guessCount = 0;
-
-        Utils.info("Client " + cAddress + " connected. Target word is " 
-                    + targetWord);
+        this.gameActive = true;
+        this.codec = new MessageCodec();
+        this.output = new MessageBatch();
+        this.writeLock = new ReentrantLock();
+        this.metrics = context.getMetrics();
+        this.admission = context.getAdmissionControl();
+        this.events = new LinkedBlockingQueue<ByteBuffer>(
+                                            RaceRoom.MAX_QUEUED_EVENTS);
+        this.writeQueued = new AtomicBoolean();
+        this.session = new GameSession(this, cAddress, context);
     }
 
 
     /**************************************************************************
-     * Main entry point for a Networdle Game. 
+     * Main entry point for a Networdle Game. The game doesn't own a thread,
+     * so the server can run it on either a platform or a virtual thread.
+     * Nothing on the read and write path holds a monitor while blocked on
+     * the socket, so a virtual thread running a game never pins its carrier.
      *************************************************************************/
+    @Override
     public void run () {
         try {
-            // Check that we're sent a START GAME message from the client
-            byte[] initMessage = readMessage();
-            if (ProtocolHandler.isValidControlMessage(initMessage, 
-                ControlMessage.CLIENT_START_GAME)) 
-            {
-                this.gameActive = true;
-            } else {
-                // If we don't get a valid START GAME message, close the client
-                // and exit this wordle game.
-                Utils.info("Dropping client " + cAddress 
-                            + "due to bad START GAME message");
-                closeClient();
-                return;
-            }
-
-            // Send the first hint
-            writeMessage(ProtocolHandler.START_RESPONSE);
-
-            // Main game loop
-            while (gameActive) {
-                byte[] message = readMessage();
-                checkGuess(message);
+            // Main game loop, starting with the START GAME message
+            while (gameActive && session.isActive()) {
+                if (!readMessage()) {
+                    if (timedOut) {
+                        output.add(timedOutMessage, 0, timedOutMessage.length);
+                    } else if (session.isBetweenGames()) {
+                        if (Utils.isEnabled(Utils.Level.INFO)) {
+                            Utils.info("Client " + cAddress + " disconnected");
+                        }
+                    } else {
+                        Utils.error("Dropped client " + cAddress);
+                        metrics.clientDrop();
+                    }
+                    closeClient();
+                    return;
+                }
+
+                session.handleMessage(codec.array(), codec.frameOffset(),
+                                      codec.frameLength());
+
+                // This thread is the game's own, so it can simply wait
+                while (pausedOn != null) {
+                    CompletableFuture<?> work = pausedOn;
+                    pausedOn = null;
+                    work.handle((result, e) -> null).join();
+                    session.handleMessage(codec.array(), codec.frameOffset(),
+                                          codec.frameLength());
+                }
             }
 
         } catch (Exception e) {
             // If there's an error, drop the client.
-            Utils.error("Dropped client " + cAddress);
+            if (!timedOut) {
+                Utils.error("Dropped client " + cAddress);
+                metrics.clientDrop();
+            }
             closeClient();
+        } finally {
+            session.disconnected();
+            admission.release();
         }
     }
 
 
     /**************************************************************************
-     * Selects and returns a random word from the target words files. In the
-     * case that an error occurs trying to read the file, the generic word
-     * 'apple' will be returned so that the program can continue.
-     * @return
+     * Puts the current message off until some work is done, after which
+     * it's handled again.
+     * @param work - The work the message waits on
      *************************************************************************/
-    private String selectTargetWord () {
-        final String targetPath = "./resources/target.txt";
-        String target = "APPLE"; // Generic word in case reading the file fails
-
-        try {
-            int lc = 0;
-            FileReader fr = new FileReader(targetPath);
-            BufferedReader br = new BufferedReader(fr);
-
-            // Count the number of lines in the file
-            while(br.readLine() != null) lc++;
-            br.close();
-
-            // Select and read a radom line
-            Random rnd = new Random();
-            int line = rnd.nextInt(lc);
-            target = Files.readAllLines(Paths.get(targetPath)).get(line);
-
-        } catch (Exception e) {
-            Utils.error("An error has occured trying to select a target word",
-                        e);
-        }
-
-        return target; 
-    }
-
-
-    /**************************************************************************
-     * Gets the list of valid guesses a client can make and returns it as a
-     * hasset for fast lookup.
-     * @return - A hashset containing the valid guesses a client can make.
-     *************************************************************************/
-    private HashSet<String> loadGuessList () {
-        final String targetPath = "./resources/guess.txt";
-        HashSet<String> guessList = new HashSet<String>();
-
-        // Read each guess from the file and add it to the hashset.
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(targetPath));
-            for(String line; (line = br.readLine()) != null;) {
-                guessList.add(line);
-            }
-            br.close();
-        }catch (Exception e) {
-            Utils.errorAndDie("Error trying to read guess list.");
-        }
-
-        return guessList;
+    @Override
+    public void pauseUntil (CompletableFuture<?> work) {
+        pausedOn = work;
     }
 
 
     /**************************************************************************
      * Wrapper function for closing the client socket and setting the game
-     * state to inactive.
+     * state to inactive. Any replies still waiting are sent first.
      *************************************************************************/
-    private void closeClient () {
+    @Override
+    public void closeClient () {
+        if (!client.isClosed()) flushMessages();
+
         try {
             this.client.close();
             this.gameActive = false;
@@ -152,199 +137,207 @@ public class NetwordleGame extends Thread{
 
 
     /**************************************************************************
-     * Sends a protocol compliant message to the client.
+     * Queues a protocol compliant message to be sent to the client. Replies
+     * to guesses the client has pipelined are gathered up and sent with one
+     * write once every guess that has arrived has been handled.
      * @param message - The message to send to the client
      *************************************************************************/
-    private void writeMessage (String message) {
-        try {
-            OutputStream cOS = client.getOutputStream();
-            byte[] encoded = ProtocolHandler.encodeMessage(message);
-            cOS.write(encoded);
-        } catch (IOException e) {
-            // Display the error and then close the associated client
-            Utils.error(
-                "Error trying to send message to client " + cAddress, 
-                e
-            );
-            closeClient();
-        }  
+    @Override
+    public void writeMessage (String message) {
+        output.add(message);
     }
 
 
     /**************************************************************************
-     * Reads messages from the client and returns them as a byte array.
-     * Because data is sent over the network as an array of bytes, this
-     * function trims the data down into just what was intended to be sent by
-     * the client.
-     * @return - The message from the client as an array of bytes
+     * Queues an already encoded message to be sent to the client.
+     * @param b - The array containing the encoded message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including its line feed
      *************************************************************************/
-    private byte[] readMessage () {
-        try {
-            InputStream stream = client.getInputStream();
-            byte[] rawData = new byte[MAX_BYTES];
-            int count = stream.read(rawData);
-
-            byte[] trimmedData = new byte[count];
-
-            for (int i = 0; i < count; i++) {
-                trimmedData[i] = rawData[i];
-            }
-
-            return trimmedData;
-        } catch (IOException e) {
-            // Display the error and then close the associated client
-            Utils.error(
-                "Error trying to read message from client " + cAddress, 
-                e
-            );
-            closeClient();
-        }
-
-        return null;
+    @Override
+    public void writeMessage (byte[] b, int off, int len) {
+        output.add(b, off, len);
     }
 
 
     /**************************************************************************
-     * Checks if a word guess is valid. That is, checks if a given guess is
-     * contained in the guess list.
-     * @param guess - The guess to check for validity
-     * @return - True if the guess is in the guess list, otherwise false.
+     * Splits the rest of the client's input into fixed length frames.
+     * @param length - The length of every frame from now on
      *************************************************************************/
-    private boolean isValidGuess (String guess) {
-        return guessList.contains(guess);
+    @Override
+    public void setFrameLength (int length) {
+        codec.setFixedLength(length);
     }
 
 
     /**************************************************************************
-     * Gets the indexes of all occurances of a character in a string
-     * @param word - The word to get the char indexes from
-     * @param ch - The char to get the indexes of
-     * @return - An array containing the index of the char occurances
+     * Called on the timer wheel's thread once the client has taken too long.
+     * Only the socket's input is shut down, which ends the game thread's
+     * blocked read, and the game thread then sends the message and closes
+     * the socket itself. The timer thread never writes, so it can't be held
+     * up by a client that has stopped reading. A write already under way
+     * may be stuck on such a client, and only closing the socket ends it,
+     * so then the socket is closed without the message.
+     * @param message - The encoded message telling the client why
      *************************************************************************/
-    private Integer[] getIndexesOfChar (String word, char ch) {
-        ArrayList<Integer> indexes = new ArrayList<Integer>();
+    @Override
+    public void timedOut (byte[] message) {
+        timedOutMessage = message;
+        timedOut = true;
 
-        for(int i = 0; i < word.length(); i++){
-            if(word.charAt(i) == ch){
-               indexes.add(i);
+        try {
+            if (writeLock.isLocked()) {
+                client.close();
+            } else {
+                client.shutdownInput();
             }
+        } catch (IOException e) {
+            // The socket has already been closed
         }
-
-        Integer[] data = new Integer[indexes.size()];
-        data = indexes.toArray(data);
-        return data;
     }
 
 
     /**************************************************************************
-     * Generates a new hint for a given guess
-     * @param guess - The guess to generate a hint for
-     * @return - The hint for a given guess
+     * Queues a race room event from any thread. The game thread is usually
+     * blocked reading the client's next guess, so events are written by the
+     * room's writer, which is handed this connection for the first of a run
+     * of events. A client that has fallen MAX_QUEUED_EVENTS behind is sent
+     * TOO SLOW and closed, the same way as one that has timed out, which
+     * also frees the writer if it's stuck on the client.
+     * @param event - The encoded event, which must not be modified
+     * @param writer - The room's writer
+     * @return - False if the client is being closed for being too slow
      *************************************************************************/
-    private String generateHint (String guess) {
-        StringBuilder hintBuilder = new StringBuilder(targetWord.length());
-        boolean[] matched = new boolean[targetWord.length()];
-
-        // Set the hint to all underscores to begin with
-        hintBuilder.append(ProtocolHandler.START_RESPONSE);
-
-        // Loop through, set all correct letters in the hint.
-        for (int i = 0; i < targetWord.length(); i++) {
-            char gLtr = guess.charAt(i);
-            char tLtr = targetWord.charAt(i);
-
-            if (gLtr == tLtr) {
-                hintBuilder.setCharAt(i, gLtr);
-                matched[i] = true;
+    @Override
+    public boolean offer (ByteBuffer event, Executor writer) {
+        if (client.isClosed()) return false;
+
+        if (!events.offer(event.duplicate())) {
+            if (Utils.isEnabled(Utils.Level.INFO)) {
+                Utils.info("Closing client " + cAddress + " for falling behind "
+                            + "its room");
             }
+            timedOut(MessageCodec.TOO_SLOW);
+            return false;
         }
 
-        // Loop through, set all characters that are in the word, but are in
-        // the wrong place
-        for (int i = 0; i < targetWord.length(); i++) {
-            // The characters we want to work with
-            char gLtr = guess.charAt(i);
-            char tLtr = targetWord.charAt(i);
-
-            // Get the posiion in the target wod of this character
-            int occurance = targetWord.indexOf(gLtr);
-            occurance = (occurance >= 0) ? occurance : i;
-
-            // Get all the positions of this character in the target word and
-            // check to see if they've all been matched
-            Integer[] indexes = getIndexesOfChar(targetWord, gLtr);
-            boolean allMatched = false;
-            int matches = 0;
-
-            for (int index: indexes) {
-                if (matched[index]) matches++;
-            }
+        if (writeQueued.compareAndSet(false, true)) {
+            writer.execute(this::writeEvents);
+        }
+        return true;
+    }
 
-            if (matches == indexes.length && indexes.length > 0) {
-                allMatched = true;
-            } 
-
-            // If this character isn't in the right position, but does appear
-            // in the target word at another position, and all of those other
-            // positions haven't been matched, show this character in the hint
-            // in lower case.
-            if (gLtr != tLtr && targetWord.contains("" + gLtr) && !allMatched){
-                hintBuilder.setCharAt(i, Character.toLowerCase(gLtr));
-                matched[occurance] = true;
+
+    /**************************************************************************
+     * Writes every room event queued for the client, on the room's writer.
+     * Events that have piled up are gathered into one write, and are
+     * written whole under the write lock, so events and replies only meet
+     * at line boundaries. The shared buffers are read only, so their bytes
+     * are copied into an array of the connection's own, and no monitor is
+     * held while blocked on the socket.
+     *************************************************************************/
+    private void writeEvents () {
+        if (eventChunk == null) eventChunk = new byte[EVENT_CHUNK_BYTES];
+        byte[] chunk = eventChunk;
+
+        try {
+            OutputStream out = client.getOutputStream();
+
+            while (true) {
+                // Events queued after this are either taken below or hand
+                // the connection to the writer again
+                writeQueued.set(false);
+                ByteBuffer event = events.poll();
+                if (event == null || client.isClosed()) return;
+
+                writeLock.lock();
+                try {
+                    int n = 0;
+                    while (event != null) {
+                        int copy = Math.min(chunk.length - n,
+                                            event.remaining());
+                        event.get(chunk, n, copy);
+                        n += copy;
+
+                        if (n == chunk.length) {
+                            out.write(chunk, 0, n);
+                            n = 0;
+                        }
+                        if (!event.hasRemaining()) event = events.poll();
+                    }
+                    out.write(chunk, 0, n);
+                } finally {
+                    writeLock.unlock();
+                }
             }
+        } catch (IOException e) {
+            // The game has ended, or the socket was closed under the writer
         }
-
-        return hintBuilder.toString();
     }
 
 
     /**************************************************************************
-     * The main function for managing the game and guesses made by the client.
-     * @param message - The message sent to the server by the client
+     * Sends every queued message to the client in a single write, recording
+     * how long the write took. The write holds a lock rather than a monitor,
+     * so a virtual thread blocked on it doesn't pin its carrier.
      *************************************************************************/
-    private void checkGuess (byte[] message) {
-        // Check that the message the client sent adheres to the protocol. If
-        // not, drop the client.
-        if (!ProtocolHandler.isValidProtocolMessage(message)) {
-            Utils.info(
-                "Dropping Client " 
-                + cAddress + 
-                " due to sending a message that wasn't protocol compliant."
-            );
-            this.gameActive = false;
+    private void flushMessages () {
+        if (output.isEmpty()) return;
+
+        writeLock.lock();
+        try {
+            long start = System.nanoTime();
+            output.writeTo(client.getOutputStream());
+            metrics.getWriteLatency().record(System.nanoTime() - start);
+        } catch (IOException e) {
+            // Display the error and then close the associated client
+            if (!timedOut) {
+                Utils.error(
+                    "Error trying to send message to client " + cAddress,
+                    e
+                );
+            }
             closeClient();
-            return;
+        } finally {
+            writeLock.unlock();
         }
+    }
 
-        // Once we know we've got a valid protocol message, convert it to an
-        // uppercase string for use in other functions.
-        String guess = ProtocolHandler.decodeMessage(message).toUpperCase();
 
-        // Check that the client made a valid guess
-        if (!isValidGuess(guess)) {
-            writeMessage(ProtocolHandler.INVALID_GUESS);
-            return;
-        }
+    /**************************************************************************
+     * Reads the next message from the client into the codec. Messages are
+     * split on line feeds, so a message that arrives over several reads, or
+     * several messages that arrive in one read, are handled correctly. The
+     * queued replies are only sent once there are no more messages already
+     * waiting, right before blocking for more input. The time spent blocked
+     * on the socket, which includes the client's thinking time, is recorded
+     * as the read latency.
+     * @return - True if a message was read, or false if the client
+     *           disconnected or the read failed
+     *************************************************************************/
+    private boolean readMessage () {
+        if (codec.nextFrame()) return true;
 
-        // A valid guess has been made, increment the guess count.
-        this.guessCount++;
-
-        // Check if the user got the correct word
-        if (guess.equals(this.targetWord)) {
-            writeMessage(this.guessCount.toString());
-            writeMessage(ProtocolHandler.END_GAME);
-            Utils.info(
-                this.cAddress + " correctly guessed the target word after " +
-                this.guessCount + " guesses. \n\tDisconnecting client."
-            );
-            this.gameActive = false;
+        flushMessages();
+        if (client.isClosed()) return false;
+
+        try {
+            long start = System.nanoTime();
+            boolean read = codec.readFrame(client.getInputStream());
+            metrics.getReadLatency().record(System.nanoTime() - start);
+            return read;
+        } catch (IOException e) {
+            // Display the error and then close the associated client, unless
+            // the timer closed it
+            if (!timedOut) {
+                Utils.error(
+                    "Error trying to read message from client " + cAddress,
+                    e
+                );
+            }
             closeClient();
-            return;
         }
 
-        String hint = generateHint(guess);
-        writeMessage(hint);
-
+        return false;
     }
-
 }
@@ -0,0 +1,346 @@
+package src.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import src.shared.MessageBatch;
+import src.shared.MessageCodec;
+import src.shared.Utils;
+
+public class NioConnection implements GameSession.Connection {
+    private SocketChannel channel;      // The channel to the client
+    private SelectionKey key;           // The key registered with the loop
+    private NioEventLoop loop;          // The loop that owns the key
+    private String cAddress;            // The clients IP address for logging
+    private MessageCodec codec;         // Splits the input into messages
+    private MessageBatch out;           // Replies waiting to be written
+    private boolean closing;            // Close once the output is flushed
+    private boolean paused;             // Not reading until some work is done
+    private GameSession session;        // The game logic for this client
+    private ServerMetrics metrics;      // Counters and latencies
+    private AdmissionControl admission; // Freed up when the game ends
+    private ConcurrentLinkedQueue<ByteBuffer> events; // Race room events
+    private AtomicInteger queuedEvents; // Events offered and not yet sent
+    private AtomicBoolean flushQueued;  // If the loop will flush the events
+
+    /**************************************************************************
+     * Constructor for the NioConnection class. Must be called on the event
+     * loop thread that owns the key.
+     * @param channel - The channel to the client
+     * @param key - The key the channel is registered with
+     * @param loop - The event loop that owns the key
+     * @param context - The state shared by every game
+     * @throws IOException - If the clients address can't be read
+     *************************************************************************/
+    public NioConnection (SocketChannel channel, SelectionKey key,
+                          NioEventLoop loop, GameContext context)
+        throws IOException
+    {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.cAddress = channel.getLocalAddress().toString();
+        this.codec = new MessageCodec();
+        this.out = new MessageBatch();
+        this.metrics = context.getMetrics();
+        this.admission = context.getAdmissionControl();
+        this.events = new ConcurrentLinkedQueue<ByteBuffer>();
+        this.queuedEvents = new AtomicInteger();
+        this.flushQueued = new AtomicBoolean();
+        this.session = new GameSession(this, cAddress, context);
+    }
+
+
+    /**************************************************************************
+     * Called by the event loop when the channel has data to read. Every
+     * complete line is handed to the game, and anything after the last line
+     * feed is kept by the codec until the rest of it arrives.
+     *************************************************************************/
+    public void onReadable () {
+        try {
+            long start = System.nanoTime();
+            int count = codec.readFrom(channel);
+            metrics.getReadLatency().record(System.nanoTime() - start);
+
+            if (count < 0) {
+                if (session.isBetweenGames()) {
+                    if (Utils.isEnabled(Utils.Level.INFO)) {
+                        Utils.info("Client " + cAddress + " disconnected");
+                    }
+                } else {
+                    Utils.error("Dropped client " + cAddress);
+                    metrics.clientDrop();
+                }
+                closeNow();
+                return;
+            }
+        } catch (IOException e) {
+            Utils.error(
+                "Error trying to read message from client " + cAddress,
+                e
+            );
+            metrics.clientDrop();
+            closeNow();
+            return;
+        }
+
+        handleFrames();
+    }
+
+
+    /**************************************************************************
+     * Hands every complete message to the game until it's finished or has
+     * paused, then sends the replies.
+     *************************************************************************/
+    private void handleFrames () {
+        while (!closing && !paused && codec.nextFrame()) {
+            session.handleMessage(codec.array(), codec.frameOffset(),
+                                  codec.frameLength());
+        }
+
+        flush();
+    }
+
+
+    /**************************************************************************
+     * Puts the current message off until some work is done elsewhere. The
+     * loop stops reading the channel, and once the work completes the same
+     * message is handed to the game again on the loop's thread.
+     * @param work - The work the message waits on
+     *************************************************************************/
+    @Override
+    public void pauseUntil (CompletableFuture<?> work) {
+        paused = true;
+        work.whenComplete((result, e) -> loop.execute(this::unpause));
+    }
+
+
+    /**************************************************************************
+     * Carries on once the work a message was waiting on is done.
+     *************************************************************************/
+    private void unpause () {
+        paused = false;
+        if (!channel.isOpen() || closing) return;
+
+        session.handleMessage(codec.array(), codec.frameOffset(),
+                              codec.frameLength());
+        handleFrames();
+    }
+
+
+    /**************************************************************************
+     * Called by the event loop when the channel can accept more data.
+     *************************************************************************/
+    public void onWritable () {
+        flush();
+    }
+
+
+    /**************************************************************************
+     * Queues a protocol compliant message to be sent to the client. Every
+     * reply to the guesses handled in one read goes out in a single write.
+     * @param message - The message to send to the client
+     *************************************************************************/
+    @Override
+    public void writeMessage (String message) {
+        if (closing) return;
+
+        out.add(message);
+    }
+
+
+    /**************************************************************************
+     * Queues an already encoded message to be sent to the client.
+     * @param b - The array containing the encoded message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including its line feed
+     *************************************************************************/
+    @Override
+    public void writeMessage (byte[] b, int off, int len) {
+        if (closing) return;
+
+        out.add(b, off, len);
+    }
+
+
+    /**************************************************************************
+     * Closes the client once everything queued for it has been sent.
+     *************************************************************************/
+    @Override
+    public void closeClient () {
+        closing = true;
+    }
+
+
+    /**************************************************************************
+     * Splits the rest of the client's input into fixed length frames.
+     * @param length - The length of every frame from now on
+     *************************************************************************/
+    @Override
+    public void setFrameLength (int length) {
+        codec.setFixedLength(length);
+    }
+
+
+    /**************************************************************************
+     * Called on the timer wheel's thread once the client has taken too long.
+     * The connection is only touched by its event loop, so the message is
+     * handed to the loop to send before closing the channel.
+     * @param message - The encoded message telling the client why
+     *************************************************************************/
+    @Override
+    public void timedOut (byte[] message) {
+        loop.execute(() -> {
+            if (!channel.isOpen()) return;
+
+            out.add(message);
+            closing = true;
+            flush();
+        });
+    }
+
+
+    /**************************************************************************
+     * Queues a race room event from any thread. The event's bytes are
+     * shared with every other member, so only a view of them is queued, and
+     * the connection is only handed to the loop for the first of a run of
+     * events. A client that has fallen MAX_QUEUED_EVENTS behind is sent TOO
+     * SLOW and closed. The event loop writes without blocking, so the room's
+     * writer isn't needed.
+     * @param event - The encoded event, which must not be modified
+     * @param writer - The room's writer, unused
+     * @return - False if the client is being closed for being too slow
+     *************************************************************************/
+    @Override
+    public boolean offer (ByteBuffer event, Executor writer) {
+        int queued = queuedEvents.incrementAndGet();
+        if (queued > RaceRoom.MAX_QUEUED_EVENTS) {
+            if (queued == RaceRoom.MAX_QUEUED_EVENTS + 1) {
+                if (Utils.isEnabled(Utils.Level.INFO)) {
+                    Utils.info("Closing client " + cAddress + " for falling "
+                                + "behind its room");
+                }
+                timedOut(MessageCodec.TOO_SLOW);
+            }
+            return false;
+        }
+
+        events.add(event.duplicate());
+        if (flushQueued.compareAndSet(false, true)) loop.flushLater(this);
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Called by the event loop to send the room events queued since the
+     * connection was handed to it.
+     *************************************************************************/
+    public void flushEvents () {
+        flushQueued.set(false);
+        flush();
+    }
+
+
+    /**************************************************************************
+     * Writes as much queued output as the channel will take. Waits for the
+     * channel to become writable if there's anything left over, and closes
+     * the channel once the output is empty if the game has finished.
+     *
+     * Replies and room events only ever meet at line boundaries. An event
+     * that's been partly written is finished first, then the replies, and
+     * then any events after them.
+     *************************************************************************/
+    private void flush () {
+        if (!channel.isOpen()) return;
+
+        boolean flushed;
+
+        try {
+            long start = System.nanoTime();
+            flushed = writeEvents(true) && out.writeTo(channel)
+                      && writeEvents(false);
+            metrics.getWriteLatency().record(System.nanoTime() - start);
+        } catch (IOException e) {
+            Utils.error(
+                "Error trying to send message to client " + cAddress,
+                e
+            );
+            metrics.clientDrop();
+            closeNow();
+            return;
+        }
+
+        if (!flushed) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else if (closing) {
+            closeNow();
+        } else {
+            key.interestOps(paused ? 0 : SelectionKey.OP_READ);
+        }
+    }
+
+
+    /**************************************************************************
+     * Writes queued room events until the channel won't take any more.
+     * @param startedOnly - True to only finish an event already partly
+     *                      written
+     * @return - True if nothing is left partly written
+     * @throws IOException - If the channel can't be written to
+     *************************************************************************/
+    private boolean writeEvents (boolean startedOnly) throws IOException {
+        for (ByteBuffer event; (event = events.peek()) != null;) {
+            if (startedOnly && event.position() == 0) return true;
+
+            channel.write(event);
+            if (event.hasRemaining()) return false;
+
+            events.poll();
+            queuedEvents.decrementAndGet();
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * @return - The key the channel is registered with
+     *************************************************************************/
+    public SelectionKey getKey () {
+        return key;
+    }
+
+
+    /**************************************************************************
+     * @return - The client's address, for logging
+     *************************************************************************/
+    public String getAddress () {
+        return cAddress;
+    }
+
+
+    /**************************************************************************
+     * Closes the channel immediately, dropping any queued output.
+     *************************************************************************/
+    public void closeNow () {
+        if (channel.isOpen()) {
+            session.disconnected();
+            admission.release();
+        }
+
+        closing = true;
+        key.cancel();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Utils.error("Error closing client " + cAddress, e);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package src.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import src.shared.Utils;
+
+public class NioEventLoop extends Thread {
+    private Selector selector;                              // Owned channels
+    private GameContext context;                            // Shared state
+    private ConcurrentLinkedQueue<SocketChannel> pending;   // To register
+    private ConcurrentLinkedQueue<Runnable> tasks;          // To run
+    private ConcurrentLinkedQueue<NioConnection> flushes;   // To flush
+    private AtomicBoolean woken;            // If a wakeup is already pending
+
+    /**************************************************************************
+     * Constructor for the NioEventLoop class.
+     * @param name - The name of the loop thread
+     * @param context - The state shared by every game on this loop
+     * @throws IOException - If the selector can't be opened
+     *************************************************************************/
+    public NioEventLoop (String name, GameContext context)
+        throws IOException
+    {
+        super(name);
+        this.selector = Selector.open();
+        this.context = context;
+        this.pending = new ConcurrentLinkedQueue<SocketChannel>();
+        this.tasks = new ConcurrentLinkedQueue<Runnable>();
+        this.flushes = new ConcurrentLinkedQueue<NioConnection>();
+        this.woken = new AtomicBoolean();
+    }
+
+
+    /**************************************************************************
+     * Hands a newly accepted channel to this loop. Safe to call from any
+     * thread; the channel is registered by the loop itself.
+     * @param channel - The channel to the client
+     *************************************************************************/
+    public void register (SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+
+    /**************************************************************************
+     * Runs a task on this loop's thread, for other threads that need to
+     * touch a connection the loop owns. Safe to call from any thread.
+     * @param task - The task to run
+     *************************************************************************/
+    public void execute (Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+
+    /**************************************************************************
+     * Has a connection flushed on this loop's thread, for room events queued
+     * by other threads. A broadcast to many members on the same loop only
+     * wakes the selector once, however many of them it queues.
+     * @param conn - The connection to flush
+     *************************************************************************/
+    public void flushLater (NioConnection conn) {
+        flushes.add(conn);
+        if (woken.compareAndSet(false, true)) selector.wakeup();
+    }
+
+
+    /**************************************************************************
+     * Main loop. Waits for channels to become ready and hands each one to
+     * the connection attached to its key. A bug hit by one connection only
+     * closes that connection, not every game on the loop.
+     *************************************************************************/
+    public void run () {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                woken.set(false);
+                registerPending();
+                runTasks();
+                runFlushes();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                                                      .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NioConnection conn = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            conn.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.onWritable();
+                        }
+                    } catch (RuntimeException e) {
+                        Utils.error("Unexpected error handling client "
+                                    + conn.getAddress() + " on event loop "
+                                    + getName(), e);
+                        closeAfterError(key, conn);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            Utils.error("Event loop " + getName() + " stopped", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Registers every channel handed to this loop since the last select and
+     * creates a game for each of them. A client that can't be set up is
+     * closed without stopping the loop. Closing its channel also cancels
+     * its key, so a key left without a connection is never selected.
+     *************************************************************************/
+    private void registerPending () {
+        SocketChannel channel;
+
+        while ((channel = pending.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector,
+                                                    SelectionKey.OP_READ);
+                key.attach(new NioConnection(channel, key, this, context));
+            } catch (IOException | RuntimeException e) {
+                Utils.error("Unable to register a new client", e);
+                context.getAdmissionControl().release();
+                closeQuietly(channel);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Runs every task handed to this loop since the last select. A task
+     * that fails is logged and the rest still run.
+     *************************************************************************/
+    private void runTasks () {
+        Runnable task;
+
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Utils.error("Unexpected error in a task on event loop "
+                            + getName(), e);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Flushes every connection handed to this loop since the last select.
+     *************************************************************************/
+    private void runFlushes () {
+        NioConnection conn;
+
+        while ((conn = flushes.poll()) != null) {
+            try {
+                conn.flushEvents();
+            } catch (RuntimeException e) {
+                Utils.error("Unexpected error sending events to client "
+                            + conn.getAddress() + " on event loop "
+                            + getName(), e);
+                closeAfterError(conn.getKey(), conn);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Closes a connection that hit an unexpected error, counting it as a
+     * dropped client. If tidying up the game fails the same way, the
+     * channel is still closed.
+     * @param key - The connection's key
+     * @param conn - The connection to close
+     *************************************************************************/
+    private void closeAfterError (SelectionKey key, NioConnection conn) {
+        context.getMetrics().clientDrop();
+
+        try {
+            conn.closeNow();
+        } catch (RuntimeException e) {
+            Utils.error("Unable to close client " + conn.getAddress(), e);
+            key.cancel();
+            closeQuietly((SocketChannel) key.channel());
+        }
+    }
+
+
+    /**************************************************************************
+     * Closes a channel, ignoring any error.
+     * @param channel - The channel to close
+     *************************************************************************/
+    private static void closeQuietly (SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing else can be done with it
+        }
+    }
+
+
+    /**************************************************************************
+     * Stops the loop and closes every channel it owns.
+     *************************************************************************/
+    public void shutdown () {
+        try {
+            for (SelectionKey key : selector.keys()) key.channel().close();
+            selector.close();
+        } catch (IOException e) {
+            Utils.error("Error stopping event loop " + getName(), e);
+        }
+    }
+}
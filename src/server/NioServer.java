@@ -0,0 +1,135 @@
+package src.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import src.shared.MessageCodec;
+import src.shared.Utils;
+
+public class NioServer {
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+    private int port;
+    private int loopCount;
+    private ServerSocketChannel ssc;
+    private NioEventLoop[] loops;
+    private GameContext context;
+
+    /**************************************************************************
+     * NioServer constructor
+     * @param port - The port to start the server on
+     * @param loopCount - The number of event loop threads to run
+     * @param context - The state shared by every game
+     *************************************************************************/
+    public NioServer (int port, int loopCount, GameContext context) {
+        this.port = port;
+        this.loopCount = loopCount;
+        this.context = context;
+    }
+
+
+    /**************************************************************************
+     * Main driver function for the server. Accepts connections on the calling
+     * thread and spreads them over the event loops in turn. Each loop serves
+     * all of its games from a single thread with a selector. Connections over
+     * the admission limits are sent a busy reply and closed instead. Only a
+     * failure to bind stops the server; a failed accept, such as running out
+     * of file descriptors, is logged and retried after a short pause.
+     *************************************************************************/
+    public void start () {
+        AdmissionControl admission = context.getAdmissionControl();
+
+        try {
+            loops = new NioEventLoop[loopCount];
+            for (int i = 0; i < loopCount; i++) {
+                loops[i] = new NioEventLoop("nio-loop-" + i, context);
+                loops[i].start();
+            }
+
+            ssc = ServerSocketChannel.open();
+            ssc.bind(new InetSocketAddress(this.port), admission.getBacklog());
+        } catch (IOException e) {
+            closeServer();
+            Utils.errorAndDie("Unable to create server. Please try again, " +
+                                "perhaps with another port.");
+        }
+
+        System.out.println("Server listening on port " + this.port
+                           + " with " + loopCount + " event loops");
+
+        try {
+            // Main sever loop
+            int next = 0;
+            while (ssc.isOpen()) {
+                SocketChannel client;
+                try {
+                    client = ssc.accept();
+                } catch (IOException e) {
+                    if (!ssc.isOpen()) break;
+                    Utils.error("Unable to accept a new client", e);
+                    backOff();
+                    continue;
+                }
+                context.getMetrics().accepted();
+
+                // Turn away anything over the limits before it reaches a loop
+                if (!admission.admit()) {
+                    shed(client);
+                    continue;
+                }
+
+                loops[next].register(client);
+                next = (next + 1) % loopCount;
+            }
+        } finally {
+            closeServer();
+        }
+    }
+
+
+    /**************************************************************************
+     * Pauses the accept loop after a failed accept, so a shortage that lasts
+     * a while, such as running out of file descriptors, doesn't spin the
+     * thread or flood the log while games finish and free some up.
+     *************************************************************************/
+    private static void backOff () {
+        try {
+            Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**************************************************************************
+     * Turns a connection away with a busy reply. The channel is still in
+     * blocking mode and the reply fits in its send buffer, so this returns
+     * straight away.
+     * @param client - The connection to turn away
+     *************************************************************************/
+    private static void shed (SocketChannel client) {
+        try (SocketChannel c = client) {
+            c.write(ByteBuffer.wrap(MessageCodec.SERVER_BUSY));
+        } catch (IOException e) {
+            // The client has already gone, which is just as good
+        }
+    }
+
+
+    /**************************************************************************
+     * A small ultilty function used for closing the server.
+     *************************************************************************/
+    private void closeServer () {
+        try {
+            if (ssc != null) ssc.close();
+            for (NioEventLoop loop : loops) {
+                if (loop != null) loop.shutdown();
+            }
+        } catch (IOException e) {
+            Utils.errorAndDie("An error occured while closing the server");
+        }
+    }
+}
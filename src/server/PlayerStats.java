@@ -0,0 +1,424 @@
+package src.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import src.shared.ProtocolHandler;
+import src.shared.Utils;
+
+/******************************************************************************
+ * Every named player's statistics, and a leaderboard of the players with the
+ * most wins. A player is named by sending PLAYER NAME before starting a
+ * game, and every game they finish after that is counted. Names aren't
+ * authenticated, so anyone can play under any name; the statistics are for
+ * fun, not to be trusted.
+ *
+ * A game left unfinished only counts as a loss if the player had guessed in
+ * it and can't carry it on, which rules out session and stateless games.
+ *
+ * Finishing a game never takes a lock shared with other players. Players are
+ * kept in a concurrent map, whose bins are locked separately, and only when
+ * a player is first seen. Each player's counts and win distribution are
+ * LongAdders, and their streaks are atomics. Reading is never in the way of
+ * a game either: a player's line is read straight from the adders, and the
+ * leaderboard is rebuilt in the background every second and only ever
+ * swapped in whole.
+ *
+ * With a file, the statistics are written to it every interval and on
+ * shutdown, and read back at startup.
+ *****************************************************************************/
+public class PlayerStats implements Runnable {
+    public static final int MAX_NAME_CHARS = 16;
+    public static final int DEFAULT_MAX_PLAYERS = 100000;
+    public static final int DEFAULT_LEADERBOARD_SIZE = 10;
+    public static final int BUCKETS = 10;       // 1 to 9 guesses, then more
+
+    private static final int MAGIC = 0x4E575354;    // "NWST"
+    private static final int VERSION = 1;
+    private static final long REBUILD_MILLIS = 1000;
+
+    /**************************************************************************
+     * A single player's statistics. Every field can be updated by any
+     * thread without a lock.
+     *************************************************************************/
+    private static class Player {
+        private final String name;
+        private final LongAdder played = new LongAdder();
+        private final LongAdder won = new LongAdder();
+        private final LongAdder guesses = new LongAdder();  // Over all wins
+        private final LongAdder[] distribution = new LongAdder[BUCKETS];
+        private final AtomicInteger streak = new AtomicInteger();
+        private final AtomicInteger bestStreak = new AtomicInteger();
+
+        private Player (String name) {
+            this.name = name;
+            for (int i = 0; i < BUCKETS; i++) {
+                distribution[i] = new LongAdder();
+            }
+        }
+    }
+
+    /**************************************************************************
+     * A player's place on the leaderboard, as it was when it was rebuilt.
+     *************************************************************************/
+    private static class Entry {
+        private final String name;
+        private final long won;
+        private final long guesses;
+
+        private Entry (String name, long won, long guesses) {
+            this.name = name;
+            this.won = won;
+            this.guesses = guesses;
+        }
+    }
+
+    // Most wins first, then fewest guesses per win, then by name
+    private static final Comparator<Entry> RANKING = (a, b) -> {
+        if (a.won != b.won) return Long.compare(b.won, a.won);
+        int byAverage = Long.compare(a.guesses * b.won, b.guesses * a.won);
+        return (byAverage != 0) ? byAverage : a.name.compareTo(b.name);
+    };
+
+    private final ConcurrentHashMap<String, Player> players;
+    private final int maxPlayers;       // Players to track before refusing
+    private final int leaderboardSize;  // Players on the leaderboard
+    private volatile byte[] leaderboard; // The encoded reply, swapped whole
+    private Path file;                  // Where to snapshot to, or null
+    private long intervalMillis;        // Time between snapshots
+
+    /**************************************************************************
+     * Constructor for the PlayerStats class. The statistics start off only
+     * being kept in memory.
+     * @param maxPlayers - The most players to keep statistics for
+     * @param leaderboardSize - The number of players on the leaderboard
+     *************************************************************************/
+    public PlayerStats (int maxPlayers, int leaderboardSize) {
+        this.players = new ConcurrentHashMap<String, Player>();
+        this.maxPlayers = maxPlayers;
+        this.leaderboardSize = Math.max(1, leaderboardSize);
+        this.leaderboard = encode(new ArrayList<Entry>());
+    }
+
+
+    /**************************************************************************
+     * Reads the statistics from a snapshot file, if there is one, and keeps
+     * them in it from now on.
+     * @param path - The path to the snapshot file
+     * @param intervalMillis - The time between snapshots
+     * @throws IOException - If the snapshot can't be read
+     *************************************************************************/
+    public void open (String path, long intervalMillis) throws IOException {
+        this.file = Paths.get(path);
+        this.intervalMillis = Math.max(1, intervalMillis);
+
+        if (Files.isRegularFile(file)) load(file);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::snapshot));
+
+        Utils.info("Loaded statistics for " + players.size()
+                    + " players from " + path);
+    }
+
+
+    /**************************************************************************
+     * Starts rebuilding the leaderboard, and taking snapshots if there's a
+     * file, on a background thread.
+     *************************************************************************/
+    public void start () {
+        Thread thread = new Thread(this, "player-stats");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**************************************************************************
+     * Checks a player name from a client.
+     * @param name - The name
+     * @return - True if it's 1 to MAX_NAME_CHARS letters, digits, dashes or
+     *           underscores
+     *************************************************************************/
+    public static boolean isValidName (String name) {
+        if (name.isEmpty() || name.length() > MAX_NAME_CHARS) return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')
+                && !(c >= '0' && c <= '9') && c != '-' && c != '_')
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Gets a player, adding them if they're new and there's room.
+     * @param name - The player's name
+     * @return - The player, or null if there are already too many
+     *************************************************************************/
+    private Player player (String name) {
+        Player player = players.get(name);
+        if (player != null || players.size() >= maxPlayers) return player;
+
+        return players.computeIfAbsent(name, Player::new);
+    }
+
+
+    /**************************************************************************
+     * Records a player winning a game.
+     * @param name - The player's name
+     * @param guesses - The number of guesses it took
+     *************************************************************************/
+    public void won (String name, int guesses) {
+        Player player = player(name);
+        if (player == null) return;
+
+        player.played.increment();
+        player.won.increment();
+        player.guesses.add(guesses);
+        player.distribution[Math.min(guesses, BUCKETS) - 1].increment();
+
+        int streak = player.streak.incrementAndGet();
+        player.bestStreak.accumulateAndGet(streak, Math::max);
+    }
+
+
+    /**************************************************************************
+     * Records a player leaving a game without winning it, which ends their
+     * streak.
+     * @param name - The player's name
+     *************************************************************************/
+    public void lost (String name) {
+        Player player = player(name);
+        if (player == null) return;
+
+        player.played.increment();
+        player.streak.set(0);
+    }
+
+
+    /**************************************************************************
+     * Gets a player's statistics as a STATS reply: their name, games played,
+     * games won, current and best streaks, average guesses per win, then
+     * the number of wins taking each number of guesses from 1 to BUCKETS,
+     * the last counting every win that took more.
+     * @param name - The player's name
+     * @return - The reply, or null if the player isn't known
+     *************************************************************************/
+    public String describe (String name) {
+        Player player = players.get(name);
+        if (player == null) return null;
+
+        long won = player.won.sum();
+        StringBuilder sb = new StringBuilder(ProtocolHandler.STATS);
+        sb.append(name).append(' ').append(player.played.sum())
+          .append(' ').append(won)
+          .append(' ').append(player.streak.get())
+          .append(' ').append(player.bestStreak.get())
+          .append(' ').append(average(player.guesses.sum(), won));
+
+        for (LongAdder bucket : player.distribution) {
+            sb.append(' ').append(bucket.sum());
+        }
+
+        return sb.toString();
+    }
+
+
+    /**************************************************************************
+     * @return - The leaderboard as it was last rebuilt, encoded as a reply
+     *           of LEADER lines ending with END LEADERBOARD. Must not be
+     *           modified.
+     *************************************************************************/
+    public byte[] leaderboard () {
+        return leaderboard;
+    }
+
+
+    /**************************************************************************
+     * @return - The number of players with statistics
+     *************************************************************************/
+    public int size () {
+        return players.size();
+    }
+
+
+    /**************************************************************************
+     * The background thread's main loop. Rebuilds the leaderboard every
+     * second, and takes a snapshot every interval if there's a file.
+     *************************************************************************/
+    @Override
+    public void run () {
+        long lastSnapshot = System.nanoTime();
+
+        while (true) {
+            try {
+                Thread.sleep(REBUILD_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            rebuild();
+
+            long now = System.nanoTime();
+            if (file != null && now - lastSnapshot
+                    >= TimeUnit.MILLISECONDS.toNanos(intervalMillis))
+            {
+                snapshot();
+                lastSnapshot = now;
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Ranks every player and swaps in the new leaderboard. Only the top
+     * players are kept while ranking, in a heap with the lowest ranked on
+     * top.
+     *************************************************************************/
+    private void rebuild () {
+        PriorityQueue<Entry> top = new PriorityQueue<Entry>(
+                            leaderboardSize + 1, RANKING.reversed());
+
+        for (Player player : players.values()) {
+            long won = player.won.sum();
+            if (won == 0) continue;
+
+            top.add(new Entry(player.name, won, player.guesses.sum()));
+            if (top.size() > leaderboardSize) top.poll();
+        }
+
+        ArrayList<Entry> ranked = new ArrayList<Entry>(top);
+        ranked.sort(RANKING);
+        leaderboard = encode(ranked);
+    }
+
+
+    /**************************************************************************
+     * Encodes the leaderboard as a reply, one LEADER line per player with
+     * their rank, name, wins and average guesses per win.
+     * @param ranked - The players in order
+     * @return - The encoded reply
+     *************************************************************************/
+    private static byte[] encode (ArrayList<Entry> ranked) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < ranked.size(); i++) {
+            Entry entry = ranked.get(i);
+            sb.append(ProtocolHandler.LEADER).append(i + 1)
+              .append(' ').append(entry.name)
+              .append(' ').append(entry.won)
+              .append(' ').append(average(entry.guesses, entry.won))
+              .append('\n');
+        }
+        sb.append(ProtocolHandler.END_LEADERBOARD).append('\n');
+
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**************************************************************************
+     * @return - The average guesses per win to two decimal places, or 0
+     *************************************************************************/
+    private static String average (long guesses, long won) {
+        if (won == 0) return "0";
+
+        long hundredths = (guesses * 100 + won / 2) / won;
+        return (hundredths / 100) + "." + (hundredths % 100 / 10)
+               + (hundredths % 10);
+    }
+
+
+    /**************************************************************************
+     * Writes every player's statistics to a temporary file, which is then
+     * moved into place, so a crash part way through leaves the last
+     * snapshot as it was. Games carry on while it's written, so a player
+     * finishing a game at the same time may be caught part way through.
+     *************************************************************************/
+    private synchronized void snapshot () {
+        Path temp = Paths.get(file + ".tmp");
+
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(
+                                        new BufferedOutputStream(fos)))
+            {
+                ArrayList<Player> all = new ArrayList<Player>(
+                                                players.values());
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(all.size());
+
+                for (Player player : all) {
+                    out.writeUTF(player.name);
+                    out.writeLong(player.played.sum());
+                    out.writeLong(player.won.sum());
+                    out.writeLong(player.guesses.sum());
+                    out.writeInt(player.streak.get());
+                    out.writeInt(player.bestStreak.get());
+                    for (LongAdder bucket : player.distribution) {
+                        out.writeLong(bucket.sum());
+                    }
+                }
+
+                out.flush();
+                fos.getFD().sync();
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Utils.error("Unable to save player statistics to " + file, e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Reads every player's statistics from a snapshot.
+     * @param path - The snapshot file
+     * @throws IOException - If the file can't be read or isn't a snapshot
+     *************************************************************************/
+    private void load (Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                        Files.newInputStream(path))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a player statistics snapshot");
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Player player = new Player(in.readUTF());
+                player.played.add(in.readLong());
+                player.won.add(in.readLong());
+                player.guesses.add(in.readLong());
+                player.streak.set(in.readInt());
+                player.bestStreak.set(in.readInt());
+                for (LongAdder bucket : player.distribution) {
+                    bucket.add(in.readLong());
+                }
+                players.put(player.name, player);
+            }
+        }
+
+        rebuild();
+    }
+}
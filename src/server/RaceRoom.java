@@ -0,0 +1,228 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import src.shared.HintEngine;
+import src.shared.ProtocolHandler;
+import src.shared.Utils;
+import src.shared.WordDictionary;
+
+/******************************************************************************
+ * A race between every player that joins a room by name, all guessing the
+ * same target. Each valid guess is shown to everyone else in the room as the
+ * player's number, guess count and hint pattern, without its letters, and
+ * the first player to get the target is announced as the winner. Spectators
+ * see the same events without playing.
+ *
+ * Every event is encoded once into a read-only buffer that every member's
+ * connection shares. Handing it over only queues it, so the player whose
+ * guess caused it never waits on anyone's socket. A member whose queue
+ * fills up is closed instead of holding the room back.
+ *
+ * Members on the blocking engine can't write without blocking, so the room
+ * has one writer thread that they all share. It's only started when there
+ * are events to write, and stops once the room has gone quiet.
+ *****************************************************************************/
+public class RaceRoom {
+    public static final int MAX_NAME_CHARS = 32;
+    public static final int MAX_QUEUED_EVENTS = 256; // Per member, then closed
+
+    private static final byte[] PATTERN_DIGITS = { '0', '1', '2' };
+    private static final long WRITER_IDLE_SECONDS = 5;
+
+    private final String name;
+    private final ConcurrentHashMap<String, RaceRoom> rooms; // Every room
+    private final int targetIndex;
+    private final int targetPacked;
+    private final ConcurrentHashMap<GameSession.Connection, Integer> members;
+    private final AtomicInteger nextPlayer;
+    private final AtomicBoolean finished;           // Set once it's won
+    private final ServerMetrics metrics;
+    private final Executor writer;                  // Shared blocking writes
+
+    /**************************************************************************
+     * Constructor for the RaceRoom class. The target is picked the same way
+     * as for a normal game.
+     * @param name - The room's name
+     * @param rooms - Every open room, which this one leaves once it's won
+     *                or empty
+     * @param dictionary - The word lists to pick the target from
+     * @param metrics - Where members dropped for being slow are counted
+     *************************************************************************/
+    public RaceRoom (String name, ConcurrentHashMap<String, RaceRoom> rooms,
+                     WordDictionary dictionary, ServerMetrics metrics)
+    {
+        this.name = name;
+        this.rooms = rooms;
+        this.targetIndex = dictionary.randomTargetIndex();
+        this.targetPacked = dictionary.targetPacked(targetIndex);
+        this.members = new ConcurrentHashMap<GameSession.Connection,
+                                             Integer>();
+        this.nextPlayer = new AtomicInteger();
+        this.finished = new AtomicBoolean();
+        this.metrics = metrics;
+        this.writer = new ThreadPoolExecutor(0, 1,
+                    WRITER_IDLE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread thread = new Thread(r, "room-writer-" + name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+    }
+
+
+    /**************************************************************************
+     * Adds a member to the open room with a name, opening a new one if there
+     * isn't one. A room that's already been won is replaced, so late
+     * arrivals start a new race. Joining happens under the registry's lock
+     * for the name, so it can't race with the room closing.
+     * @param rooms - Every open room
+     * @param name - The room's name
+     * @param client - The member's connection
+     * @param player - True to play, or false to only watch
+     * @param dictionary - The word lists to pick a new room's target from
+     * @param metrics - The server's metrics
+     * @return - The room
+     *************************************************************************/
+    public static RaceRoom join (ConcurrentHashMap<String, RaceRoom> rooms,
+                                 String name, GameSession.Connection client,
+                                 boolean player, WordDictionary dictionary,
+                                 ServerMetrics metrics)
+    {
+        return rooms.compute(name, (n, room) -> {
+            if (room == null || room.finished.get()) {
+                room = new RaceRoom(n, rooms, dictionary, metrics);
+            }
+
+            room.members.put(client,
+                             player ? room.nextPlayer.incrementAndGet() : 0);
+            return room;
+        });
+    }
+
+
+    /**************************************************************************
+     * Checks a room name from a client.
+     * @param name - The name
+     * @return - True if it's 1 to MAX_NAME_CHARS printable characters with
+     *           no spaces
+     *************************************************************************/
+    public static boolean isValidName (String name) {
+        if (name.isEmpty() || name.length() > MAX_NAME_CHARS) return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c > '~') return false;
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * @param client - A member's connection
+     * @return - The member's player number, or 0 for a spectator
+     *************************************************************************/
+    public int numberOf (GameSession.Connection client) {
+        Integer number = members.get(client);
+        return (number == null) ? 0 : number;
+    }
+
+
+    /**************************************************************************
+     * Removes a member, closing the room once nobody is left in it.
+     * @param client - The member's connection
+     *************************************************************************/
+    public void leave (GameSession.Connection client) {
+        members.remove(client);
+
+        rooms.computeIfPresent(name, (n, room) ->
+                    (room == this && members.isEmpty()) ? null : room);
+    }
+
+
+    /**************************************************************************
+     * @return - The index of the room's target word
+     *************************************************************************/
+    public int getTargetIndex () {
+        return targetIndex;
+    }
+
+
+    /**************************************************************************
+     * @return - The room's target word, packed
+     *************************************************************************/
+    public int getTargetPacked () {
+        return targetPacked;
+    }
+
+
+    /**************************************************************************
+     * Shows a player's valid guess to everyone else in the room, as its hint
+     * pattern with a digit for each letter: 2 in the right place, 1 in the
+     * word, 0 not in it.
+     * @param from - The player's connection
+     * @param player - The player's number
+     * @param guesses - The number of guesses they've made
+     * @param code - The encoded hint for the guess, see HintEngine
+     *************************************************************************/
+    public void progress (GameSession.Connection from, int player,
+                          int guesses, int code)
+    {
+        byte[] pattern = new byte[WordDictionary.WORD_LENGTH];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = PATTERN_DIGITS[HintEngine.stateAt(code, i)];
+        }
+
+        broadcast(from, ProtocolHandler.ROOM_PLAYER + player + " " + guesses
+                        + " " + new String(pattern, StandardCharsets.US_ASCII));
+    }
+
+
+    /**************************************************************************
+     * Announces the winner to everyone in the room, if nobody has won yet,
+     * and stops anyone new joining this race.
+     * @param player - The player's number
+     * @param guesses - The number of guesses they took
+     *************************************************************************/
+    public void won (int player, int guesses) {
+        if (!finished.compareAndSet(false, true)) return;
+
+        if (Utils.isEnabled(Utils.Level.INFO)) {
+            Utils.info("Player " + player + " won room " + name + " after "
+                        + guesses + " guesses");
+        }
+        broadcast(null, ProtocolHandler.ROOM_WINNER + player + " " + guesses);
+        rooms.remove(name, this);
+    }
+
+
+    /**************************************************************************
+     * Encodes an event once and queues it for every member but one.
+     * @param skip - The member not to send it to, or null
+     * @param event - The event, without its line feed
+     *************************************************************************/
+    private void broadcast (GameSession.Connection skip, String event) {
+        ByteBuffer shared = ByteBuffer.wrap(
+                    (event + "\n").getBytes(StandardCharsets.US_ASCII))
+                    .asReadOnlyBuffer();
+
+        for (GameSession.Connection member : members.keySet()) {
+            if (member == skip) continue;
+
+            if (!member.offer(shared, writer)) {
+                // Too far behind to keep up, so it's being closed
+                members.remove(member);
+                metrics.slowConsumer();
+            }
+        }
+    }
+}
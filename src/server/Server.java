@@ -3,36 +3,83 @@ package src.server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+import src.shared.MessageCodec;
 import src.shared.Utils;
 
 public class Server {
     private int port;
     private ServerSocket ss;
+    private GameContext context;
+    private Executor executor;          // Runs each game on its own thread
 
     /**************************************************************************
      * Server constructor
      * @param port - The port to start the server on
+     * @param context - The state shared by every game
+     * @param threads - Either "platform" or "virtual", the kind of thread
+     *                  each game is run on
      *************************************************************************/
-    public Server (int port) {
+    public Server (int port, GameContext context, String threads) {
         this.port = port;
+        this.context = context;
+        this.executor = createExecutor(threads);
     }
 
 
     /**************************************************************************
-     * Main driver function for the server
+     * Creates the executor games are run on. Virtual threads need Java 21 or
+     * newer, so they're looked up reflectively to keep the server building
+     * on older JDKs, where it falls back to platform threads.
+     * @param threads - Either "platform" or "virtual"
+     * @return - An executor that starts a new thread for every game
+     *************************************************************************/
+    private static Executor createExecutor (String threads) {
+        if (threads.equals("virtual")) {
+            try {
+                return (Executor) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Utils.error("Virtual threads need Java 21 or newer. " +
+                            "Falling back to platform threads.");
+            }
+        } else if (!threads.equals("platform")) {
+            Utils.errorAndDie("Unknown thread mode " + threads
+                        + ". Expected platform or virtual.");
+        }
+
+        return game -> new Thread(game).start();
+    }
+
+
+    /**************************************************************************
+     * Main driver function for the server. Connections over the admission
+     * limits are sent a busy reply and closed straight away, before a game
+     * or thread is created for them.
      *************************************************************************/
     public void start () {
+        AdmissionControl admission = context.getAdmissionControl();
+
         try {
-            ss = new ServerSocket(this.port);
+            ss = new ServerSocket(this.port, admission.getBacklog());
 
             System.out.println("Server listening on port " + this.port);
 
             // Main sever loop
             while (true) {
                 Socket client = ss.accept();
-                NetwordleGame clientGame = new NetwordleGame(client);
-                clientGame.start();
+                context.getMetrics().accepted();
+
+                if (!admission.admit()) {
+                    shed(client);
+                    continue;
+                }
+
+                NetwordleGame clientGame = new NetwordleGame(client, context);
+                executor.execute(clientGame);
             }
 
         } catch (IOException e) {
@@ -44,6 +91,20 @@ public class Server {
     }
     
 
+    /**************************************************************************
+     * Turns a connection away with a busy reply. The reply fits in the
+     * socket's send buffer, so this never blocks the accept loop.
+     * @param client - The connection to turn away
+     *************************************************************************/
+    private static void shed (Socket client) {
+        try (Socket c = client) {
+            c.getOutputStream().write(MessageCodec.SERVER_BUSY);
+        } catch (IOException e) {
+            // The client has already gone, which is just as good
+        }
+    }
+
+
     /**************************************************************************
      * A small ultilty function used for closing the server.
      *************************************************************************/
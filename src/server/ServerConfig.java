@@ -0,0 +1,158 @@
+package src.server;
+
+import java.util.HashMap;
+
+import src.shared.Utils;
+
+public class ServerConfig {
+    private static final String USAGE =
+        "\nUsage: ./startServer {port number} [--option=value ...]";
+
+    private int port;                           // The port to listen on
+    private HashMap<String, String> options;    // The --name=value options
+    private String usage;                       // Shown with any error
+
+    /**************************************************************************
+     * Constructor for the ServerConfig class.
+     * @param port - The port for the server to listen on
+     *************************************************************************/
+    public ServerConfig (int port) {
+        this.port = port;
+        this.options = new HashMap<String, String>();
+        this.usage = USAGE;
+    }
+
+
+    /**************************************************************************
+     * Builds a config from the command line arguments given to the server.
+     * The first argument is the port, and every argument after that must be
+     * an option of the form --name=value. The program will exit if the
+     * arguments aren't valid.
+     * @param args - The command line arguments given to the program
+     * @return - The config for the server
+     *************************************************************************/
+    public static ServerConfig fromArgs (String[] args) {
+        return fromArgs(args, USAGE);
+    }
+
+
+    /**************************************************************************
+     * Builds a config from the command line arguments given to another
+     * program that takes a port and options the same way, such as the
+     * router.
+     * @param args - The command line arguments given to the program
+     * @param usage - How to run the program, shown with any error
+     * @return - The config for the program
+     *************************************************************************/
+    public static ServerConfig fromArgs (String[] args, String usage) {
+        int port = 0;
+
+        // Check we've been given at least one argument from the command line
+        if (args.length < 1) {
+            Utils.errorAndDie("No port number specified." + usage);
+        }
+
+        // Check that we were given a valid integer as the port number
+        try{
+            port = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            Utils.errorAndDie("Invalid port number specified." + usage);
+        }
+
+        ServerConfig config = new ServerConfig(port);
+        config.usage = usage;
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int split = arg.indexOf('=');
+
+            if (!arg.startsWith("--") || split < 3) {
+                Utils.errorAndDie("Invalid option " + arg + "." + usage);
+            }
+
+            config.set(arg.substring(2, split), arg.substring(split + 1));
+        }
+
+        return config;
+    }
+
+
+    /**************************************************************************
+     * @return - The port for the server to listen on
+     *************************************************************************/
+    public int getPort () {
+        return port;
+    }
+
+
+    /**************************************************************************
+     * Sets an option, replacing any previous value.
+     * @param name - The name of the option
+     * @param value - The value of the option
+     *************************************************************************/
+    public void set (String name, String value) {
+        options.put(name, value);
+    }
+
+
+    /**************************************************************************
+     * Gets a string option.
+     * @param name - The name of the option
+     * @param def - The value to use if the option wasn't given
+     * @return - The value of the option
+     *************************************************************************/
+    public String getString (String name, String def) {
+        return options.getOrDefault(name, def);
+    }
+
+
+    /**************************************************************************
+     * Gets an integer option. The program will exit if the option was given
+     * but isn't a valid integer.
+     * @param name - The name of the option
+     * @param def - The value to use if the option wasn't given
+     * @return - The value of the option
+     *************************************************************************/
+    public int getInt (String name, int def) {
+        return (int) getLong(name, def);
+    }
+
+
+    /**************************************************************************
+     * Gets a long option. The program will exit if the option was given but
+     * isn't a valid integer.
+     * @param name - The name of the option
+     * @param def - The value to use if the option wasn't given
+     * @return - The value of the option
+     *************************************************************************/
+    public long getLong (String name, long def) {
+        String value = options.get(name);
+        if (value == null) return def;
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Utils.errorAndDie("Invalid value for --" + name + "." + usage);
+        }
+
+        return def;
+    }
+
+
+    /**************************************************************************
+     * Gets a boolean option. Only "true" and "false" are accepted.
+     * @param name - The name of the option
+     * @param def - The value to use if the option wasn't given
+     * @return - The value of the option
+     *************************************************************************/
+    public boolean getBoolean (String name, boolean def) {
+        String value = options.get(name);
+        if (value == null) return def;
+
+        if (!value.equals("true") && !value.equals("false")) {
+            Utils.errorAndDie("Invalid value for --" + name + "." + usage);
+        }
+
+        return value.equals("true");
+    }
+}
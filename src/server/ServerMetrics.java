@@ -0,0 +1,431 @@
+package src.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import src.shared.LatencyHistogram;
+import src.shared.Utils;
+
+public class ServerMetrics implements ServerMetricsMBean {
+    public static final String OBJECT_NAME = "networdle:type=ServerMetrics";
+    private static final int MAX_GUESS_BUCKET = 10;
+
+    // Counters are striped, so games on different threads don't contend
+    private final LongAdder activeGames = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder gamesCompleted = new LongAdder();
+    private final LongAdder invalidGuesses = new LongAdder();
+    private final LongAdder hintsNotUsed = new LongAdder();
+    private final LongAdder slowConsumers = new LongAdder();
+    private final LongAdder eventsDropped = new LongAdder();
+    private final LongAdder protocolDrops = new LongAdder();
+    private final LongAdder clientDrops = new LongAdder();
+    private final LongAdder[] timeouts = newAdders(
+                                    GameTimeouts.Kind.values().length);
+    private AdmissionControl admission;     // Counts shed connections
+
+    // Histograms, with latencies in nanoseconds
+    private final LatencyHistogram guessesToWin = new LatencyHistogram();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram hintLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    // The accept rate is worked out over at least a second between reads
+    private long rateTime = System.nanoTime();
+    private long rateCount;
+    private double acceptRate;
+
+    /**************************************************************************
+     * @param count - The number of counters
+     * @return - An array of new counters
+     *************************************************************************/
+    private static LongAdder[] newAdders (int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+
+    /**************************************************************************
+     * Registers the metrics with the platform MBean server so they can be
+     * read over JMX. Failing to register is reported but isn't fatal.
+     *************************************************************************/
+    public void registerMBean () {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+        } catch (JMException e) {
+            Utils.error("Unable to register the server metrics with JMX", e);
+        }
+    }
+
+
+    /**************************************************************************
+     * Sets where the count of shed connections is read from.
+     * @param admission - The server's admission control
+     *************************************************************************/
+    public void setAdmissionControl (AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+
+    /**************************************************************************
+     * Records a connection being accepted.
+     *************************************************************************/
+    public void accepted () {
+        accepted.increment();
+    }
+
+
+    /**************************************************************************
+     * Records a game starting on a new connection.
+     *************************************************************************/
+    public void gameOpened () {
+        activeGames.increment();
+    }
+
+
+    /**************************************************************************
+     * Records a game's connection being closed, for whatever reason.
+     *************************************************************************/
+    public void gameClosed () {
+        activeGames.decrement();
+    }
+
+
+    /**************************************************************************
+     * Records a game being won.
+     * @param guesses - The number of guesses it took
+     *************************************************************************/
+    public void gameWon (int guesses) {
+        gamesCompleted.increment();
+        guessesToWin.record(guesses);
+    }
+
+
+    /**************************************************************************
+     * Records a guess that wasn't in the guess list.
+     *************************************************************************/
+    public void invalidGuess () {
+        invalidGuesses.increment();
+    }
+
+
+    /**************************************************************************
+     * Records a hard mode guess refused for not using every hint.
+     *************************************************************************/
+    public void hintNotUsed () {
+        hintsNotUsed.increment();
+    }
+
+
+    /**************************************************************************
+     * Records a race room member closed for falling too far behind.
+     *************************************************************************/
+    public void slowConsumer () {
+        slowConsumers.increment();
+    }
+
+
+    /**************************************************************************
+     * Records game events that a subscriber never got, either because the
+     * event stream was full or the subscriber fell behind.
+     * @param count - The number of events
+     *************************************************************************/
+    public void eventsDropped (long count) {
+        eventsDropped.add(count);
+    }
+
+
+    /**************************************************************************
+     * Records a client being dropped for breaking the protocol.
+     *************************************************************************/
+    public void protocolDrop () {
+        protocolDrops.increment();
+    }
+
+
+    /**************************************************************************
+     * Records a client hanging up, or its connection failing, mid game.
+     *************************************************************************/
+    public void clientDrop () {
+        clientDrops.increment();
+    }
+
+
+    /**************************************************************************
+     * Records a client being closed for taking too long.
+     * @param kind - The limit it went over
+     *************************************************************************/
+    public void timedOut (GameTimeouts.Kind kind) {
+        timeouts[kind.ordinal()].increment();
+    }
+
+
+    /**************************************************************************
+     * @return - The time taken to read each message, in nanoseconds
+     *************************************************************************/
+    public LatencyHistogram getReadLatency () {
+        return readLatency;
+    }
+
+
+    /**************************************************************************
+     * @return - The time taken to generate each hint, in nanoseconds
+     *************************************************************************/
+    public LatencyHistogram getHintLatency () {
+        return hintLatency;
+    }
+
+
+    /**************************************************************************
+     * @return - The time taken to write each batch of replies, in
+     *           nanoseconds
+     *************************************************************************/
+    public LatencyHistogram getWriteLatency () {
+        return writeLatency;
+    }
+
+
+    @Override
+    public long getActiveGames () {
+        return activeGames.sum();
+    }
+
+
+    @Override
+    public long getAcceptedTotal () {
+        return accepted.sum();
+    }
+
+
+    @Override
+    public synchronized double getAcceptsPerSecond () {
+        long now = System.nanoTime();
+
+        if (now - rateTime >= TimeUnit.SECONDS.toNanos(1)) {
+            long count = accepted.sum();
+            acceptRate = (count - rateCount) * 1e9 / (now - rateTime);
+            rateCount = count;
+            rateTime = now;
+        }
+
+        return acceptRate;
+    }
+
+
+    @Override
+    public long getGamesCompleted () {
+        return gamesCompleted.sum();
+    }
+
+
+    @Override
+    public long getInvalidGuesses () {
+        return invalidGuesses.sum();
+    }
+
+
+    @Override
+    public long getHintsNotUsed () {
+        return hintsNotUsed.sum();
+    }
+
+
+    @Override
+    public long getSlowConsumers () {
+        return slowConsumers.sum();
+    }
+
+
+    @Override
+    public long getEventsDropped () {
+        return eventsDropped.sum();
+    }
+
+
+    @Override
+    public long getProtocolDrops () {
+        return protocolDrops.sum();
+    }
+
+
+    @Override
+    public long getClientDrops () {
+        return clientDrops.sum();
+    }
+
+
+    @Override
+    public long getHandshakeTimeouts () {
+        return timeouts[GameTimeouts.Kind.HANDSHAKE.ordinal()].sum();
+    }
+
+
+    @Override
+    public long getIdleTimeouts () {
+        return timeouts[GameTimeouts.Kind.IDLE.ordinal()].sum();
+    }
+
+
+    @Override
+    public long getGameTimeouts () {
+        return timeouts[GameTimeouts.Kind.GAME.ordinal()].sum();
+    }
+
+
+    @Override
+    public long getDroppedLogEvents () {
+        return Utils.getDroppedCount();
+    }
+
+
+    @Override
+    public double getMeanGuessesToWin () {
+        return guessesToWin.getMean();
+    }
+
+
+    @Override
+    public double getReadLatencyP50Micros () {
+        return readLatency.percentile(50) / 1e3;
+    }
+
+
+    @Override
+    public double getReadLatencyP99Micros () {
+        return readLatency.percentile(99) / 1e3;
+    }
+
+
+    @Override
+    public double getHintLatencyP50Micros () {
+        return hintLatency.percentile(50) / 1e3;
+    }
+
+
+    @Override
+    public double getHintLatencyP99Micros () {
+        return hintLatency.percentile(99) / 1e3;
+    }
+
+
+    @Override
+    public double getWriteLatencyP50Micros () {
+        return writeLatency.percentile(50) / 1e3;
+    }
+
+
+    @Override
+    public double getWriteLatencyP99Micros () {
+        return writeLatency.percentile(99) / 1e3;
+    }
+
+
+    /**************************************************************************
+     * Renders every metric in the Prometheus text format, for the scrape
+     * endpoint. Latencies are given in seconds.
+     * @return - The metrics, one per line
+     *************************************************************************/
+    public String scrape () {
+        StringBuilder sb = new StringBuilder(2048);
+        String name;
+
+        gauge(sb, "networdle_active_games", getActiveGames());
+        counter(sb, "networdle_accepted_total", getAcceptedTotal());
+        gauge(sb, "networdle_accepts_per_second", getAcceptsPerSecond());
+        counter(sb, "networdle_games_completed_total", getGamesCompleted());
+        counter(sb, "networdle_invalid_guesses_total", getInvalidGuesses());
+        counter(sb, "networdle_hints_not_used_total", getHintsNotUsed());
+        counter(sb, "networdle_slow_consumers_total", getSlowConsumers());
+        counter(sb, "networdle_events_dropped_total", getEventsDropped());
+        counter(sb, "networdle_protocol_drops_total", getProtocolDrops());
+        counter(sb, "networdle_client_drops_total", getClientDrops());
+        counter(sb, "networdle_log_dropped_total", getDroppedLogEvents());
+        counter(sb, "networdle_shed_total", admission.getShedCount());
+
+        // Timeouts, labelled by the limit that was hit
+        name = "networdle_timeouts_total";
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (GameTimeouts.Kind kind : GameTimeouts.Kind.values()) {
+            sb.append(name).append("{kind=\"")
+              .append(kind.name().toLowerCase()).append("\"} ")
+              .append(timeouts[kind.ordinal()].sum()).append('\n');
+        }
+
+        // Guesses to win, as a cumulative histogram
+        name = "networdle_guesses_to_win";
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        for (int i = 1; i <= MAX_GUESS_BUCKET; i++) {
+            sb.append(name).append("_bucket{le=\"").append(i).append("\"} ")
+              .append(guessesToWin.countAtOrBelow(i)).append('\n');
+        }
+        sb.append(name).append("_bucket{le=\"+Inf\"} ")
+          .append(guessesToWin.getCount()).append('\n');
+        sb.append(name).append("_sum ").append(guessesToWin.getSum())
+          .append('\n');
+        sb.append(name).append("_count ").append(guessesToWin.getCount())
+          .append('\n');
+
+        summary(sb, "networdle_read_latency_seconds", readLatency);
+        summary(sb, "networdle_hint_latency_seconds", hintLatency);
+        summary(sb, "networdle_write_latency_seconds", writeLatency);
+
+        return sb.toString();
+    }
+
+
+    /**************************************************************************
+     * Appends a counter to a scrape.
+     * @param sb - The scrape being built
+     * @param name - The name of the metric
+     * @param value - The value of the metric
+     *************************************************************************/
+    private static void counter (StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+
+    /**************************************************************************
+     * Appends a gauge to a scrape.
+     * @param sb - The scrape being built
+     * @param name - The name of the metric
+     * @param value - The value of the metric
+     *************************************************************************/
+    private static void gauge (StringBuilder sb, String name, double value) {
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+
+    /**************************************************************************
+     * Appends a latency histogram to a scrape as a summary, converting it
+     * from nanoseconds to seconds.
+     * @param sb - The scrape being built
+     * @param name - The name of the metric
+     * @param histogram - The latencies to summarise
+     *************************************************************************/
+    private static void summary (StringBuilder sb, String name,
+                                 LatencyHistogram histogram)
+    {
+        double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (double q : quantiles) {
+            sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+              .append(histogram.percentile(q * 100) / 1e9).append('\n');
+        }
+        sb.append(name).append("_sum ").append(histogram.getSum() / 1e9)
+          .append('\n');
+        sb.append(name).append("_count ").append(histogram.getCount())
+          .append('\n');
+    }
+}
@@ -0,0 +1,29 @@
+package src.server;
+
+/******************************************************************************
+ * The attributes of ServerMetrics that are published over JMX. Latencies are
+ * in microseconds.
+ *****************************************************************************/
+public interface ServerMetricsMBean {
+    long getActiveGames ();
+    long getAcceptedTotal ();
+    double getAcceptsPerSecond ();
+    long getGamesCompleted ();
+    long getInvalidGuesses ();
+    long getHintsNotUsed ();
+    long getSlowConsumers ();
+    long getEventsDropped ();
+    long getProtocolDrops ();
+    long getClientDrops ();
+    long getHandshakeTimeouts ();
+    long getIdleTimeouts ();
+    long getGameTimeouts ();
+    long getDroppedLogEvents ();
+    double getMeanGuessesToWin ();
+    double getReadLatencyP50Micros ();
+    double getReadLatencyP99Micros ();
+    double getHintLatencyP50Micros ();
+    double getHintLatencyP99Micros ();
+    double getWriteLatencyP50Micros ();
+    double getWriteLatencyP99Micros ();
+}
@@ -0,0 +1,232 @@
+package src.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import src.shared.Utils;
+
+public class TimerWheel implements Runnable {
+
+    /**************************************************************************
+     * A task scheduled to run once its deadline passes. Scheduling,
+     * rescheduling and cancelling are all O(1), whatever the number of
+     * timeouts, and can be done from any thread.
+     *************************************************************************/
+    public class Timeout {
+        private final Runnable task;        // Run when the timeout fires
+        private volatile long deadline;     // When to fire, from nanoTime
+        private volatile boolean cancelled; // Set once it should never fire
+        private volatile boolean fired;     // Set while out of the wheel
+
+        // Only touched by the wheel thread
+        private Timeout prev;               // Neighbours in the bucket
+        private Timeout next;
+        private Bucket bucket;              // The bucket it's in, or null
+        private long rounds;                // Turns of the wheel left
+
+        private Timeout (Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+
+        /**********************************************************************
+         * Moves the deadline to a given time from now. Pushing the deadline
+         * back, the usual case for an idle timeout, only stores the new
+         * time; the wheel notices when the old one comes round. A timeout
+         * that has already fired is put back in the wheel.
+         * @param delayNanos - The new delay, from now
+         *********************************************************************/
+        public void reschedule (long delayNanos) {
+            long newDeadline = System.nanoTime() + delayNanos;
+            long old = deadline;
+            deadline = newDeadline;
+
+            // Bringing it forward needs it moved to an earlier bucket
+            if (newDeadline < old || fired) pending.add(this);
+        }
+
+
+        /**********************************************************************
+         * Stops the timeout from firing. It's taken out of the wheel on the
+         * next tick.
+         *********************************************************************/
+        public void cancel () {
+            if (cancelled) return;
+
+            cancelled = true;
+            pending.add(this);
+        }
+    }
+
+    /**************************************************************************
+     * One slot of the wheel, holding a doubly linked list of timeouts.
+     *************************************************************************/
+    private static class Bucket {
+        private Timeout head;
+
+        private void add (Timeout t) {
+            t.bucket = this;
+            t.prev = null;
+            t.next = head;
+            if (head != null) head.prev = t;
+            head = t;
+        }
+
+        private void remove (Timeout t) {
+            if (t.prev != null) t.prev.next = t.next;
+            else head = t.next;
+            if (t.next != null) t.next.prev = t.prev;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+    }
+
+    private final Bucket[] wheel;       // The slots, one per tick
+    private final int mask;             // Wheel size minus one
+    private final long tickNanos;       // Time covered by each slot
+    private final long startTime;       // When tick 0 began
+
+    // Timeouts to add, move or remove on the next tick
+    private final ConcurrentLinkedQueue<Timeout> pending;
+    private long tick;                  // The next tick to process
+
+    /**************************************************************************
+     * Constructor for the TimerWheel class. Starts the single thread that
+     * turns the wheel and runs every task. Tasks must be short, and should
+     * hand any real work to another thread.
+     * @param tickMillis - The time covered by each slot, which is how late a
+     *                     timeout can fire
+     * @param slots - The number of slots, rounded up to a power of two
+     *************************************************************************/
+    public TimerWheel (long tickMillis, int slots) {
+        int size = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.startTime = System.nanoTime();
+        this.pending = new ConcurrentLinkedQueue<Timeout>();
+
+        Thread thread = new Thread(this, "timer-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**************************************************************************
+     * Schedules a task to run after a delay.
+     * @param task - The task to run
+     * @param delayNanos - The delay before it runs
+     * @return - The timeout, for rescheduling or cancelling it
+     *************************************************************************/
+    public Timeout schedule (Runnable task, long delayNanos) {
+        Timeout t = new Timeout(task, System.nanoTime() + delayNanos);
+        pending.add(t);
+        return t;
+    }
+
+
+    /**************************************************************************
+     * The wheel thread's main loop. Sleeps until the end of each tick, then
+     * takes in any new or changed timeouts and works through the tick's
+     * bucket.
+     *************************************************************************/
+    @Override
+    public void run () {
+        while (true) {
+            long tickEnd = startTime + (tick + 1) * tickNanos;
+            long wait = tickEnd - System.nanoTime();
+
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            takePending();
+            expire(wheel[(int) tick & mask], tickEnd);
+            tick++;
+        }
+    }
+
+
+    /**************************************************************************
+     * Adds new timeouts to the wheel, and moves or removes changed ones.
+     *************************************************************************/
+    private void takePending () {
+        Timeout t;
+
+        while ((t = pending.poll()) != null) {
+            if (t.bucket != null) t.bucket.remove(t);
+            if (!t.cancelled) {
+                t.fired = false;
+                insert(t);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Puts a timeout in the bucket for its deadline. Deadlines that have
+     * already passed go in the current tick's bucket.
+     * @param t - The timeout to insert
+     *************************************************************************/
+    private void insert (Timeout t) {
+        long ticks = Math.max(tick,
+                        Math.floorDiv(t.deadline - startTime, tickNanos));
+
+        t.rounds = (ticks - tick) / wheel.length;
+        wheel[(int) ticks & mask].add(t);
+    }
+
+
+    /**************************************************************************
+     * Fires every timeout in a bucket that's due. Timeouts for a later turn
+     * of the wheel stay put, and ones whose deadline was pushed back are
+     * moved to their new bucket.
+     * @param bucket - The bucket for the current tick
+     * @param tickEnd - The end of the current tick
+     *************************************************************************/
+    private void expire (Bucket bucket, long tickEnd) {
+        Timeout t = bucket.head;
+
+        while (t != null) {
+            Timeout next = t.next;
+
+            if (t.cancelled) {
+                bucket.remove(t);
+            } else if (t.rounds > 0) {
+                t.rounds--;
+            } else if (t.deadline > tickEnd) {
+                bucket.remove(t);
+                insert(t);
+            } else {
+                bucket.remove(t);
+                fire(t);
+            }
+
+            t = next;
+        }
+    }
+
+
+    /**************************************************************************
+     * Runs a timeout's task, reporting any error so one bad task can't stop
+     * the wheel.
+     * @param t - The timeout to fire
+     *************************************************************************/
+    private static void fire (Timeout t) {
+        t.fired = true;
+
+        try {
+            t.task.run();
+        } catch (RuntimeException e) {
+            Utils.error("A timeout task failed", e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package src.shared;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class AsyncLogger implements Runnable {
+    /**************************************************************************
+     * What to do with an event when the buffer is full.
+     *************************************************************************/
+    public enum FullPolicy {
+        DROP,       // Throw the event away and count it
+        BLOCK       // Wait for the writer to make room
+    }
+
+    private static final int BATCH_CHARS = 64 * 1024;
+    private static final long FULL_PARK_NANOS =
+                                TimeUnit.MICROSECONDS.toNanos(50);
+
+    // The ring buffer. Each slot's sequence says whether it's free to claim
+    // for a position, or holds the event for that position and is ready to
+    // be drained, so producers never need a lock.
+    private final String[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;      // Next position for a producer
+    private long head;                  // Next position for the writer
+    private volatile long written;      // Positions written out so far
+    private final AtomicBoolean idle;   // If the writer may be parked
+
+    private final FullPolicy policy;    // What to do when the buffer is full
+    private final LongAdder dropped;    // Events thrown away when full
+    private final Thread writer;        // Drains the buffer to stdout
+
+    /**************************************************************************
+     * Constructor for the AsyncLogger class. Starts the background thread
+     * that writes every event to standard out.
+     * @param capacity - The number of events the buffer can hold, rounded
+     *                   up to a power of two
+     * @param policy - What to do with an event when the buffer is full
+     *************************************************************************/
+    public AsyncLogger (int capacity, FullPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        this.slots = new String[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.policy = policy;
+        this.dropped = new LongAdder();
+        this.idle = new AtomicBoolean();
+
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+
+        this.writer = new Thread(this, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+
+    /**************************************************************************
+     * Queues an event to be written. Never blocks unless the buffer is full
+     * and the policy is to block.
+     * @param event - The fully formatted event
+     * @return - True if the event was queued, or false if it was dropped
+     *************************************************************************/
+    public boolean log (String event) {
+        while (!offer(event)) {
+            if (policy == FullPolicy.DROP || !writer.isAlive()) {
+                dropped.increment();
+                return false;
+            }
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Tries to claim the next slot in the buffer for an event.
+     * @param event - The event to store
+     * @return - False if the buffer is full
+     *************************************************************************/
+    private boolean offer (String event) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = event;
+                    sequences.set(index, pos + 1);
+                    if (idle.get() && idle.compareAndSet(true, false)) {
+                        LockSupport.unpark(writer);
+                    }
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * @return - True if the next event in the buffer is ready to be taken
+     *************************************************************************/
+    private boolean hasEvents () {
+        return sequences.get((int) head & mask) == head + 1;
+    }
+
+
+    /**************************************************************************
+     * Takes the next event from the buffer. Only called by the writer.
+     * @return - The event, or null if the next one isn't ready yet
+     *************************************************************************/
+    private String poll () {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) return null;
+
+        String event = slots[index];
+        slots[index] = null;
+        sequences.set(index, head + mask + 1);
+        head++;
+        return event;
+    }
+
+
+    /**************************************************************************
+     * The writer's main loop. Drains every event that's ready into one batch
+     * and writes it with a single call, then parks until an event is logged
+     * if there was nothing to write.
+     *
+     * The writer marks itself idle before checking the buffer one last
+     * time, and a producer checks the mark after adding its event, so
+     * whichever goes second sees the other: either the event is found, or
+     * the producer unparks the writer.
+     *************************************************************************/
+    @Override
+    public void run () {
+        StringBuilder batch = new StringBuilder(BATCH_CHARS);
+
+        while (true) {
+            String event;
+            while (batch.length() < BATCH_CHARS && (event = poll()) != null) {
+                batch.append(event);
+            }
+
+            if (batch.length() == 0) {
+                idle.set(true);
+                if (!hasEvents()) LockSupport.park(this);
+                idle.set(false);
+                continue;
+            }
+
+            byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+            System.out.write(bytes, 0, bytes.length);
+            System.out.flush();
+            batch.setLength(0);
+            written = head;
+        }
+    }
+
+
+    /**************************************************************************
+     * Waits until every event queued before the call has been written.
+     *************************************************************************/
+    public void flush () {
+        long target = tail.get();
+
+        while (written < target && writer.isAlive()) {
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+    }
+
+
+    /**************************************************************************
+     * @return - The number of events dropped because the buffer was full
+     *************************************************************************/
+    public long getDroppedCount () {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,121 @@
+package src.shared;
+
+/******************************************************************************
+ * A compact binary form of the networdle protocol, for bots. A client asks
+ * for it by sending START GAME BINARY, as a normal text message, instead of
+ * START GAME. Every message after that is a fixed size frame:
+ *
+ *   client to server: a guess as a 3 byte big endian number, with each
+ *                     letter's code from WordDictionary, 1 for A to 26
+ *                     for Z or 0 for anything else, as a base 27 digit,
+ *                     first letter most significant
+ *   server to client: a status byte followed by a value byte
+ *
+ * The statuses mirror the text replies. The game starts with START, each
+ * guess gets back a HINT with its encoded hint from HintEngine, or
+ * INVALID_GUESS, and a winning guess gets WIN with the number of guesses
+ * taken, followed by GAME_OVER. A client that takes too long gets
+ * TIMED_OUT before it's closed. A hard mode game is started with START GAME
+ * BINARY HARD, and a guess that doesn't use every hint so far gets
+ * HINT_NOT_USED.
+ *****************************************************************************/
+public class BinaryProtocol {
+    public static final String START_GAME = "START GAME BINARY";
+    public static final byte[] START_GAME_BYTES =
+                            MessageCodec.encode(START_GAME);
+    public static final String START_HARD_GAME = "START GAME BINARY HARD";
+    public static final byte[] START_HARD_GAME_BYTES =
+                            MessageCodec.encode(START_HARD_GAME);
+
+    public static final int GUESS_BYTES = 3;
+    public static final int REPLY_BYTES = 2;
+
+    // Reply statuses
+    public static final byte HINT = 0;
+    public static final byte START = 1;
+    public static final byte INVALID_GUESS = 2;
+    public static final byte WIN = 3;
+    public static final byte GAME_OVER = 4;
+    public static final byte TIMED_OUT = 5;
+    public static final byte HINT_NOT_USED = 6;
+
+    private static final int PACKED_BITS =
+                    WordDictionary.WORD_LENGTH * WordDictionary.BITS_PER_LETTER;
+    private static final int LETTER_MASK =
+                    (1 << WordDictionary.BITS_PER_LETTER) - 1;
+    private static final int RADIX = 27;        // Letter codes 0 to 26
+    private static final int GUESS_LIMIT =      // RADIX ^ WORD_LENGTH
+                    RADIX * RADIX * RADIX * RADIX * RADIX;
+
+    /**************************************************************************
+     * Writes a packed guess as a frame. Packed words spend 5 bits on each
+     * letter but only use 27 of the 32 codes, so the letters are sent as
+     * base 27 digits, which fit five letters in 3 bytes instead of 4.
+     * @param packed - The packed guess, as from WordDictionary.pack
+     * @param b - The array to write the frame into
+     * @param off - The index to write the frame at
+     *************************************************************************/
+    public static void writeGuess (int packed, byte[] b, int off) {
+        int value = 0;
+
+        for (int shift = PACKED_BITS - WordDictionary.BITS_PER_LETTER;
+             shift >= 0; shift -= WordDictionary.BITS_PER_LETTER)
+        {
+            value = value * RADIX + ((packed >>> shift) & LETTER_MASK);
+        }
+
+        b[off] = (byte) (value >>> 16);
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) value;
+    }
+
+
+    /**************************************************************************
+     * Reads a guess from a frame and packs it as in WordDictionary.
+     * @param b - The array containing the frame
+     * @param off - The index of the first byte of the frame
+     * @return - The packed guess, or WordDictionary.INVALID_WORD if the
+     *           frame holds more than five base 27 digits
+     *************************************************************************/
+    public static int readGuess (byte[] b, int off) {
+        int value = (b[off] & 0xFF) << 16 | (b[off + 1] & 0xFF) << 8
+                  | (b[off + 2] & 0xFF);
+        if (value >= GUESS_LIMIT) return WordDictionary.INVALID_WORD;
+
+        int packed = 0;
+        for (int shift = 0; shift < PACKED_BITS;
+             shift += WordDictionary.BITS_PER_LETTER)
+        {
+            packed |= (value % RADIX) << shift;
+            value /= RADIX;
+        }
+
+        return packed;
+    }
+
+
+    /**************************************************************************
+     * Checks that a guess read from a frame could be a packed word. A frame
+     * too large to be five base 27 digits isn't following the protocol.
+     * Letter codes of 0 just make it a word that isn't in the guess list.
+     * @param packed - The guess read from a frame
+     * @return - True if the guess is well formed
+     *************************************************************************/
+    public static boolean isWellFormed (int packed) {
+        return (packed >>> PACKED_BITS) == 0;
+    }
+
+
+    /**************************************************************************
+     * Writes a reply frame.
+     * @param status - The status of the reply
+     * @param value - The hint or guess count, or 0 if the status has none.
+     *                Guess counts above 255 are sent as 255.
+     * @param b - The array to write the frame into
+     * @param off - The index to write the frame at
+     *************************************************************************/
+    public static void writeReply (byte status, int value, byte[] b, int off) {
+        b[off] = status;
+        b[off + 1] = (byte) Math.min(value, 0xFF);
+    }
+}
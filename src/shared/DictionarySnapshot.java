@@ -0,0 +1,216 @@
+package src.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+public class DictionarySnapshot {
+    public static final int MAGIC = 0x4E574453;     // "NWDS"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+
+    /**************************************************************************
+     * Loads a dictionary from a snapshot file, compiling the snapshot from
+     * the text word lists first if it's missing, corrupt, out of date, or
+     * from an older version of the format. The snapshot is memory mapped, so
+     * the words are never copied onto the heap.
+     * @param snapshotPath - The path to the binary snapshot
+     * @param guessPath - The path to the text list of valid guesses
+     * @param targetPath - The path to the text list of target words
+     * @return - A dictionary served from the mapped snapshot
+     * @throws IOException - If the snapshot can't be read or compiled
+     *************************************************************************/
+    public static WordDictionary loadOrCompile (String snapshotPath,
+                                                String guessPath,
+                                                String targetPath)
+        throws IOException
+    {
+        File snapshot = new File(snapshotPath);
+
+        if (isStale(snapshot, guessPath, targetPath)) {
+            Utils.info("Compiling dictionary snapshot " + snapshotPath);
+            compile(snapshotPath, guessPath, targetPath);
+            return map(snapshotPath);
+        }
+
+        try {
+            return map(snapshotPath);
+        } catch (IOException e) {
+            Utils.error("Dictionary snapshot is unusable, recompiling", e);
+            compile(snapshotPath, guessPath, targetPath);
+            return map(snapshotPath);
+        }
+    }
+
+
+    /**************************************************************************
+     * Checks if a snapshot needs to be recompiled because it doesn't exist
+     * or is older than one of the word lists it was compiled from.
+     * @param snapshot - The snapshot file
+     * @param guessPath - The path to the text list of valid guesses
+     * @param targetPath - The path to the text list of target words
+     * @return - True if the snapshot should be recompiled
+     *************************************************************************/
+    private static boolean isStale (File snapshot, String guessPath,
+                                    String targetPath)
+    {
+        if (!snapshot.isFile()) return true;
+
+        long built = snapshot.lastModified();
+        return new File(guessPath).lastModified() > built
+            || new File(targetPath).lastModified() > built;
+    }
+
+
+    /**************************************************************************
+     * Compiles the text word lists into a binary snapshot. The snapshot is
+     * written to a temporary file and then moved into place, so a server
+     * that's starting at the same time never maps a half written file.
+     * @param snapshotPath - The path to write the snapshot to
+     * @param guessPath - The path to the text list of valid guesses
+     * @param targetPath - The path to the text list of target words
+     * @throws IOException - If the word lists can't be read or the snapshot
+     *                       can't be written
+     *************************************************************************/
+    public static void compile (String snapshotPath, String guessPath,
+                                String targetPath)
+        throws IOException
+    {
+        WordDictionary dictionary = WordDictionary.load(guessPath, targetPath);
+        int guessCount = dictionary.guessCount();
+        int targetCount = dictionary.targetCount();
+
+        // Lay out the sorted guesses followed by the targets
+        ByteBuffer payload = ByteBuffer.allocate(4 * (guessCount + targetCount));
+        for (int i = 0; i < guessCount; i++) {
+            payload.putInt(dictionary.guessPacked(i));
+        }
+        for (int i = 0; i < targetCount; i++) {
+            payload.putInt(dictionary.targetPacked(i));
+        }
+        payload.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(WordDictionary.WORD_LENGTH);
+        header.putInt(guessCount);
+        header.putInt(targetCount);
+        header.putInt(0); // Reserved
+        header.putLong(checksum(payload));
+        header.flip();
+
+        Path target = Paths.get(snapshotPath);
+        Path temp = Paths.get(snapshotPath + ".tmp");
+
+        try (FileChannel fc = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (header.hasRemaining()) fc.write(header);
+            while (payload.hasRemaining()) fc.write(payload);
+            fc.force(true);
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**************************************************************************
+     * Memory maps a snapshot file and checks its header and checksum.
+     * @param snapshotPath - The path to the snapshot
+     * @return - A dictionary served from the mapped file
+     * @throws IOException - If the file can't be mapped or isn't a valid
+     *                       snapshot for this version
+     *************************************************************************/
+    public static WordDictionary map (String snapshotPath) throws IOException {
+        MappedByteBuffer buf;
+
+        // The mapping stays valid after the channel has been closed
+        try (FileChannel fc = FileChannel.open(Paths.get(snapshotPath),
+                                               StandardOpenOption.READ))
+        {
+            if (fc.size() < HEADER_BYTES) {
+                throw new IOException("Snapshot is too small");
+            }
+            buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("Snapshot has a bad magic number");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("Snapshot version " + buf.getInt(4)
+                                  + " isn't supported");
+        }
+        if (buf.getInt(8) != WordDictionary.WORD_LENGTH) {
+            throw new IOException("Snapshot has the wrong word length");
+        }
+
+        int guessCount = buf.getInt(12);
+        int targetCount = buf.getInt(16);
+        long expected = buf.getLong(24);
+
+        if (guessCount < 0 || targetCount < 0 || buf.capacity()
+                != HEADER_BYTES + 4L * ((long) guessCount + targetCount))
+        {
+            throw new IOException("Snapshot has a bad length");
+        }
+
+        ByteBuffer payload = buf.slice(HEADER_BYTES,
+                                       buf.capacity() - HEADER_BYTES);
+        if (checksum(payload) != expected) {
+            throw new IOException("Snapshot checksum doesn't match");
+        }
+
+        IntBuffer guesses = payload.slice(0, 4 * guessCount).asIntBuffer();
+        IntBuffer targets = payload.slice(4 * guessCount, 4 * targetCount)
+                                   .asIntBuffer();
+
+        return new WordDictionary(guesses, targets);
+    }
+
+
+    /**************************************************************************
+     * Calculates the CRC32 checksum of a buffer's remaining bytes without
+     * changing its position.
+     * @param buf - The buffer to checksum
+     * @return - The checksum
+     *************************************************************************/
+    private static long checksum (ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate());
+        return crc.getValue();
+    }
+
+
+    /**************************************************************************
+     * Compiles a snapshot ahead of time, for example as part of a build or
+     * an image bake, so servers never compile one on startup.
+     * @param args - The snapshot, guess list and target list paths
+     *************************************************************************/
+    public static void main (String[] args) {
+        if (args.length < 3) {
+            Utils.errorAndDie("Invalid parameters.\nUsage: DictionarySnapshot"
+                        + " {snapshot} {guess list} {target list}");
+        }
+
+        try {
+            compile(args[0], args[1], args[2]);
+            Utils.info("Wrote dictionary snapshot " + args[0]);
+        } catch (IOException e) {
+            Utils.errorAndDie("Unable to compile the dictionary snapshot:\n"
+                        + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package src.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+public class FeedbackMatrix {
+    public static final int MAGIC = 0x4E574D58;     // "NWMX"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 24;
+
+    private final ByteBuffer hints;     // One encoded hint per pair
+    private final int guessCount;       // Length of each target's row
+
+    /**************************************************************************
+     * Constructor for the FeedbackMatrix class.
+     * @param hints - The encoded hints, one row of guesses per target
+     * @param guessCount - The number of guesses in each row
+     *************************************************************************/
+    private FeedbackMatrix (ByteBuffer hints, int guessCount) {
+        this.hints = hints;
+        this.guessCount = guessCount;
+    }
+
+
+    /**************************************************************************
+     * Gets the encoded hint for a guess against a target word. This is a
+     * single read from the matrix.
+     * @param targetIndex - The index of the target word in the dictionary
+     * @param guessIndex - The index of the guess in the dictionary
+     * @return - The encoded hint, as from HintEngine.score
+     *************************************************************************/
+    public int hint (int targetIndex, int guessIndex) {
+        return hints.get(targetIndex * guessCount + guessIndex) & 0xFF;
+    }
+
+
+    /**************************************************************************
+     * Works out the hint for every target and guess pair in a dictionary.
+     * Rows are computed in parallel across targets on the common fork join
+     * pool.
+     * @param dictionary - The dictionary to build the matrix for
+     * @return - The built matrix
+     *************************************************************************/
+    public static FeedbackMatrix build (WordDictionary dictionary) {
+        int guessCount = dictionary.guessCount();
+        int targetCount = dictionary.targetCount();
+        byte[] hints = new byte[Math.multiplyExact(guessCount, targetCount)];
+
+        IntStream.range(0, targetCount).parallel().forEach(t -> {
+            int target = dictionary.targetPacked(t);
+            int row = t * guessCount;
+
+            for (int g = 0; g < guessCount; g++) {
+                hints[row + g] = (byte) HintEngine.score(
+                                        dictionary.guessPacked(g), target);
+            }
+        });
+
+        return new FeedbackMatrix(ByteBuffer.wrap(hints), guessCount);
+    }
+
+
+    /**************************************************************************
+     * Loads a matrix from a cache file, building and saving it first if the
+     * file is missing or was built for different word lists.
+     * @param cachePath - The path to the cache file
+     * @param dictionary - The dictionary the matrix is for
+     * @return - The matrix
+     *************************************************************************/
+    public static FeedbackMatrix loadOrBuild (String cachePath,
+                                              WordDictionary dictionary)
+    {
+        if (new File(cachePath).isFile()) {
+            try {
+                return map(cachePath, dictionary);
+            } catch (IOException e) {
+                Utils.error("Feedback matrix cache is unusable, rebuilding",
+                            e);
+            }
+        }
+
+        Utils.info("Building feedback matrix " + cachePath);
+        FeedbackMatrix matrix = build(dictionary);
+
+        try {
+            matrix.save(cachePath, dictionary);
+        } catch (IOException e) {
+            Utils.error("Unable to save the feedback matrix cache", e);
+        }
+
+        return matrix;
+    }
+
+
+    /**************************************************************************
+     * Saves the matrix to a cache file. The file is written to a temporary
+     * file and then moved into place.
+     * @param cachePath - The path to save the matrix to
+     * @param dictionary - The dictionary the matrix was built for
+     * @throws IOException - If the file can't be written
+     *************************************************************************/
+    public void save (String cachePath, WordDictionary dictionary)
+        throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(dictionary.targetCount());
+        header.putInt(dictionary.guessCount());
+        header.putLong(dictionary.fingerprint());
+        header.flip();
+
+        ByteBuffer body = hints.duplicate();
+        body.clear();
+
+        Path target = Paths.get(cachePath);
+        Path temp = Paths.get(cachePath + ".tmp");
+
+        try (FileChannel fc = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (header.hasRemaining()) fc.write(header);
+            while (body.hasRemaining()) fc.write(body);
+            fc.force(true);
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**************************************************************************
+     * Memory maps a cache file and checks it was built for the given
+     * dictionary.
+     * @param cachePath - The path to the cache file
+     * @param dictionary - The dictionary the matrix should be for
+     * @return - A matrix served from the mapped file
+     * @throws IOException - If the file can't be mapped or doesn't match
+     *************************************************************************/
+    public static FeedbackMatrix map (String cachePath,
+                                      WordDictionary dictionary)
+        throws IOException
+    {
+        ByteBuffer buf;
+
+        try (FileChannel fc = FileChannel.open(Paths.get(cachePath),
+                                               StandardOpenOption.READ))
+        {
+            if (fc.size() < HEADER_BYTES) {
+                throw new IOException("Feedback matrix is too small");
+            }
+            buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Feedback matrix has the wrong format");
+        }
+
+        int targetCount = buf.getInt(8);
+        int guessCount = buf.getInt(12);
+
+        if (targetCount != dictionary.targetCount()
+            || guessCount != dictionary.guessCount()
+            || buf.getLong(16) != dictionary.fingerprint())
+        {
+            throw new IOException("Feedback matrix is for other word lists");
+        }
+        if (buf.capacity() != HEADER_BYTES + (long) targetCount * guessCount) {
+            throw new IOException("Feedback matrix has a bad length");
+        }
+
+        return new FeedbackMatrix(buf.slice(HEADER_BYTES,
+                    buf.capacity() - HEADER_BYTES), guessCount);
+    }
+}
@@ -0,0 +1,154 @@
+package src.shared;
+
+/******************************************************************************
+ * The constraints of a hard mode game, where every guess must use what the
+ * hints so far have revealed: a letter shown in the right place has to stay
+ * there, and every letter shown as in the word has to be used again.
+ *
+ * The hints are folded in as they're given, so checking a guess never looks
+ * back at earlier ones. Each position keeps a bitmask of the letters it may
+ * hold, and the least number of times each letter must appear is kept as a
+ * 4 bit count per letter, packed into two longs. A guess's letter counts are
+ * packed the same way and compared against them all at once.
+ *****************************************************************************/
+public class HardMode {
+    private static final int ANY_LETTER = ~0;
+    private static final long COUNT_HIGH_BITS = 0x8888888888888888L;
+    private static final int LOW_LETTERS = 16;     // Letters in the low long
+
+    private final int[] allowed;    // Letters each position may hold
+    private long minLow;            // Least counts of A to P
+    private long minHigh;           // Least counts of Q to Z
+    private long targetLow;         // The target's own counts, which the
+    private long targetHigh;        // least counts never go over
+
+    /**************************************************************************
+     * Constructor for the HardMode class. Call reset before the first game.
+     *************************************************************************/
+    public HardMode () {
+        this.allowed = new int[WordDictionary.WORD_LENGTH];
+    }
+
+
+    /**************************************************************************
+     * Clears every constraint, for a new game.
+     * @param target - The packed target word
+     *************************************************************************/
+    public void reset (int target) {
+        for (int i = 0; i < allowed.length; i++) allowed[i] = ANY_LETTER;
+        minLow = 0;
+        minHigh = 0;
+
+        targetLow = 0;
+        targetHigh = 0;
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            int letter = HintEngine.letter(target, i);
+            if (letter <= LOW_LETTERS) {
+                targetLow += countOf(letter);
+            } else {
+                targetHigh += countOf(letter);
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Adds what a hint reveals to the constraints. The hint is the same
+     * encoded score the client was sent, so the constraints can't disagree
+     * with it.
+     *
+     * When a guess repeats a letter, the hint can show more copies of it as
+     * present than the target has, so the counts are capped at the target's
+     * own. Otherwise the target itself could be refused.
+     * @param guess - The packed guess
+     * @param code - The encoded hint the guess was given, see HintEngine
+     *************************************************************************/
+    public void update (int guess, int code) {
+        long low = 0;
+        long high = 0;
+
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            int state = code % 3;
+            code /= 3;
+            if (state == HintEngine.ABSENT) continue;
+
+            int letter = HintEngine.letter(guess, i);
+            if (state == HintEngine.EXACT) allowed[i] = 1 << letter;
+
+            if (letter <= LOW_LETTERS) {
+                low += countOf(letter);
+            } else {
+                high += countOf(letter);
+            }
+        }
+
+        minLow = min(max(minLow, low), targetLow);
+        minHigh = min(max(minHigh, high), targetHigh);
+    }
+
+
+    /**************************************************************************
+     * Checks that a guess keeps to the constraints.
+     * @param guess - The packed guess
+     * @return - True if the guess uses every hint so far
+     *************************************************************************/
+    public boolean allows (int guess) {
+        long low = 0;
+        long high = 0;
+
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            int letter = HintEngine.letter(guess, i);
+            if ((allowed[i] & (1 << letter)) == 0) return false;
+
+            if (letter <= LOW_LETTERS) {
+                low += countOf(letter);
+            } else {
+                high += countOf(letter);
+            }
+        }
+
+        return atLeast(low, minLow) == -1L && atLeast(high, minHigh) == -1L;
+    }
+
+
+    /**************************************************************************
+     * @param letter - The 1 based alphabet position of a letter
+     * @return - A count of one for the letter, in its place in a packed long
+     *************************************************************************/
+    private static long countOf (int letter) {
+        return 1L << (((letter - 1) % LOW_LETTERS) * 4);
+    }
+
+
+    /**************************************************************************
+     * Compares every count in two packed longs at once. Each count is at
+     * most the word length, so setting the top bit of each count in the
+     * first and subtracting the second never borrows across counts, and
+     * leaves that bit set exactly where the first is at least the second.
+     * @param a - The first packed counts
+     * @param b - The second packed counts
+     * @return - All four bits of each count set where a is at least b
+     *************************************************************************/
+    private static long atLeast (long a, long b) {
+        long ge = ((a | COUNT_HIGH_BITS) - b) & COUNT_HIGH_BITS;
+        return (ge >>> 3) * 0xF;
+    }
+
+
+    /**************************************************************************
+     * @return - The larger of each pair of counts in two packed longs
+     *************************************************************************/
+    private static long max (long a, long b) {
+        long mask = atLeast(a, b);
+        return (a & mask) | (b & ~mask);
+    }
+
+
+    /**************************************************************************
+     * @return - The smaller of each pair of counts in two packed longs
+     *************************************************************************/
+    private static long min (long a, long b) {
+        long mask = atLeast(a, b);
+        return (b & mask) | (a & ~mask);
+    }
+}
@@ -0,0 +1,211 @@
+package src.shared;
+
+public class HintEngine {
+    // The state of each letter in a hint
+    public static final int ABSENT = 0;     // Shown as '_'
+    public static final int PRESENT = 1;    // Shown in lower case
+    public static final int EXACT = 2;      // Shown in upper case
+
+    // Number of distinct hints, and the hint for a correct guess
+    public static final int HINT_COUNT = 243;
+    public static final int ALL_EXACT = HINT_COUNT - 1;
+
+    private static final int LETTER_MASK =
+                            (1 << WordDictionary.BITS_PER_LETTER) - 1;
+    private static final int[] POW3 = { 1, 3, 9, 27, 81 };
+
+    /**************************************************************************
+     * Scores a guess against a target word. The result encodes the state of
+     * each letter as a base 3 digit, with the first letter as the lowest
+     * digit, so every hint fits in a single byte. Works entirely on the
+     * packed words and doesn't allocate.
+     *
+     * A letter that isn't in the right place is shown as present as long as
+     * the target has an occurance of it that hasn't been matched yet. Each
+     * present letter then marks the first occurance of that letter in the
+     * target as matched, which is how hints have always been generated.
+     * @param guess - The packed guess
+     * @param target - The packed target word
+     * @return - The encoded hint, from 0 to ALL_EXACT
+     *************************************************************************/
+    public static int score (int guess, int target) {
+        int exact = 0;
+
+        // Find every letter that's in the right place
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            if (letter(guess, i) == letter(target, i)) exact |= 1 << i;
+        }
+
+        int matched = exact;
+        int code = 0;
+
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            if ((exact & (1 << i)) != 0) {
+                code += EXACT * POW3[i];
+                continue;
+            }
+
+            // Positions in the target holding this letter that haven't all
+            // been matched yet
+            int positions = positionsOf(target, letter(guess, i));
+            if ((positions & ~matched) != 0) {
+                code += PRESENT * POW3[i];
+                matched |= Integer.lowestOneBit(positions);
+            }
+        }
+
+        return code;
+    }
+
+
+    /**************************************************************************
+     * Writes the hint for an encoded score into a buffer as ASCII. Letters
+     * in the right place are upper case, letters in the wrong place are
+     * lower case, and letters not in the word are underscores.
+     * @param guess - The packed guess the hint is for
+     * @param code - The encoded hint from score
+     * @param out - The buffer to write the hint to
+     * @param off - The index to write the first letter at
+     *************************************************************************/
+    public static void render (int guess, int code, byte[] out, int off) {
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            int state = code % 3;
+            code /= 3;
+
+            if (state == EXACT) {
+                out[off + i] = (byte) ('A' - 1 + letter(guess, i));
+            } else if (state == PRESENT) {
+                out[off + i] = (byte) ('a' - 1 + letter(guess, i));
+            } else {
+                out[off + i] = (byte) '_';
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Scores a guess against a target word of any length from WordList, by
+     * the same rules as score. Kept apart from the five letter version so
+     * that one stays as fast as it can be. Longer words give codes up to
+     * 3 to the power of their length, which no longer fit in a byte.
+     * @param guess - The guess, packed by WordList
+     * @param target - The target word, packed by WordList
+     * @param length - The length of both words
+     * @return - The encoded hint, with the first letter as the lowest digit
+     *************************************************************************/
+    public static int score (long guess, long target, int length) {
+        int exact = 0;
+
+        for (int i = 0; i < length; i++) {
+            if (letter(guess, i, length) == letter(target, i, length)) {
+                exact |= 1 << i;
+            }
+        }
+
+        int matched = exact;
+        int code = 0;
+        int pow = 1;
+
+        for (int i = 0; i < length; i++, pow *= 3) {
+            if ((exact & (1 << i)) != 0) {
+                code += EXACT * pow;
+                continue;
+            }
+
+            int letter = letter(guess, i, length);
+            int positions = 0;
+            for (int j = 0; j < length; j++) {
+                if (letter(target, j, length) == letter) positions |= 1 << j;
+            }
+
+            if ((positions & ~matched) != 0) {
+                code += PRESENT * pow;
+                matched |= Integer.lowestOneBit(positions);
+            }
+        }
+
+        return code;
+    }
+
+
+    /**************************************************************************
+     * Writes the hint for a word of any length, as render does for five
+     * letter words.
+     * @param guess - The guess, packed by WordList
+     * @param code - The encoded hint from score
+     * @param length - The length of the guess
+     * @param out - The buffer to write the hint to
+     * @param off - The index to write the first letter at
+     *************************************************************************/
+    public static void render (long guess, int code, int length, byte[] out,
+                               int off)
+    {
+        for (int i = 0; i < length; i++) {
+            int state = code % 3;
+            code /= 3;
+
+            if (state == EXACT) {
+                out[off + i] = (byte) ('A' - 1 + letter(guess, i, length));
+            } else if (state == PRESENT) {
+                out[off + i] = (byte) ('a' - 1 + letter(guess, i, length));
+            } else {
+                out[off + i] = (byte) '_';
+            }
+        }
+    }
+
+
+    /**************************************************************************
+     * Gets the state of a single letter from an encoded hint.
+     * @param code - The encoded hint from score
+     * @param index - The position of the letter, starting from zero
+     * @return - ABSENT, PRESENT or EXACT
+     *************************************************************************/
+    public static int stateAt (int code, int index) {
+        return (code / POW3[index]) % 3;
+    }
+
+
+    /**************************************************************************
+     * Gets the 1 based alphabet position of a letter in a packed word.
+     * @param packed - The packed word
+     * @param index - The position of the letter, starting from zero
+     * @return - 1 for A through to 26 for Z
+     *************************************************************************/
+    static int letter (int packed, int index) {
+        int shift = (WordDictionary.WORD_LENGTH - 1 - index)
+                    * WordDictionary.BITS_PER_LETTER;
+        return (packed >>> shift) & LETTER_MASK;
+    }
+
+
+    /**************************************************************************
+     * Gets the 1 based alphabet position of a letter in a word packed by
+     * WordList.
+     * @param packed - The packed word
+     * @param index - The position of the letter, starting from zero
+     * @param length - The length of the word
+     * @return - 1 for A through to 26 for Z
+     *************************************************************************/
+    private static int letter (long packed, int index, int length) {
+        int shift = (length - 1 - index) * WordDictionary.BITS_PER_LETTER;
+        return (int) (packed >>> shift) & LETTER_MASK;
+    }
+
+
+    /**************************************************************************
+     * Gets the positions a letter appears at in a packed word.
+     * @param packed - The packed word
+     * @param letter - The 1 based alphabet position of the letter
+     * @return - A bitmask with bit i set if the letter is at position i
+     *************************************************************************/
+    private static int positionsOf (int packed, int letter) {
+        int positions = 0;
+
+        for (int i = 0; i < WordDictionary.WORD_LENGTH; i++) {
+            if (letter(packed, i) == letter) positions |= 1 << i;
+        }
+
+        return positions;
+    }
+}
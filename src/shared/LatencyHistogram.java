@@ -0,0 +1,168 @@
+package src.shared;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+    // Values below 2^SUB_BITS get their own bucket, and every power of two
+    // above that is split into HALF buckets, so a recorded value is never
+    // off by more than 1 part in 64.
+    private static final int SUB_BITS = 7;
+    private static final int LINEAR = 1 << SUB_BITS;
+    private static final int HALF = LINEAR / 2;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS + 1) * HALF;
+
+    private final LongAdder[] counts;       // Count of values per bucket
+    private final LongAdder total;          // Count of all values
+    private final LongAdder sum;            // Sum of all values
+    private final LongAccumulator max;      // Largest value recorded
+
+    /**************************************************************************
+     * Constructor for the LatencyHistogram class. Values are recorded in
+     * whatever unit the caller chooses, usually nanoseconds, and any number
+     * of threads can record at once without locking. Each bucket is its own
+     * LongAdder, so threads recording into a busy bucket add to separate
+     * cells instead of fighting over one cache line, and the cells are only
+     * summed when the histogram is read.
+     *************************************************************************/
+    public LatencyHistogram () {
+        this.counts = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+
+    /**************************************************************************
+     * Records a single value. Negative values are recorded as zero.
+     * @param value - The value to record
+     *************************************************************************/
+    public void record (long value) {
+        value = Math.max(0, value);
+
+        counts[bucketOf(value)].increment();
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+
+    /**************************************************************************
+     * Works out which bucket a value belongs in.
+     * @param value - The value, which must not be negative
+     * @return - The index of the bucket
+     *************************************************************************/
+    private static int bucketOf (long value) {
+        if (value < LINEAR) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        int sub = (int) (value >>> shift) - HALF;
+        return LINEAR + (shift - 1) * HALF + sub;
+    }
+
+
+    /**************************************************************************
+     * Gets the largest value that would be recorded in a bucket.
+     * @param bucket - The index of the bucket
+     * @return - The top of the bucket's range
+     *************************************************************************/
+    private static long highestValueIn (int bucket) {
+        if (bucket < LINEAR) return bucket;
+
+        int shift = (bucket - LINEAR) / HALF + 1;
+        long sub = (bucket - LINEAR) % HALF + HALF;
+        return (sub << shift) + (1L << shift) - 1;
+    }
+
+
+    /**************************************************************************
+     * Gets the value at a given percentile. The result is the top of the
+     * bucket the percentile falls in, capped at the largest value recorded.
+     * @param percentile - The percentile, from 0 to 100
+     * @return - The value at the percentile, or 0 if nothing was recorded
+     *************************************************************************/
+    public long percentile (double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestValueIn(i), getMax());
+        }
+
+        return getMax();
+    }
+
+
+    /**************************************************************************
+     * Counts the values recorded at or below a given value. The count is
+     * exact for small values, and otherwise includes the whole bucket the
+     * value falls in.
+     * @param value - The value to count up to
+     * @return - The number of values recorded at or below it
+     *************************************************************************/
+    public long countAtOrBelow (long value) {
+        if (value < 0) return 0;
+
+        int last = bucketOf(value);
+        long count = 0;
+        for (int i = 0; i <= last; i++) count += counts[i].sum();
+        return count;
+    }
+
+
+    /**************************************************************************
+     * @return - The number of values recorded
+     *************************************************************************/
+    public long getCount () {
+        return total.sum();
+    }
+
+
+    /**************************************************************************
+     * @return - The sum of every value recorded
+     *************************************************************************/
+    public long getSum () {
+        return sum.sum();
+    }
+
+
+    /**************************************************************************
+     * @return - The largest value recorded, or 0 if nothing was recorded
+     *************************************************************************/
+    public long getMax () {
+        return max.get();
+    }
+
+
+    /**************************************************************************
+     * @return - The mean of the values recorded, or 0 if nothing was recorded
+     *************************************************************************/
+    public double getMean () {
+        long count = getCount();
+        return (count == 0) ? 0 : (double) getSum() / count;
+    }
+
+
+    /**************************************************************************
+     * Summarises the histogram on one line, with values converted from
+     * nanoseconds to microseconds.
+     * @return - The count and the usual percentiles
+     *************************************************************************/
+    public String summaryMicros () {
+        return String.format(
+            "n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f us",
+            getCount(), getMean() / 1e3, percentile(50) / 1e3,
+            percentile(90) / 1e3, percentile(99) / 1e3,
+            percentile(99.9) / 1e3, getMax() / 1e3);
+    }
+}
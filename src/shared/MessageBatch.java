@@ -0,0 +1,112 @@
+package src.shared;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class MessageBatch {
+    private ByteBuffer buf;             // Encoded messages, in fill mode
+
+    /**************************************************************************
+     * Constructor for the MessageBatch class. Each connection should have
+     * its own batch, which is reused for every write on that connection.
+     *************************************************************************/
+    public MessageBatch () {
+        this.buf = ByteBuffer.allocate(MessageCodec.MAX_BYTES);
+    }
+
+
+    /**************************************************************************
+     * Adds a message to the batch, encoding it as ASCII followed by a line
+     * feed. The message is encoded straight into the batch's buffer.
+     * @param message - The message to add
+     *************************************************************************/
+    public void add (String message) {
+        ensureRemaining(message.length() + 1);
+
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            buf.put(c < 128 ? (byte) c : (byte) '?');
+        }
+        buf.put(MessageCodec.LINE_FEED);
+    }
+
+
+    /**************************************************************************
+     * Adds an already encoded message to the batch.
+     * @param encoded - The encoded message, including its line feed
+     *************************************************************************/
+    public void add (byte[] encoded) {
+        add(encoded, 0, encoded.length);
+    }
+
+
+    /**************************************************************************
+     * Adds part of an array holding an already encoded message to the batch.
+     * @param b - The array containing the encoded message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message, including its line feed
+     *************************************************************************/
+    public void add (byte[] b, int off, int len) {
+        ensureRemaining(len);
+        buf.put(b, off, len);
+    }
+
+
+    /**************************************************************************
+     * Grows the buffer if it can't fit a given number of extra bytes.
+     * @param needed - The number of bytes about to be added
+     *************************************************************************/
+    private void ensureRemaining (int needed) {
+        if (buf.remaining() >= needed) return;
+
+        ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.max(buf.capacity() * 2, buf.position() + needed));
+        buf.flip();
+        bigger.put(buf);
+        buf = bigger;
+    }
+
+
+    /**************************************************************************
+     * @return - True if there's nothing waiting to be written
+     *************************************************************************/
+    public boolean isEmpty () {
+        return buf.position() == 0;
+    }
+
+
+    /**************************************************************************
+     * Writes every message in the batch to a stream with a single write, and
+     * empties the batch.
+     * @param stream - The stream to write to
+     * @throws IOException - If the stream can't be written to
+     *************************************************************************/
+    public void writeTo (OutputStream stream) throws IOException {
+        if (isEmpty()) return;
+
+        int count = buf.position();
+        buf.clear();
+        stream.write(buf.array(), 0, count);
+    }
+
+
+    /**************************************************************************
+     * Writes as much of the batch as a non-blocking channel will take. Any
+     * bytes the channel didn't take stay in the batch for the next write.
+     * @param channel - The channel to write to
+     * @return - True if the whole batch was written
+     * @throws IOException - If the channel can't be written to
+     *************************************************************************/
+    public boolean writeTo (WritableByteChannel channel) throws IOException {
+        buf.flip();
+        try {
+            channel.write(buf);
+        } finally {
+            buf.compact();
+        }
+
+        return isEmpty();
+    }
+}
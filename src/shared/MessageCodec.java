@@ -0,0 +1,296 @@
+package src.shared;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+public class MessageCodec {
+    public static final int MAX_BYTES = 256;
+    public static final byte LINE_FEED = 10;
+
+    // Control messages as they appear on the wire, for matching in place
+    public static final byte[] START_GAME =
+                            encode(ProtocolHandler.START_GAME);
+    public static final byte[] START_RESPONSE =
+                            encode(ProtocolHandler.START_RESPONSE);
+    public static final byte[] INVALID_GUESS =
+                            encode(ProtocolHandler.INVALID_GUESS);
+    public static final byte[] END_GAME =
+                            encode(ProtocolHandler.END_GAME);
+    public static final byte[] START_SESSION =
+                            encode(ProtocolHandler.START_SESSION);
+    public static final byte[] SERVER_BUSY =
+                            encode(ProtocolHandler.SERVER_BUSY);
+    public static final byte[] TIMED_OUT =
+                            encode(ProtocolHandler.TIMED_OUT);
+    public static final byte[] PING =
+                            encode(ProtocolHandler.PING);
+    public static final byte[] PONG =
+                            encode(ProtocolHandler.PONG);
+    public static final byte[] START_STATELESS =
+                            encode(ProtocolHandler.START_STATELESS);
+    public static final byte[] INVALID_TOKEN =
+                            encode(ProtocolHandler.INVALID_TOKEN);
+    public static final byte[] START_HARD =
+                            encode(ProtocolHandler.START_HARD);
+    public static final byte[] HINT_NOT_USED =
+                            encode(ProtocolHandler.HINT_NOT_USED);
+    public static final byte[] UNKNOWN_DICTIONARY =
+                            encode(ProtocolHandler.UNKNOWN_DICTIONARY);
+    public static final byte[] START_GAME_WITH =
+            ProtocolHandler.START_GAME_WITH.getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] JOIN_ROOM =
+            ProtocolHandler.JOIN_ROOM.getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] WATCH_ROOM =
+            ProtocolHandler.WATCH_ROOM.getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] WATCHING =
+                            encode(ProtocolHandler.WATCHING);
+    public static final byte[] TOO_SLOW =
+                            encode(ProtocolHandler.TOO_SLOW);
+    public static final byte[] RESUME =
+            ProtocolHandler.RESUME.getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] PLAYER =
+            ProtocolHandler.PLAYER.getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] STATS =
+            ProtocolHandler.STATS.getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] UNKNOWN_PLAYER =
+                            encode(ProtocolHandler.UNKNOWN_PLAYER);
+    public static final byte[] LEADERBOARD =
+                            encode(ProtocolHandler.LEADERBOARD);
+
+    private ByteBuffer buf;             // Received bytes, always in fill mode
+    private int consumed;               // Bytes already handed out as frames
+    private int scanned;                // Bytes already searched for '\n'
+    private int frameOffset;            // Start of the current frame
+    private int frameLength;            // Length of the current frame
+    private int fixedLength;            // Frame length, or 0 for lines
+
+    /**************************************************************************
+     * Constructor for the MessageCodec class. Each connection should have its
+     * own codec, which is reused for every message on that connection.
+     *************************************************************************/
+    public MessageCodec () {
+        this.buf = ByteBuffer.allocate(MAX_BYTES);
+    }
+
+
+    /**************************************************************************
+     * Converts a string to a protocol compliant message.
+     * @param str - The string to encode
+     * @return - The ASCII bytes of the string followed by a line feed
+     *************************************************************************/
+    public static byte[] encode (String str) {
+        return (str + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**************************************************************************
+     * Gets the buffer to read bytes from the network into. Bytes must only
+     * be added after its position, and frames are then taken out with
+     * nextFrame.
+     * @return - The buffer for received bytes
+     *************************************************************************/
+    public ByteBuffer buffer () {
+        return buf;
+    }
+
+
+    /**************************************************************************
+     * Switches from splitting the input on line feeds to splitting it into
+     * frames of a fixed length, as used by the binary protocol. Bytes already
+     * received after the current frame are split the new way.
+     * @param length - The length of every frame from now on, or 0 to go back
+     *                 to lines
+     *************************************************************************/
+    public void setFixedLength (int length) {
+        this.fixedLength = length;
+        this.scanned = consumed;
+    }
+
+
+    /**************************************************************************
+     * Finds the next complete frame among the bytes received so far. A frame
+     * is everything up to and including a line feed. If the buffer fills up
+     * without a line feed, everything in it is returned as one frame that
+     * isn't valid, so the caller can reject it. With a fixed frame length,
+     * a frame is simply the next that many bytes.
+     * @return - True if a frame is available, otherwise false
+     *************************************************************************/
+    public boolean nextFrame () {
+        byte[] data = buf.array();
+        int end = buf.position();
+
+        if (fixedLength > 0) {
+            if (end - consumed >= fixedLength) {
+                setFrame(consumed + fixedLength);
+                return true;
+            }
+        } else {
+            for (int i = Math.max(scanned, consumed); i < end; i++) {
+                if (data[i] == LINE_FEED) {
+                    setFrame(i + 1);
+                    return true;
+                }
+            }
+        }
+
+        scanned = end;
+
+        // Nothing left to scan, so make room for the next read
+        if (consumed > 0) {
+            buf.flip();
+            buf.position(consumed);
+            buf.compact();
+            scanned -= consumed;
+            consumed = 0;
+        }
+
+        if (!buf.hasRemaining()) {
+            setFrame(buf.position());
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**************************************************************************
+     * Marks the bytes from the end of the last frame up to an index as the
+     * current frame.
+     * @param end - The index after the last byte of the frame
+     *************************************************************************/
+    private void setFrame (int end) {
+        frameOffset = consumed;
+        frameLength = end - consumed;
+        consumed = end;
+        scanned = end;
+    }
+
+
+    /**************************************************************************
+     * Reads from a stream until a complete frame is available, blocking if
+     * needed. Bytes after the frame are kept for the next call.
+     * @param stream - The stream to read from
+     * @return - True if a frame is available, or false if the stream ended
+     * @throws IOException - If the stream can't be read
+     *************************************************************************/
+    public boolean readFrame (InputStream stream) throws IOException {
+        while (!nextFrame()) {
+            int count = stream.read(buf.array(), buf.position(),
+                                    buf.remaining());
+            if (count < 0) return false;
+            buf.position(buf.position() + count);
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Reads whatever a non-blocking channel has available into the buffer.
+     * Frames are then taken out with nextFrame.
+     * @param channel - The channel to read from
+     * @return - The number of bytes read, or -1 if the channel has ended
+     * @throws IOException - If the channel can't be read
+     *************************************************************************/
+    public int readFrom (ReadableByteChannel channel) throws IOException {
+        return channel.read(buf);
+    }
+
+
+    /**************************************************************************
+     * @return - The array holding the current frame
+     *************************************************************************/
+    public byte[] array () {
+        return buf.array();
+    }
+
+
+    /**************************************************************************
+     * @return - The index of the first byte of the current frame
+     *************************************************************************/
+    public int frameOffset () {
+        return frameOffset;
+    }
+
+
+    /**************************************************************************
+     * @return - The length of the current frame, including the line feed
+     *************************************************************************/
+    public int frameLength () {
+        return frameLength;
+    }
+
+
+    /**************************************************************************
+     * Copies the current frame into a new array, for callers that need to
+     * keep it after the next frame is read.
+     * @return - A copy of the current frame
+     *************************************************************************/
+    public byte[] copyFrame () {
+        byte[] frame = new byte[frameLength];
+        System.arraycopy(buf.array(), frameOffset, frame, 0, frameLength);
+        return frame;
+    }
+
+
+    /**************************************************************************
+     * Checks that part of an array is a protocol compliant message. That is,
+     * that it contains only ASCII characters and ends with a line feed.
+     * @param b - The array containing the message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message
+     * @return - True if the message follows the protocol, otherwise false
+     *************************************************************************/
+    public static boolean isValidFrame (byte[] b, int off, int len) {
+        if (len < 1 || b[off + len - 1] != LINE_FEED) return false;
+
+        // Bytes are signed, so anything above 127 is negative
+        for (int i = off; i < off + len; i++) {
+            if (b[i] < 0) return false;
+        }
+
+        return true;
+    }
+
+
+    /**************************************************************************
+     * Checks if part of an array is exactly the same as a given message, for
+     * matching control messages without building a string.
+     * @param b - The array containing the message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message
+     * @param expected - The encoded message to compare against
+     * @return - True if the bytes match, otherwise false
+     *************************************************************************/
+    public static boolean matches (byte[] b, int off, int len,
+                                   byte[] expected)
+    {
+        if (len != expected.length) return false;
+
+        return startsWith(b, off, len, expected);
+    }
+
+
+    /**************************************************************************
+     * Checks if part of an array starts with a given prefix.
+     * @param b - The array containing the message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message
+     * @param prefix - The bytes the message should start with
+     * @return - True if the message starts with the prefix, otherwise false
+     *************************************************************************/
+    public static boolean startsWith (byte[] b, int off, int len,
+                                      byte[] prefix)
+    {
+        if (len < prefix.length) return false;
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[off + i] != prefix[i]) return false;
+        }
+
+        return true;
+    }
+}
@@ -9,6 +9,61 @@ public class ProtocolHandler {
     public static final String INVALID_GUESS = "INVALID GUESS";
     public static final String END_GAME = "GAME OVER";
 
+    // Starting and resuming games that can be carried on after a disconnect
+    public static final String START_SESSION = "START SESSION";
+    public static final String SESSION = "SESSION ";
+    public static final String RESUME = "RESUME ";
+    public static final String UNKNOWN_SESSION = "UNKNOWN SESSION";
+
+    // Games from another of the server's word lists are started with the
+    // word length, the language, or both, e.g. START GAME 6 en. The first
+    // hint is an underscore for each letter.
+    public static final String START_GAME_WITH = "START GAME ";
+    public static final String UNKNOWN_DICTIONARY = "UNKNOWN DICTIONARY";
+
+    // Race rooms, where everyone in a room guesses the same target. A
+    // player is told its number and then plays as normal, and every member
+    // is sent the other players' progress and the winner as they happen.
+    public static final String JOIN_ROOM = "JOIN ROOM ";
+    public static final String WATCH_ROOM = "WATCH ROOM ";
+    public static final String JOINED = "JOINED ";
+    public static final String WATCHING = "WATCHING";
+    public static final String ROOM_EVENT = "ROOM ";
+    public static final String ROOM_PLAYER = "ROOM PLAYER ";
+    public static final String ROOM_WINNER = "ROOM WINNER ";
+    public static final String TOO_SLOW = "TOO SLOW";
+
+    // Sent instead of a game when the server is too busy to take a client
+    public static final String SERVER_BUSY = "SERVER BUSY";
+
+    // Games whose state is carried by the client in a sealed token. Every
+    // reply with a hint ends with a space and the token, and every guess
+    // must end with the last token the client was given.
+    public static final String START_STATELESS = "START GAME STATELESS";
+    public static final String INVALID_TOKEN = "INVALID TOKEN";
+    public static final int TOKEN_CHARS = 48;
+
+    // Health checks, answered without starting a game
+    public static final String PING = "PING";
+    public static final String PONG = "PONG";
+
+    // Hard mode games, where every guess must use the hints so far. A
+    // guess that doesn't is refused without being counted.
+    public static final String START_HARD = "START GAME HARD";
+    public static final String HINT_NOT_USED = "HINT NOT USED";
+
+    // Sent before closing a client that took too long
+    public static final String TIMED_OUT = "TIMED OUT";
+
+    // Player statistics. PLAYER names the player whose games are counted,
+    // and STATS and LEADERBOARD can be asked before any game
+    public static final String PLAYER = "PLAYER ";
+    public static final String STATS = "STATS ";
+    public static final String UNKNOWN_PLAYER = "UNKNOWN PLAYER";
+    public static final String LEADERBOARD = "LEADERBOARD";
+    public static final String LEADER = "LEADER ";
+    public static final String END_LEADERBOARD = "END LEADERBOARD";
+
 
     /**************************************************************************
      * Enum used to store the differnt types of control messages used in the
@@ -32,9 +87,7 @@ public class ProtocolHandler {
      * @return
      *************************************************************************/
     public static byte[] encodeMessage (String str) {
-        String data = str + "\n";
-        byte[] msg = data.getBytes(StandardCharsets.US_ASCII);
-        return msg;
+        return MessageCodec.encode(str);
     }
     
 
@@ -59,18 +112,20 @@ public class ProtocolHandler {
      * @return - True if the message follows the protocol, otherwise false
      *************************************************************************/
     public static boolean isValidProtocolMessage (byte[] msg) {
-        boolean isValid = true;
-        
-        // Check that the final character is a line feed character
-        if (msg[msg.length - 1] != 10) isValid = false;
-
-        // Make sure that, in accordance to the protocol specifications, the
-        // message contains only ASCII characters.
-        for (byte b: msg) {
-            if (b < 0 || b > 127) isValid = false;
-        }
+        return MessageCodec.isValidFrame(msg, 0, msg.length);
+    }
 
-        return isValid;
+
+    /**************************************************************************
+     * Checks to see if part of an array is a valid message by the rules of
+     * the networdle protocol, without copying it out of the array.
+     * @param b - The array containing the message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message
+     * @return - True if the message follows the protocol, otherwise false
+     *************************************************************************/
+    public static boolean isValidProtocolMessage (byte[] b, int off, int len) {
+        return MessageCodec.isValidFrame(b, off, len);
     }
 
     /**************************************************************************
@@ -82,27 +137,44 @@ public class ProtocolHandler {
      * @return
      *************************************************************************/
     public static boolean isValidControlMessage (byte[] m, ControlMessage c) {
+        return isValidControlMessage(m, 0, m.length, c);
+    }
+
+
+    /**************************************************************************
+     * Checks that part of an array is a given control message. The message
+     * is compared byte for byte against the encoded control message, so no
+     * string needs to be built.
+     * @param b - The array containing the message
+     * @param off - The index of the first byte of the message
+     * @param len - The length of the message
+     * @param c - The type of control message to check
+     * @return - True if the message is the given control message
+     *************************************************************************/
+    public static boolean isValidControlMessage (byte[] b, int off, int len,
+                                                 ControlMessage c)
+    {
         switch (c) {
             // Checks for valid START GAME from client
             case CLIENT_START_GAME:
-                return isValidProtocolMessage(m) 
-                        && decodeMessage(m).equals(START_GAME);
+                return MessageCodec.matches(b, off, len,
+                                            MessageCodec.START_GAME);
 
             // Checks for valid '_____' response from server to new game
             case SERVER_START_GAME_RESPONSE:
-                return isValidProtocolMessage(m)
-                        && decodeMessage(m).equals(START_RESPONSE); 
+                return MessageCodec.matches(b, off, len,
+                                            MessageCodec.START_RESPONSE);
 
             // Checks for valid GAME OVER message from server
             case SERVER_END_GAME:
-                return isValidProtocolMessage(m) 
-                        && decodeMessage(m).equals(END_GAME); 
+                return MessageCodec.matches(b, off, len,
+                                            MessageCodec.END_GAME);
 
             // Checks for valid INVALID GUESS from server
             case SERVER_INVALID_GUESS:
-                return isValidProtocolMessage(m)
-                        && decodeMessage(m).equals(INVALID_GUESS);
-            
+                return MessageCodec.matches(b, off, len,
+                                            MessageCodec.INVALID_GUESS);
+
             default:
                 return false;
         }
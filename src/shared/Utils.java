@@ -1,13 +1,95 @@
 package src.shared;
 
 public class Utils {
+    /**************************************************************************
+     * Log levels, from most to least verbose. Messages below the current
+     * level are skipped.
+     *************************************************************************/
+    public enum Level {
+        INFO,
+        ERROR,
+        OFF
+    }
+
+    private static final String NL = System.lineSeparator();
+
+    private static volatile Level level = Level.INFO;
+    private static volatile AsyncLogger logger;     // Null to log in place
+
+    /**************************************************************************
+     * Sets the lowest level of message that gets logged.
+     * @param newLevel - The new level
+     *************************************************************************/
+    public static void setLevel (Level newLevel) {
+        level = newLevel;
+    }
+
+
+    /**************************************************************************
+     * @param check - The level to check
+     * @return - True if messages at the given level are logged
+     *************************************************************************/
+    public static boolean isEnabled (Level check) {
+        return check.compareTo(level) >= 0;
+    }
+
+
+    /**************************************************************************
+     * Switches logging from writing to standard out on the calling thread to
+     * queueing messages for a background writer. Meant for the server, where
+     * many games log at once; interactive programs should keep logging in
+     * place so their output stays in order with their prompts. Anything
+     * still queued is written out when the program exits.
+     * @param capacity - The number of messages that can be queued
+     * @param policy - What to do with a message when the queue is full
+     *************************************************************************/
+    public static synchronized void startAsync (int capacity,
+                                                AsyncLogger.FullPolicy policy)
+    {
+        if (logger != null) return;
+
+        AsyncLogger async = new AsyncLogger(capacity, policy);
+        Runtime.getRuntime().addShutdownHook(new Thread(async::flush));
+        logger = async;
+    }
+
+
+    /**************************************************************************
+     * @return - The number of messages dropped because the queue was full
+     *************************************************************************/
+    public static long getDroppedCount () {
+        AsyncLogger async = logger;
+        return (async == null) ? 0 : async.getDroppedCount();
+    }
+
+
+    /**************************************************************************
+     * Writes a formatted message, either in place or through the background
+     * writer.
+     * @param text - The message, with its line breaks
+     *************************************************************************/
+    private static void write (String text) {
+        AsyncLogger async = logger;
+
+        if (async != null) {
+            async.log(text);
+        } else {
+            System.out.print(text);
+        }
+    }
+
+
     /**************************************************************************
      * A utility function used for printing an error to standard out and then
-     * exiting the program.
+     * exiting the program. The error is always printed, whatever the level,
+     * and anything queued before it is written out first.
      * @param message - The message to be displayed before exiting
      *************************************************************************/
     public static void errorAndDie (String message) {
-        System.out.println("\n[ERROR] " + message);
+        write(NL + "[ERROR] " + message + NL);
+
+        AsyncLogger async = logger;
+        if (async != null) async.flush();
         System.exit(1);
     }
 
@@ -17,8 +99,9 @@ public class Utils {
      * @param message - The error message
      *************************************************************************/
     public static void error (String message) {
-        System.out.println("\n[ERROR] " + message);
-        System.out.println();
+        if (!isEnabled(Level.ERROR)) return;
+
+        write(NL + "[ERROR] " + message + NL + NL);
     }
 
 
@@ -29,18 +112,20 @@ public class Utils {
      * @param e - The associated exception with the error
      *************************************************************************/
     public static void error (String message, Exception e) {
-        System.out.println("\n[ERROR] " + message);
-        System.out.println("\tThe error was:\n\t\t" + e.getMessage());
-        System.out.println();
+        if (!isEnabled(Level.ERROR)) return;
+
+        write(NL + "[ERROR] " + message + NL
+              + "\tThe error was:" + NL + "\t\t" + e.getMessage() + NL + NL);
     }
-    
+
 
     /**************************************************************************
      * A utility function used for printing an info message to standard out
      * @param message - The message to be displayed
      *************************************************************************/
     public static void info (String message) {
-        System.out.println("\n[INFO] " + message);
-        System.out.println();
+        if (!isEnabled(Level.INFO)) return;
+
+        write(NL + "[INFO] " + message + NL + NL);
     }
 }
@@ -0,0 +1,296 @@
+package src.shared;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+public class WordDictionary {
+    public static final int WORD_LENGTH = 5;
+    public static final int BITS_PER_LETTER = 5;
+    public static final int INVALID_WORD = -1;
+
+    private static final int LETTER_MASK = (1 << BITS_PER_LETTER) - 1;
+
+    private final IntBuffer guesses;    // Sorted packed valid guesses
+    private final IntBuffer targets;    // Packed target words, file order
+
+    /**************************************************************************
+     * Constructor for the WordDictionary class. Takes ownership of the given
+     * arrays, which must not be modified afterwards.
+     * @param guesses - The packed valid guesses, sorted ascending
+     * @param targets - The packed target words
+     *************************************************************************/
+    public WordDictionary (int[] guesses, int[] targets) {
+        this(IntBuffer.wrap(guesses), IntBuffer.wrap(targets));
+    }
+
+
+    /**************************************************************************
+     * Constructor for a dictionary backed by existing buffers, such as the
+     * sections of a memory mapped snapshot file. Lookups are served straight
+     * from the buffers without copying them onto the heap.
+     * @param guesses - The packed valid guesses, sorted ascending
+     * @param targets - The packed target words
+     *************************************************************************/
+    public WordDictionary (IntBuffer guesses, IntBuffer targets) {
+        this.guesses = guesses;
+        this.targets = targets;
+    }
+
+
+    /**************************************************************************
+     * Loads the guess and target word lists from the given text files, one
+     * word per line. Lines that aren't a valid five letter word are skipped.
+     * @param guessPath - The path to the list of valid guesses
+     * @param targetPath - The path to the list of target words
+     * @return - A dictionary containing both lists
+     * @throws IOException - If either file can't be read
+     *************************************************************************/
+    public static WordDictionary load (String guessPath, String targetPath)
+        throws IOException
+    {
+        int[] guesses = readPackedWords(guessPath);
+        int[] targets = readPackedWords(targetPath);
+
+        Arrays.sort(guesses);
+        return new WordDictionary(guesses, targets);
+    }
+
+
+    /**************************************************************************
+     * Reads a word list file and packs every valid word in it.
+     * @param path - The path to the word list
+     * @return - The packed words in the order they appear in the file
+     * @throws IOException - If the file can't be read
+     *************************************************************************/
+    private static int[] readPackedWords (String path) throws IOException {
+        int[] words = new int[4096];
+        int count = 0;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            for (String line; (line = br.readLine()) != null;) {
+                int packed = pack(line.trim());
+                if (packed == INVALID_WORD) continue;
+
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, count * 2);
+                }
+                words[count++] = packed;
+            }
+        }
+
+        return Arrays.copyOf(words, count);
+    }
+
+
+    /**************************************************************************
+     * Packs a five letter word into an int, using five bits per letter. The
+     * first letter is stored in the highest bits so that packed words sort
+     * in the same order as their strings. Letters are case insensitive.
+     * @param word - The word to pack
+     * @return - The packed word, or INVALID_WORD if it isn't five letters
+     *************************************************************************/
+    public static int pack (CharSequence word) {
+        if (word == null || word.length() != WORD_LENGTH) return INVALID_WORD;
+
+        int packed = 0;
+        for (int i = 0; i < WORD_LENGTH; i++) {
+            int letter = letterCode(word.charAt(i));
+            if (letter == 0) return INVALID_WORD;
+            packed = (packed << BITS_PER_LETTER) | letter;
+        }
+
+        return packed;
+    }
+
+
+    /**************************************************************************
+     * Packs a five letter word held as ASCII bytes in a buffer.
+     * @param buf - The buffer containing the word
+     * @param off - The offset of the first letter
+     * @param len - The number of bytes in the word
+     * @return - The packed word, or INVALID_WORD if it isn't five letters
+     *************************************************************************/
+    public static int pack (byte[] buf, int off, int len) {
+        if (len != WORD_LENGTH) return INVALID_WORD;
+
+        int packed = 0;
+        for (int i = 0; i < WORD_LENGTH; i++) {
+            int letter = letterCode((char) buf[off + i]);
+            if (letter == 0) return INVALID_WORD;
+            packed = (packed << BITS_PER_LETTER) | letter;
+        }
+
+        return packed;
+    }
+
+
+    /**************************************************************************
+     * Converts a packed word back into an upper case string.
+     * @param packed - The packed word
+     * @return - The word as a string
+     *************************************************************************/
+    public static String unpack (int packed) {
+        char[] letters = new char[WORD_LENGTH];
+
+        for (int i = 0; i < WORD_LENGTH; i++) {
+            letters[i] = letterAt(packed, i);
+        }
+
+        return new String(letters);
+    }
+
+
+    /**************************************************************************
+     * Gets a single upper case letter out of a packed word.
+     * @param packed - The packed word
+     * @param index - The position of the letter, starting from zero
+     * @return - The letter at the given position
+     *************************************************************************/
+    public static char letterAt (int packed, int index) {
+        int shift = (WORD_LENGTH - 1 - index) * BITS_PER_LETTER;
+        return (char) ('A' - 1 + ((packed >>> shift) & LETTER_MASK));
+    }
+
+
+    /**************************************************************************
+     * Maps a letter to its 1 based position in the alphabet.
+     * @param c - The letter to map
+     * @return - 1 for A through to 26 for Z, or 0 if it isn't a letter
+     *************************************************************************/
+    private static int letterCode (char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A' + 1;
+        if (c >= 'a' && c <= 'z') return c - 'a' + 1;
+        return 0;
+    }
+
+
+    /**************************************************************************
+     * Checks if a word is in the list of valid guesses.
+     * @param word - The word to check
+     * @return - True if the word is a valid guess, otherwise false
+     *************************************************************************/
+    public boolean isValidGuess (CharSequence word) {
+        return isValidGuess(pack(word));
+    }
+
+
+    /**************************************************************************
+     * Checks if a packed word is in the list of valid guesses.
+     * @param packed - The packed word to check
+     * @return - True if the word is a valid guess, otherwise false
+     *************************************************************************/
+    public boolean isValidGuess (int packed) {
+        return guessIndex(packed) >= 0;
+    }
+
+
+    /**************************************************************************
+     * Finds a packed word in the sorted list of valid guesses.
+     * @param packed - The packed word to find
+     * @return - The index of the word in the guess list, or -1 if it isn't
+     *           a valid guess
+     *************************************************************************/
+    public int guessIndex (int packed) {
+        if (packed == INVALID_WORD) return -1;
+
+        // Binary search by hand, as IntBuffer doesn't provide one
+        int low = 0;
+        int high = guesses.limit() - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = guesses.get(mid);
+
+            if (value < packed) {
+                low = mid + 1;
+            } else if (value > packed) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**************************************************************************
+     * Calculates a checksum over both word lists, so that data derived from
+     * a dictionary can tell if it was built from the same lists.
+     * @return - A CRC32 of the packed guesses and targets
+     *************************************************************************/
+    public long fingerprint () {
+        CRC32 crc = new CRC32();
+        ByteBuffer word = ByteBuffer.allocate(4);
+
+        for (int i = 0; i < guesses.limit(); i++) {
+            crc.update(word.putInt(0, guesses.get(i)).array());
+        }
+        for (int i = 0; i < targets.limit(); i++) {
+            crc.update(word.putInt(0, targets.get(i)).array());
+        }
+
+        return crc.getValue();
+    }
+
+
+    /**************************************************************************
+     * Selects a random target word, returning its index in the target list.
+     * @return - The index of the selected target word
+     *************************************************************************/
+    public int randomTargetIndex () {
+        return ThreadLocalRandom.current().nextInt(targets.limit());
+    }
+
+
+    /**************************************************************************
+     * Gets the packed target word at an index in the target list.
+     * @param index - The index of the target word
+     * @return - The packed target word
+     *************************************************************************/
+    public int targetPacked (int index) {
+        return targets.get(index);
+    }
+
+
+    /**************************************************************************
+     * Gets the target word at an index in the target list.
+     * @param index - The index of the target word
+     * @return - The target word as an upper case string
+     *************************************************************************/
+    public String targetWord (int index) {
+        return unpack(targets.get(index));
+    }
+
+
+    /**************************************************************************
+     * @return - The number of target words in the dictionary
+     *************************************************************************/
+    public int targetCount () {
+        return targets.limit();
+    }
+
+
+    /**************************************************************************
+     * @return - The number of valid guesses in the dictionary
+     *************************************************************************/
+    public int guessCount () {
+        return guesses.limit();
+    }
+
+
+    /**************************************************************************
+     * Gets the packed valid guess at an index in the sorted guess list.
+     * @param index - The index of the guess
+     * @return - The packed guess
+     *************************************************************************/
+    public int guessPacked (int index) {
+        return guesses.get(index);
+    }
+}
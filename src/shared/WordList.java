@@ -0,0 +1,215 @@
+package src.shared;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/******************************************************************************
+ * The guess and target lists for words of any length from MIN_LENGTH to
+ * MAX_LENGTH. Words are packed five bits per letter like WordDictionary, but
+ * into a long, since eight letters need 40 bits. The usual five letter lists
+ * stay in a WordDictionary, so their games never pay for the wider words.
+ *****************************************************************************/
+public class WordList {
+    public static final int MIN_LENGTH = 4;
+    public static final int MAX_LENGTH = 8;
+    public static final long INVALID_WORD = -1;
+
+    private static final int LETTER_MASK =
+                            (1 << WordDictionary.BITS_PER_LETTER) - 1;
+
+    private final String name;          // e.g. en/6, for logging
+    private final int length;           // Letters in every word
+    private final long[] guesses;       // Sorted packed valid guesses
+    private final long[] targets;       // Packed target words, file order
+
+    /**************************************************************************
+     * Constructor for the WordList class. Takes ownership of the given
+     * arrays, which must not be modified afterwards.
+     * @param name - The list's language and length, for logging
+     * @param length - The number of letters in every word
+     * @param guesses - The packed valid guesses, sorted ascending
+     * @param targets - The packed target words
+     *************************************************************************/
+    public WordList (String name, int length, long[] guesses, long[] targets) {
+        this.name = name;
+        this.length = length;
+        this.guesses = guesses;
+        this.targets = targets;
+    }
+
+
+    /**************************************************************************
+     * Loads the guess and target lists from text files, one word per line.
+     * Lines that aren't a word of the right length are skipped.
+     * @param name - The list's language and length, for logging
+     * @param length - The number of letters in every word
+     * @param guessPath - The path to the list of valid guesses
+     * @param targetPath - The path to the list of target words
+     * @return - The word list
+     * @throws IOException - If either file can't be read
+     *************************************************************************/
+    public static WordList load (String name, int length, String guessPath,
+                                 String targetPath)
+        throws IOException
+    {
+        long[] guesses = readPackedWords(guessPath, length);
+        long[] targets = readPackedWords(targetPath, length);
+
+        Arrays.sort(guesses);
+        return new WordList(name, length, guesses, targets);
+    }
+
+
+    /**************************************************************************
+     * Reads a word list file and packs every valid word in it.
+     * @param path - The path to the word list
+     * @param length - The number of letters in every word
+     * @return - The packed words in the order they appear in the file
+     * @throws IOException - If the file can't be read
+     *************************************************************************/
+    private static long[] readPackedWords (String path, int length)
+        throws IOException
+    {
+        long[] words = new long[4096];
+        int count = 0;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            for (String line; (line = br.readLine()) != null;) {
+                byte[] b = line.trim().getBytes(StandardCharsets.US_ASCII);
+                long packed = pack(b, 0, b.length, length);
+                if (packed == INVALID_WORD) continue;
+
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, count * 2);
+                }
+                words[count++] = packed;
+            }
+        }
+
+        return Arrays.copyOf(words, count);
+    }
+
+
+    /**************************************************************************
+     * Packs a word held as ASCII bytes in a buffer into a long, five bits
+     * per letter with the first letter highest. Letters are case
+     * insensitive.
+     * @param buf - The buffer containing the word
+     * @param off - The offset of the first letter
+     * @param len - The number of bytes in the word
+     * @param length - The length the word has to be
+     * @return - The packed word, or INVALID_WORD if it isn't a word of that
+     *           length
+     *************************************************************************/
+    public static long pack (byte[] buf, int off, int len, int length) {
+        if (len != length) return INVALID_WORD;
+
+        long packed = 0;
+        for (int i = 0; i < length; i++) {
+            int c = buf[off + i];
+            int letter = (c >= 'A' && c <= 'Z') ? c - 'A' + 1
+                       : (c >= 'a' && c <= 'z') ? c - 'a' + 1
+                       : 0;
+            if (letter == 0) return INVALID_WORD;
+            packed = (packed << WordDictionary.BITS_PER_LETTER) | letter;
+        }
+
+        return packed;
+    }
+
+
+    /**************************************************************************
+     * Packs a word of this list's length.
+     * @param buf - The buffer containing the word
+     * @param off - The offset of the first letter
+     * @param len - The number of bytes in the word
+     * @return - The packed word, or INVALID_WORD if it isn't valid
+     *************************************************************************/
+    public long pack (byte[] buf, int off, int len) {
+        return pack(buf, off, len, length);
+    }
+
+
+    /**************************************************************************
+     * Converts a packed word back into an upper case string.
+     * @param packed - The packed word
+     * @return - The word as a string
+     *************************************************************************/
+    public String unpack (long packed) {
+        char[] letters = new char[length];
+
+        for (int i = 0; i < length; i++) {
+            int shift = (length - 1 - i) * WordDictionary.BITS_PER_LETTER;
+            int letter = (int) (packed >>> shift) & LETTER_MASK;
+            letters[i] = (char) ('A' - 1 + letter);
+        }
+
+        return new String(letters);
+    }
+
+
+    /**************************************************************************
+     * Checks if a packed word is in the list of valid guesses.
+     * @param packed - The packed word to check
+     * @return - True if the word is a valid guess, otherwise false
+     *************************************************************************/
+    public boolean isValidGuess (long packed) {
+        return packed != INVALID_WORD
+               && Arrays.binarySearch(guesses, packed) >= 0;
+    }
+
+
+    /**************************************************************************
+     * Selects a random target word, returning its index in the target list.
+     * @return - The index of the selected target word
+     *************************************************************************/
+    public int randomTargetIndex () {
+        return ThreadLocalRandom.current().nextInt(targets.length);
+    }
+
+
+    /**************************************************************************
+     * Gets the packed target word at an index in the target list.
+     * @param index - The index of the target word
+     * @return - The packed target word
+     *************************************************************************/
+    public long targetPacked (int index) {
+        return targets[index];
+    }
+
+
+    /**************************************************************************
+     * @return - The number of target words in the list
+     *************************************************************************/
+    public int targetCount () {
+        return targets.length;
+    }
+
+
+    /**************************************************************************
+     * @return - The number of valid guesses in the list
+     *************************************************************************/
+    public int guessCount () {
+        return guesses.length;
+    }
+
+
+    /**************************************************************************
+     * @return - The number of letters in every word
+     *************************************************************************/
+    public int length () {
+        return length;
+    }
+
+
+    /**************************************************************************
+     * @return - The list's language and length, e.g. en/6
+     *************************************************************************/
+    public String getName () {
+        return name;
+    }
+}
@@ -0,0 +1,5 @@
+echo Building...
+mvn -B -q package
+
+echo Running Benchmarks...
+java -jar bench/target/benchmarks.jar -rf json -rff "${RESULT:-jmh-result.json}" "$@"
@@ -2,4 +2,4 @@ echo Compiling Client...
 javac src/client/Client.java
 
 echo Running Client...
-java src/client/Client $1 $2
\ No newline at end of file
+java src/client/Client "$@"
@@ -0,0 +1,5 @@
+echo Compiling Load Generator...
+javac src/client/LoadGenerator.java
+
+echo Running Load Generator...
+java src/client/LoadGenerator "$@"
@@ -0,0 +1,5 @@
+echo Compiling Router...
+javac src/router/Router.java
+
+echo Running Router...
+java src/router/Router "$@"
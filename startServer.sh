@@ -6,4 +6,4 @@ echo Compiling Server...
 javac src/server/Entrypoint.java
 
 echo Running Server...
-java src/server/Entrypoint $1
\ No newline at end of file
+java src/server/Entrypoint "$@"
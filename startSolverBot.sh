@@ -0,0 +1,5 @@
+echo Compiling Solver Bot...
+javac src/client/SolverBot.java
+
+echo Running Solver Bot...
+java src/client/SolverBot "$@"